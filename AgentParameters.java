@@ -0,0 +1,69 @@
+package ZombieSimulator;
+
+/**
+ *
+ * This class holds the numbers that decide how humans and zombies behave: how fast a human can
+ * travel, how fast a zombie is compared to a human, how far a human can see and how big every agent
+ * is. A World is created with one set of parameters and its Human and Zombie behaviours read them
+ * when they are created, so two worlds in the same program can be run with different parameters
+ * (which is what the BatchRunner does to sweep them).
+ *
+ * The defaults are the values the simulator has always used: humans travel 6 a step, zombies half
+ * as fast, humans see a quarter of the world around them and agents are 10 across.
+ */
+public final class AgentParameters {
+    // Sight distance that means "a quarter of the world", worked out from the world's size
+    public static final int QUARTER_OF_WORLD = 0;
+    public static final AgentParameters DEFAULT = new AgentParameters(6, 0.5, QUARTER_OF_WORLD, 10);
+
+    private final double humanSpeed;
+    private final double speedRatio;
+    private final int sightDistance;
+    private final double size;
+
+    /**
+     * Creates a set of parameters
+     * @param humanSpeed fastest a human can travel in one step
+     * @param speedRatio zombie speed as a fraction of the human speed
+     * @param sightDistance how far a human can see, or QUARTER_OF_WORLD
+     * @param size width and height of every agent
+     */
+    public AgentParameters(double humanSpeed, double speedRatio, int sightDistance, double size) {
+        if (humanSpeed <= 0 || speedRatio <= 0 || sightDistance < 0 || size <= 0) {
+            throw new IllegalArgumentException("Invalid agent parameters: humanSpeed=" + humanSpeed
+                    + " speedRatio=" + speedRatio + " sightDistance=" + sightDistance + " size=" + size);
+        }
+        this.humanSpeed = humanSpeed;
+        this.speedRatio = speedRatio;
+        this.sightDistance = sightDistance;
+        this.size = size;
+    }
+
+    // Getters
+
+    public double getHumanSpeed() {
+        return this.humanSpeed;
+    }
+
+    public double getSpeedRatio() {
+        return this.speedRatio;
+    }
+
+    public double getZombieSpeed() {
+        return this.humanSpeed * this.speedRatio;
+    }
+
+    public int getSightDistance() {
+        return this.sightDistance;
+    }
+
+    public double getSize() {
+        return this.size;
+    }
+
+    @Override
+    public String toString() {
+        return "humanSpeed=" + humanSpeed + " speedRatio=" + speedRatio + " sightDistance="
+                + (sightDistance == QUARTER_OF_WORLD ? "quarter" : String.valueOf(sightDistance)) + " size=" + size;
+    }
+}
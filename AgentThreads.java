@@ -0,0 +1,175 @@
+package ZombieSimulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Phaser;
+
+/**
+ *
+ * This class is an execution mode where every agent runs its own run() loop on its own thread, the
+ * way each Human used to be a Runnable with its own Thread. Instead of sleeping for 20 ms between
+ * moves, the loops are kept in step by a tick barrier (a tree of Phasers): every agent plans its
+ * move and waits for all the others, the controller converts the infected humans while the agents
+ * wait, then every agent commits its move and waits again, exactly like the phases of
+ * World.tick(). The result of each tick is the same as World.tick() on one thread.
+ *
+ * With virtual threads, 100k+ agent loops can stay alive on a handful of carrier threads because a
+ * virtual thread that waits at the barrier gives its carrier back. Platform threads can be used
+ * instead to compare against one OS thread per agent. The time each tick takes is recorded so the
+ * two can be compared.
+ *
+ * A single Phaser can only hold 65535 parties, so agents are spread over leaf Phasers of up to
+ * LEAF_SIZE agents which are all children of one root Phaser. The controller (whichever thread calls
+ * tick()) is a party of the root.
+ */
+public class AgentThreads {
+    // Number of agents per leaf Phaser
+    private static final int LEAF_SIZE = 1000;
+
+    private final World world;
+    private final boolean virtual;
+    private final Phaser root = new Phaser(1);
+    private final List<Phaser> leaves = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final RollingStats tickLatency = new RollingStats(1024);
+    private int started = 0;
+
+    /**
+     * Creates the agent threads mode for a world. Agent threads are started on the first tick.
+     * @param world the World whose agents each get a thread
+     * @param virtual true to use virtual threads, false to use one platform thread per agent
+     */
+    public AgentThreads(World world, boolean virtual) {
+        this.world = world;
+        this.virtual = virtual;
+    }
+
+    /**
+     * Runs one tick. Any agents added since the last tick get their own thread first, then the
+     * controller opens the barrier for each phase and waits for every agent to get through it.
+     * The barrier is crossed 4 times a tick: start, after plan, after checkKill(), after commit.
+     */
+    public void tick() {
+        synchronized (world) {
+            long start = System.nanoTime();
+            int n = world.beginTick();
+            startAgents(n);
+            long planStart = System.nanoTime();
+            // Start: agents begin planning
+            root.arriveAndAwaitAdvance();
+            // Every agent has planned
+            root.arriveAndAwaitAdvance();
+            long killStart = System.nanoTime();
+            int conversions = world.checkKill();
+            long commitStart = System.nanoTime();
+            // Victims are converted, agents begin committing
+            root.arriveAndAwaitAdvance();
+            // Every agent has committed
+            root.arriveAndAwaitAdvance();
+            long end = System.nanoTime();
+            world.endTick();
+            world.getTickTimings().record(planStart - start, killStart - planStart, commitStart - killStart, end - commitStart,
+                    conversions);
+            tickLatency.record(end - start);
+        }
+    }
+
+    /**
+     * Starts a thread for every agent index from the last started agent up to n.
+     * 
+     * New agents are always put in new leaf Phasers, created with all of their parties already
+     * registered. Agents that are already running arrive at the start of the next tick as soon as
+     * the previous tick is done, so registering a new party with their leaf would have to wait for
+     * a tick that cannot begin. Creating a leaf registers it with the root, which is safe because
+     * the controller has not arrived at the root yet, so the tick cannot begin without the new agents.
+     */
+    private void startAgents(int n) {
+        while (started < n) {
+            int first = started;
+            int count = Math.min(LEAF_SIZE, n - first);
+            Phaser leaf = new Phaser(root, count);
+            leaves.add(leaf);
+            for (int i = first; i < first + count; i++) {
+                AgentLoop loop = new AgentLoop(i, leaf);
+                Thread thread = virtual
+                        ? Thread.ofVirtual().name("agent-" + i).unstarted(loop)
+                        : Thread.ofPlatform().name("agent-" + i).daemon(true).unstarted(loop);
+                threads.add(thread);
+                thread.start();
+            }
+            started += count;
+        }
+    }
+
+    /**
+     * Stops every agent thread by terminating the barrier, and waits for them to finish
+     */
+    public void shutdown() {
+        root.forceTermination();
+        for (Thread thread: threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the recent tick durations in nanoseconds
+     * @return rolling tick latency statistics
+     */
+    public RollingStats getTickLatency() {
+        return this.tickLatency;
+    }
+
+    /**
+     * Returns the number of agent threads that have been started
+     * @return number of agent threads
+     */
+    public int getThreadCount() {
+        return this.started;
+    }
+
+    /**
+     * Returns true if agents run on virtual threads
+     * @return true for virtual threads, false for platform threads
+     */
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+
+    /**
+     * The loop that one agent runs on its own thread. Like Human.run() used to, it loops until it
+     * is stopped, but instead of sleeping it waits at the barrier between each phase.
+     */
+    private class AgentLoop implements Runnable {
+        private final int i;
+        private final Phaser leaf;
+
+        AgentLoop(int i, Phaser leaf) {
+            this.i = i;
+            this.leaf = leaf;
+        }
+
+        @Override
+        public void run() {
+            // arriveAndAwaitAdvance() returns a negative phase once the barrier has been terminated
+            while (leaf.arriveAndAwaitAdvance() >= 0) {
+                world.planRange(i, i + 1);
+                if (leaf.arriveAndAwaitAdvance() < 0) {
+                    return;
+                }
+                // Wait while the controller converts infected humans
+                if (leaf.arriveAndAwaitAdvance() < 0) {
+                    return;
+                }
+                world.commitRange(i, i + 1);
+                if (leaf.arriveAndAwaitAdvance() < 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ZombieSimulator;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ *
+ * This class counts how many bytes of memory are allocated on the heap while a tick runs, using
+ * the allocated bytes counter that the JVM keeps for every thread (ThreadMXBean). The tick's
+ * thread and every ForkJoinPool worker of the World are counted. Every object created during a
+ * tick is garbage the collector has to clean up later, so in steady state a tick should allocate
+ * 0 bytes; a non-zero count shows that something on the hot path creates objects again.
+ *
+ * Reading the counters does not allocate. Agents running on virtual threads (AgentThreads) are not
+ * counted, since the JVM does not keep the counter for virtual threads.
+ */
+public class AllocationCounter {
+    private final World world;
+    private final com.sun.management.ThreadMXBean threads;
+    private final boolean supported;
+    private final RollingStats bytesPerTick = new RollingStats(1024);
+    private long startBytes;
+
+    /**
+     * Creates a counter for ticks of the given world
+     * @param world the World whose worker threads are counted as well as the ticking thread
+     */
+    public AllocationCounter(World world) {
+        this.world = world;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            this.threads = (com.sun.management.ThreadMXBean) bean;
+            this.threads.setThreadAllocatedMemoryEnabled(true);
+            this.supported = true;
+        } else {
+            this.threads = null;
+            this.supported = false;
+        }
+    }
+
+    /**
+     * Called on the ticking thread just before a tick
+     */
+    public void begin() {
+        if (supported) {
+            startBytes = totalAllocatedBytes();
+        }
+    }
+
+    /**
+     * Called on the ticking thread just after a tick, records the bytes allocated since begin()
+     * @return bytes allocated during the tick, or 0 if the JVM cannot count them
+     */
+    public long end() {
+        if (!supported) {
+            return 0;
+        }
+        // A worker thread that finished during the tick takes its count with it, so never go below 0
+        long bytes = Math.max(0, totalAllocatedBytes() - startBytes);
+        bytesPerTick.record(bytes);
+        return bytes;
+    }
+
+    private long totalAllocatedBytes() {
+        long total = threads.getCurrentThreadAllocatedBytes();
+        List<Thread> workers = world.getWorkerThreads();
+        for (int k = 0; k < workers.size(); k++) {
+            long bytes = threads.getThreadAllocatedBytes(workers.get(k).threadId());
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the bytes allocated by recent ticks
+     * @return rolling allocated bytes per tick
+     */
+    public RollingStats getBytesPerTick() {
+        return this.bytesPerTick;
+    }
+
+    /**
+     * Returns true if this JVM can count allocated bytes per thread
+     * @return true if counting is supported
+     */
+    public boolean isSupported() {
+        return this.supported;
+    }
+}
@@ -0,0 +1,277 @@
+package ZombieSimulator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * This class runs many independent headless simulations to study how an outbreak plays out for
+ * different agent parameters. A config file (a Properties file) lists the values to sweep for the
+ * zombie speed ratio, the human sight distance and the agent size, and how many seeded runs to do
+ * for every combination of them. For example:
+ *
+ *   runs=200
+ *   humans=2000
+ *   zombies=10
+ *   maxTicks=20000
+ *   speedRatio=0.25,0.5,0.75
+ *   sightDistance=50,100,quarter
+ *   size=6,10
+ *   output=outbreaks.csv
+ *
+ * Every run gets its own World, run on one thread, and a fixed set of worker threads (one per core
+ * unless "threads" says otherwise) take runs one at a time until none are left. Run r of every
+ * combination uses the seed seed + r, so the combinations are compared on the same starting
+ * positions and random choices, and any row can be reproduced on its own.
+ *
+ * Each run ends when the last human is infected or after maxTicks ticks. As soon as a run ends
+ * its outcome is written as one CSV row: the parameters, the ticks until half and all of the humans
+ * were infected (-1 if that never happened), the humans left and the number of humans alive every
+ * sampleEvery ticks (the infection curve). Rows are written in run order as soon as every run
+ * before them has been written too, so the file is the same whatever the number of threads. Only
+ * the rows of runs that finished ahead of a slower one are held back, and a worker does not start a
+ * run more than AHEAD_PER_THREAD x threads runs past the first row not yet written, so however slow
+ * one run is, no more than that many rows are ever held in memory.
+ */
+public class BatchRunner {
+    // Runs each thread may start past the first row not yet written
+    static final int AHEAD_PER_THREAD = 4;
+    private final int runs;
+    private final int humans, zombies, width, height;
+    private final long seed;
+    private final int maxTicks, sampleEvery;
+    private final double humanSpeed;
+    private final double[] speedRatios, sizes;
+    private final int[] sightDistances;
+    private final int threads;
+    private final Path output;
+
+    /**
+     * Creates a batch from the properties of a config file. Properties that are left out get a
+     * default, and a sweep property that is left out only has the default AgentParameters value.
+     * @param config the batch settings
+     */
+    public BatchRunner(Properties config) {
+        this.runs = Integer.parseInt(config.getProperty("runs", "100"));
+        this.humans = Integer.parseInt(config.getProperty("humans", "2000"));
+        this.zombies = Integer.parseInt(config.getProperty("zombies", "10"));
+        this.width = Integer.parseInt(config.getProperty("width", "500"));
+        this.height = Integer.parseInt(config.getProperty("height", "500"));
+        this.seed = Long.parseLong(config.getProperty("seed", "1"));
+        this.maxTicks = Integer.parseInt(config.getProperty("maxTicks", "20000"));
+        this.sampleEvery = Integer.parseInt(config.getProperty("sampleEvery", "100"));
+        this.humanSpeed = Double.parseDouble(config.getProperty("humanSpeed",
+                String.valueOf(AgentParameters.DEFAULT.getHumanSpeed())));
+        this.speedRatios = parseDoubles(config.getProperty("speedRatio",
+                String.valueOf(AgentParameters.DEFAULT.getSpeedRatio())));
+        this.sightDistances = parseSightDistances(config.getProperty("sightDistance", "quarter"));
+        this.sizes = parseDoubles(config.getProperty("size", String.valueOf(AgentParameters.DEFAULT.getSize())));
+        this.threads = Integer.parseInt(config.getProperty("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        this.output = Path.of(config.getProperty("output", "batch.csv"));
+        if (runs < 1 || maxTicks < 1 || sampleEvery < 1 || threads < 1) {
+            throw new IllegalArgumentException("runs, maxTicks, sampleEvery and threads must be >= 1");
+        }
+    }
+
+    /**
+     * Reads a batch config file
+     * @param file path of the Properties file
+     * @return the batch it describes
+     */
+    public static BatchRunner fromFile(Path file) {
+        Properties config = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            config.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read batch config " + file, e);
+        }
+        return new BatchRunner(config);
+    }
+
+    /**
+     * Runs every run of every combination on the worker threads, writing one CSV row per run to
+     * the output file, and prints how long the batch took
+     */
+    public void run() {
+        int combinations = speedRatios.length * sightDistances.length * sizes.length;
+        int total = combinations * runs;
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        // Rows of runs that finished before a run with a lower number, by run number
+        Map<Integer, String> waiting = new HashMap<>();
+        int[] nextRow = {0};
+        int ahead = AHEAD_PER_THREAD * threads;
+        System.out.printf("Running %d combinations x %d runs on %d threads%n", combinations, runs, threads);
+
+        long start = System.nanoTime();
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(output)))) {
+            out.println(header());
+            Thread[] workers = new Thread[threads];
+            for (int w = 0; w < threads; w++) {
+                workers[w] = Thread.ofPlatform().name("batch-" + w).start(() -> {
+                    int[] curve = new int[maxTicks / sampleEvery + 1];
+                    StringBuilder row = new StringBuilder();
+                    int k;
+                    while (failure.get() == null && (k = next.getAndIncrement()) < total) {
+                        try {
+                            synchronized (out) {
+                                while (k >= nextRow[0] + ahead && failure.get() == null) {
+                                    out.wait();
+                                }
+                            }
+                            if (failure.get() != null) {
+                                return;
+                            }
+                            runOne(k, curve, row);
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                            synchronized (out) {
+                                out.notifyAll();
+                            }
+                            return;
+                        } catch (InterruptedException e) {
+                            failure.compareAndSet(null, new IllegalStateException("Batch worker interrupted", e));
+                            synchronized (out) {
+                                out.notifyAll();
+                            }
+                            return;
+                        }
+                        synchronized (out) {
+                            if (k == nextRow[0]) {
+                                out.println(row);
+                                String held;
+                                while ((held = waiting.remove(++nextRow[0])) != null) {
+                                    out.println(held);
+                                }
+                                out.notifyAll();
+                            } else {
+                                waiting.put(k, row.toString());
+                            }
+                        }
+                        int done = finished.incrementAndGet();
+                        if (done % Math.max(1, total / 10) == 0) {
+                            System.out.printf("%d/%d runs done%n", done, total);
+                        }
+                    }
+                });
+            }
+            for (Thread worker: workers) {
+                worker.join();
+            }
+            if (out.checkError()) {
+                throw new UncheckedIOException(new IOException("Could not write " + output));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + output, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d runs in %.1f s (%.1f runs/s), results in %s%n", total, seconds, total / seconds, output);
+    }
+
+    /**
+     * Runs run number k of the batch and formats its outcome as a CSV row. Runs are numbered with
+     * the run counting fastest, then size, then sight distance, then speed ratio.
+     * @param k number of the run, from 0 to (combinations x runs) - 1
+     * @param curve array reused to hold the infection curve
+     * @param row builder reused for the row
+     */
+    private void runOne(int k, int[] curve, StringBuilder row) {
+        int run = k % runs;
+        int combination = k / runs;
+        double size = sizes[combination % sizes.length];
+        combination /= sizes.length;
+        int sightDistance = sightDistances[combination % sightDistances.length];
+        double speedRatio = speedRatios[combination / sightDistances.length];
+
+        long runSeed = seed + run;
+        World world = new World(width, height, runSeed, new AgentParameters(humanSpeed, speedRatio, sightDistance, size));
+        SimulationEngine.populate(world, humans, zombies, runSeed);
+        int startHumans = world.getHumanCount();
+        int ticksToHalf = -1, ticksToExtinction = -1;
+        int samples = 0;
+        for (int tick = 0; tick <= maxTicks; tick++) {
+            int alive = world.getHumanCount();
+            if (tick % sampleEvery == 0) {
+                curve[samples++] = alive;
+            }
+            if (ticksToHalf < 0 && 2 * alive <= startHumans) {
+                ticksToHalf = tick;
+            }
+            if (alive == 0) {
+                ticksToExtinction = tick;
+                break;
+            }
+            if (tick < maxTicks) {
+                world.tick();
+            }
+        }
+        // Nobody is left to infect, so the rest of the curve is 0
+        while (samples < curve.length) {
+            curve[samples++] = 0;
+        }
+
+        row.setLength(0);
+        row.append(run).append(',').append(runSeed).append(',').append(speedRatio).append(',')
+                .append(sightDistance == AgentParameters.QUARTER_OF_WORLD ? "quarter" : String.valueOf(sightDistance))
+                .append(',').append(size).append(',').append(startHumans).append(',').append(zombies).append(',')
+                .append(ticksToHalf).append(',').append(ticksToExtinction).append(',').append(world.getHumanCount());
+        for (int h: curve) {
+            row.append(',').append(h);
+        }
+    }
+
+    /**
+     * Returns the CSV header, with a humans_at_T column for every sampled tick T
+     */
+    private String header() {
+        StringBuilder header = new StringBuilder(
+                "run,seed,speed_ratio,sight_distance,size,humans,zombies,ticks_to_half,ticks_to_extinction,final_humans");
+        for (int tick = 0; tick <= maxTicks; tick += sampleEvery) {
+            header.append(",humans_at_").append(tick);
+        }
+        return header.toString();
+    }
+
+    /**
+     * Parses a comma separated list of numbers
+     */
+    private static double[] parseDoubles(String list) {
+        String[] values = list.split(",");
+        double[] parsed = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = Double.parseDouble(values[i].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a comma separated list of sight distances, where "quarter" means a quarter of the world
+     */
+    private static int[] parseSightDistances(String list) {
+        String[] values = list.split(",");
+        int[] parsed = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i].trim();
+            parsed[i] = value.equals("quarter") ? AgentParameters.QUARTER_OF_WORLD : Integer.parseInt(value);
+        }
+        return parsed;
+    }
+}
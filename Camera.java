@@ -0,0 +1,103 @@
+package ZombieSimulator;
+
+/**
+ *
+ * This class is the view the DrawPanel shows of the world: which world location is at the top left
+ * corner of the panel and how many pixels one unit of the world takes up (the scale). The world's
+ * size no longer depends on the window, so a world far larger than the screen can be looked at
+ * whole, zoomed out, or a small part of it up close.
+ *
+ * Until the view is panned or zoomed, the camera follows the panel and fits the whole world in it,
+ * so a world the same size as the panel looks exactly as it always has. fit() goes back to that.
+ */
+public class Camera {
+    // Most pixels one unit of the world can take up
+    private static final double MAX_SCALE = 32;
+
+    private double left, top;
+    private double scale = 1;
+    private boolean fitted = true;
+
+    /**
+     * Fits the whole world in the panel if the view has not been panned or zoomed since the last
+     * call to fit(). Called before every paint, so the fitted view follows the panel's size.
+     * @param worldWidth width of the world
+     * @param worldHeight height of the world
+     * @param panelWidth width of the panel in pixels
+     * @param panelHeight height of the panel in pixels
+     */
+    public void update(int worldWidth, int worldHeight, int panelWidth, int panelHeight) {
+        if (!fitted) {
+            return;
+        }
+        scale = Math.min(MAX_SCALE, Math.min((double) Math.max(1, panelWidth) / Math.max(1, worldWidth),
+                (double) Math.max(1, panelHeight) / Math.max(1, worldHeight)));
+        // Centre the world in the panel
+        left = (worldWidth - panelWidth / scale) / 2;
+        top = (worldHeight - panelHeight / scale) / 2;
+    }
+
+    /**
+     * Goes back to showing the whole world, from the next call to update()
+     */
+    public void fit() {
+        fitted = true;
+    }
+
+    /**
+     * Moves the view by a number of pixels, for example while the mouse is dragged
+     * @param dx pixels to move the world to the right
+     * @param dy pixels to move the world down
+     */
+    public void pan(double dx, double dy) {
+        left -= dx / scale;
+        top -= dy / scale;
+        fitted = false;
+    }
+
+    /**
+     * Zooms in or out, keeping the world location under the given pixel where it is
+     * @param screenX X location of the pixel to zoom around
+     * @param screenY Y location of the pixel to zoom around
+     * @param factor how much to multiply the scale by, more than 1 zooms in
+     */
+    public void zoom(double screenX, double screenY, double factor) {
+        double worldX = toWorldX(screenX), worldY = toWorldY(screenY);
+        scale = Math.max(Double.MIN_NORMAL, Math.min(MAX_SCALE, scale * factor));
+        left = worldX - screenX / scale;
+        top = worldY - screenY / scale;
+        fitted = false;
+    }
+
+    // Conversions between world locations and pixels of the panel
+
+    public double toScreenX(double worldX) {
+        return (worldX - left) * scale;
+    }
+
+    public double toScreenY(double worldY) {
+        return (worldY - top) * scale;
+    }
+
+    public double toWorldX(double screenX) {
+        return left + screenX / scale;
+    }
+
+    public double toWorldY(double screenY) {
+        return top + screenY / scale;
+    }
+
+    // The view: world location of the top left pixel, and pixels per unit of the world
+
+    public double getLeft() {
+        return this.left;
+    }
+
+    public double getTop() {
+        return this.top;
+    }
+
+    public double getScale() {
+        return this.scale;
+    }
+}
@@ -0,0 +1,86 @@
+package ZombieSimulator;
+
+/**
+ *
+ * This interface holds the two loops that every nearest-agent search spends its time in: the
+ * squared distance from one location to a block of candidates, reduced either to the nearest
+ * candidate or to the first candidate within a radius. The candidates are a run of the arrays a
+ * SpatialGrid keeps (Population indexes and a copy of their X and Y locations, cell after cell),
+ * so the loops read memory in order and can work on several candidates at once.
+ *
+ * Every kernel must give exactly the same answer as ScalarDistanceKernel, including ties, so the
+ * simulation is the same whichever kernel runs it. preferred() picks VectorDistanceKernel when the
+ * jdk.incubator.vector module is there (java --add-modules jdk.incubator.vector) and
+ * ScalarDistanceKernel when it is not.
+ */
+public interface DistanceKernel {
+
+    /**
+     * Finds the candidate in ids[from, to) nearest to location xy. When several candidates are the
+     * same distance away, the one with the lowest Population index wins.
+     * @param xs X location of each candidate
+     * @param ys Y location of each candidate
+     * @param ids Population index of each candidate
+     * @param from first candidate (inclusive)
+     * @param to last candidate (exclusive)
+     * @param x X location to measure from
+     * @param y Y location to measure from
+     * @return position of the nearest candidate in the arrays, or -1 if from == to
+     */
+    int nearest(double[] xs, double[] ys, int[] ids, int from, int to, double x, double y);
+
+    /**
+     * Finds the candidate in ids[from, to) with the lowest Population index that is within radius of
+     * location xy
+     * @param xs X location of each candidate
+     * @param ys Y location of each candidate
+     * @param ids Population index of each candidate
+     * @param from first candidate (inclusive)
+     * @param to last candidate (exclusive)
+     * @param x X location to measure from
+     * @param y Y location to measure from
+     * @param radius2 the radius squared
+     * @return position of the candidate in the arrays, or -1 if no candidate is within radius
+     */
+    int firstWithin(double[] xs, double[] ys, int[] ids, int from, int to, double x, double y, double radius2);
+
+    /**
+     * Returns a short name for the kernel, for example to print with the results of a run
+     * @return the kernel's name
+     */
+    String getName();
+
+    /**
+     * Returns the fastest kernel this JVM can run: the vector kernel if the jdk.incubator.vector
+     * module was added to the JVM, the scalar kernel otherwise
+     * @return the kernel to use
+     */
+    static DistanceKernel preferred() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            return new VectorDistanceKernel();
+        }
+        return new ScalarDistanceKernel();
+    }
+
+    /**
+     * Returns a kernel by its name
+     * @param name "scalar", "vector" or "auto" (the same as preferred())
+     * @return the kernel
+     * @throws IllegalArgumentException if the name is unknown or the vector module is missing
+     */
+    static DistanceKernel named(String name) {
+        switch (name) {
+            case "auto":
+                return preferred();
+            case "scalar":
+                return new ScalarDistanceKernel();
+            case "vector":
+                if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                    throw new IllegalArgumentException("The vector kernel needs java --add-modules jdk.incubator.vector");
+                }
+                return new VectorDistanceKernel();
+            default:
+                throw new IllegalArgumentException("Unknown distance kernel: " + name);
+        }
+    }
+}
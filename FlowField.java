@@ -0,0 +1,405 @@
+package ZombieSimulator;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ *
+ * This class is a distance field over the agents of one state, for example every human. The world
+ * is divided into square cells and every cell holds roughly how far it is from the nearest cell
+ * with such an agent in it. An agent that wants to reach the nearest human (a zombie) only has to
+ * walk down the slope of the human field, and an agent that wants to get away from the nearest
+ * zombie (a human) walks up the slope of the zombie field. Reading the slope costs the same however
+ * far away the nearest agent is, where a nearest-agent search has to look at more and more grid
+ * cells the further away it is. One field is shared by every agent, so building it once every few
+ * ticks replaces thousands of searches.
+ *
+ * The field is built with a two pass chamfer distance transform: every cell with an agent starts at
+ * 0 and every other cell at UNREACHED, then a pass from the top left and a pass from the bottom
+ * right each let every cell take its neighbour's distance plus STRAIGHT (to the side) or DIAGONAL
+ * steps. With 3 and 4 the result is within 8% of the straight-line distance, using only integers.
+ * Building it never allocates once the array is big enough.
+ *
+ * Cells are at least minCellSize wide, and bigger in large worlds so the field never has more than
+ * MAX_CELLS cells. The field is only a guide: close to the nearest agent, it is too coarse to aim
+ * with, so agents within NEAR_CELLS cells of the nearest one should aim at it directly.
+ *
+ * With an ObstacleMap the field measures the way around the walls instead of the straight line.
+ * The walls are baked into a mask of wall cells whenever the cells change size (a cell is a wall if
+ * any part of it is), and distances are never passed on through a wall cell or diagonally past the
+ * corner of one. A way around walls can double back, which two passes cannot follow, so instead the
+ * distances spread out from the agents' cells in order of distance (Dial's algorithm): a cell waits
+ * in a bucket for its distance, and as steps only cost STRAIGHT or DIAGONAL, BUCKETS buckets reused
+ * in turn are enough. Every cell is settled once, so a rebuild costs the same however many walls
+ * there are and however winding the ways around them. A wall cell still gets a distance from its
+ * open neighbours, so an agent standing against a wall can read the slope too.
+ */
+public class FlowField {
+    // Distance steps to a neighbouring cell to the side and on a diagonal
+    static final int STRAIGHT = 3, DIAGONAL = 4;
+    // Distance of a cell that no agent can be reached from
+    static final int UNREACHED = 1 << 28;
+    // Agents this many cells from the nearest agent should aim at it directly
+    static final int NEAR_CELLS = 2;
+    private static final int MAX_CELLS = 1 << 20;
+    // Buckets of cells waiting to spread their distance, one for each distance modulo BUCKETS
+    private static final int BUCKETS = DIAGONAL + 1;
+
+    private final Population population;
+    private final byte state;
+    private final double minCellSize;
+    private double cellSize;
+    private int cols = 1, rows = 1;
+    private int[] distance = {UNREACHED};
+    private ObstacleMap obstacles;
+    // The walls baked into cells, for the size of cells in bakedCols and bakedRows
+    private boolean[] wall = new boolean[0];
+    private int bakedCols = -1, bakedRows = -1;
+    // Cells waiting to spread their distance around the walls, and how many there are in each bucket
+    private final int[][] bucket = new int[BUCKETS][16];
+    private final int[] bucketSize = new int[BUCKETS];
+    private int queued;
+
+    /**
+     * Creates an empty field, which is UNREACHED everywhere until it is rebuilt
+     * @param population Population that holds the agents
+     * @param state the field measures the distance to agents with this state (HUMAN or ZOMBIE)
+     * @param minCellSize smallest width of a cell, cells get bigger when the world is very large
+     */
+    public FlowField(Population population, byte state, double minCellSize) {
+        this.population = population;
+        this.state = state;
+        this.minCellSize = minCellSize;
+        this.cellSize = minCellSize;
+    }
+
+    /**
+     * Rebuilds the field from the current positions of every agent with the field's state
+     * @param worldWidth width of the world
+     * @param worldHeight height of the world
+     */
+    public void rebuild(int worldWidth, int worldHeight) {
+        int cells = resize(worldWidth, worldHeight);
+        Arrays.fill(distance, 0, cells, UNREACHED);
+        int n = population.size();
+        for (int i = 0; i < n; i++) {
+            if (population.getState(i) == state) {
+                distance[cellAt(population.getX(i), population.getY(i))] = 0;
+            }
+        }
+        if (obstacles != null) {
+            bakeWalls(worldWidth, worldHeight);
+            spreadAroundWalls(cells);
+            return;
+        }
+
+        // Forward pass: take the distance from the left, top left, top and top right neighbours.
+        // The first row and the first and last columns have fewer neighbours, so the inner loops
+        // only handle the cells that have all of them.
+        int[] d = distance;
+        for (int col = 1; col < cols; col++) {
+            d[col] = Math.min(d[col], d[col - 1] + STRAIGHT);
+        }
+        for (int row = 1; row < rows; row++) {
+            int base = row * cols, up = base - cols;
+            int first = d[up] + STRAIGHT;
+            if (cols > 1) {
+                first = Math.min(first, d[up + 1] + DIAGONAL);
+            }
+            d[base] = Math.min(d[base], first);
+            for (int col = 1; col < cols - 1; col++) {
+                int c = base + col, u = up + col;
+                int best = Math.min(d[c - 1], d[u]) + STRAIGHT;
+                best = Math.min(best, Math.min(d[u - 1], d[u + 1]) + DIAGONAL);
+                d[c] = Math.min(d[c], best);
+            }
+            if (cols > 1) {
+                int c = base + cols - 1, u = up + cols - 1;
+                d[c] = Math.min(d[c], Math.min(Math.min(d[c - 1], d[u]) + STRAIGHT, d[u - 1] + DIAGONAL));
+            }
+        }
+        // Backward pass: the same from the right, bottom right, bottom and bottom left neighbours
+        int last = (rows - 1) * cols;
+        for (int col = cols - 2; col >= 0; col--) {
+            d[last + col] = Math.min(d[last + col], d[last + col + 1] + STRAIGHT);
+        }
+        for (int row = rows - 2; row >= 0; row--) {
+            int base = row * cols, down = base + cols;
+            if (cols > 1) {
+                int c = base + cols - 1, b = down + cols - 1;
+                d[c] = Math.min(d[c], Math.min(d[b] + STRAIGHT, d[b - 1] + DIAGONAL));
+            }
+            for (int col = cols - 2; col >= 1; col--) {
+                int c = base + col, b = down + col;
+                int best = Math.min(d[c + 1], d[b]) + STRAIGHT;
+                best = Math.min(best, Math.min(d[b + 1], d[b - 1]) + DIAGONAL);
+                d[c] = Math.min(d[c], best);
+            }
+            int c = base, b = down;
+            int best = d[b] + STRAIGHT;
+            if (cols > 1) {
+                best = Math.min(best, Math.min(d[c + 1] + STRAIGHT, d[b + 1] + DIAGONAL));
+            }
+            d[c] = Math.min(d[c], best);
+        }
+    }
+
+    /**
+     * Works out the size of the cells for a world, and makes sure there is room for all of them
+     * @return the number of cells
+     */
+    private int resize(int worldWidth, int worldHeight) {
+        double area = Math.max(1.0, (double) worldWidth * worldHeight);
+        cellSize = Math.max(minCellSize, Math.sqrt(area / MAX_CELLS));
+        cols = Math.max(1, (int) Math.ceil(worldWidth / cellSize));
+        rows = Math.max(1, (int) Math.ceil(worldHeight / cellSize));
+        int cells = cols * rows;
+        if (distance.length < cells) {
+            distance = new int[cells];
+        }
+        return cells;
+    }
+
+    /**
+     * Copies the distance of every cell into a buffer, so a WorldFile can keep the field
+     * @param out buffer with room for getCellCount() distances
+     */
+    void writeDistances(IntBuffer out) {
+        out.put(0, distance, 0, cols * rows);
+    }
+
+    /**
+     * Sets every cell's distance from a buffer written by writeDistances(), as if the field had been
+     * rebuilt in a world of the given size at the time it was written
+     * @param in the distances
+     * @param worldWidth width of the world
+     * @param worldHeight height of the world
+     */
+    void readDistances(IntBuffer in, int worldWidth, int worldHeight) {
+        int cells = resize(worldWidth, worldHeight);
+        in.get(0, distance, 0, cells);
+    }
+
+    /**
+     * Returns the number of cells the field had when it was last rebuilt
+     * @return columns x rows
+     */
+    int getCellCount() {
+        return cols * rows;
+    }
+
+    /**
+     * Marks every cell that any wall of the ObstacleMap overlaps, if the cells have changed size
+     * since the walls were last baked
+     */
+    private void bakeWalls(int worldWidth, int worldHeight) {
+        if (bakedCols == cols && bakedRows == rows) {
+            return;
+        }
+        int cells = cols * rows;
+        if (wall.length < cells) {
+            wall = new boolean[cells];
+        }
+        Arrays.fill(wall, 0, cells, false);
+        double mapCellWidth = (double) worldWidth / obstacles.getColumns();
+        double mapCellHeight = (double) worldHeight / obstacles.getRows();
+        for (int mapRow = 0; mapRow < obstacles.getRows(); mapRow++) {
+            int top = Math.min(rows - 1, (int) (mapRow * mapCellHeight / cellSize));
+            int bottom = Math.min(rows - 1, (int) Math.ceil((mapRow + 1) * mapCellHeight / cellSize) - 1);
+            for (int mapCol = 0; mapCol < obstacles.getColumns(); mapCol++) {
+                if (!obstacles.isCellBlocked(mapCol, mapRow)) {
+                    continue;
+                }
+                int left = Math.min(cols - 1, (int) (mapCol * mapCellWidth / cellSize));
+                int right = Math.min(cols - 1, (int) Math.ceil((mapCol + 1) * mapCellWidth / cellSize) - 1);
+                for (int row = top; row <= Math.max(top, bottom); row++) {
+                    Arrays.fill(wall, row * cols + left, row * cols + Math.max(left, right) + 1, true);
+                }
+            }
+        }
+        bakedCols = cols;
+        bakedRows = rows;
+    }
+
+    /**
+     * Spreads the distance of every agent's cell to the cells around it, nearest first, passing it
+     * on from every cell once its own distance is settled. A wall cell only passes on a distance of
+     * 0 (an agent standing in it), and a diagonal step is only taken if neither cell beside it is a
+     * wall.
+     */
+    private void spreadAroundWalls(int cells) {
+        for (int c = 0; c < cells; c++) {
+            if (distance[c] == 0) {
+                enqueue(c, 0);
+            }
+        }
+        // A cell passes on at least STRAIGHT more than its own distance, so nothing is added to the
+        // bucket being emptied
+        for (int d = 0; queued > 0; d++) {
+            int b = d % BUCKETS, size = bucketSize[b];
+            int[] waiting = bucket[b];
+            for (int k = 0; k < size; k++) {
+                int c = waiting[k];
+                // Skip a cell that has got closer since, or a wall that has no agent in it
+                if (distance[c] != d || (wall[c] && d != 0)) {
+                    continue;
+                }
+                int col = c % cols, row = c / cols;
+                boolean left = col > 0, right = col < cols - 1;
+                if (left) {
+                    reach(c - 1, d + STRAIGHT);
+                }
+                if (right) {
+                    reach(c + 1, d + STRAIGHT);
+                }
+                if (row > 0) {
+                    spreadToRow(c, c - cols, left, right, d);
+                }
+                if (row < rows - 1) {
+                    spreadToRow(c, c + cols, left, right, d);
+                }
+            }
+            bucketSize[b] = 0;
+            queued -= size;
+        }
+    }
+
+    /**
+     * Passes a cell's distance on to the cell above or below it and, past open corners, to the two
+     * diagonal cells beside that one
+     */
+    private void spreadToRow(int c, int next, boolean left, boolean right, int d) {
+        reach(next, d + STRAIGHT);
+        if (left && !wall[next] && !wall[c - 1]) {
+            reach(next - 1, d + DIAGONAL);
+        }
+        if (right && !wall[next] && !wall[c + 1]) {
+            reach(next + 1, d + DIAGONAL);
+        }
+    }
+
+    /**
+     * Gives a cell a distance if that is closer than it has, and queues it to pass it on
+     */
+    private void reach(int c, int d) {
+        if (d < distance[c]) {
+            distance[c] = d;
+            enqueue(c, d);
+        }
+    }
+
+    /**
+     * Puts a cell in the bucket for its distance
+     */
+    private void enqueue(int c, int d) {
+        int b = d % BUCKETS;
+        if (bucketSize[b] == bucket[b].length) {
+            bucket[b] = Arrays.copyOf(bucket[b], bucket[b].length * 2);
+        }
+        bucket[b][bucketSize[b]++] = c;
+        queued++;
+    }
+
+    /**
+     * Makes the field lead around walls, or takes the walls away. The walls are baked into the
+     * field's cells at the next rebuild.
+     * @param obstacles the ObstacleMap, or null for an open world
+     */
+    public void setObstacles(ObstacleMap obstacles) {
+        this.obstacles = obstacles;
+        this.bakedCols = this.bakedRows = -1;
+    }
+
+    /**
+     * Returns the cell that location xy falls in. Locations outside the world are put in the
+     * nearest edge cell.
+     * @param x X location
+     * @param y Y location
+     * @return the cell, row * columns + column
+     */
+    public int cellAt(double x, double y) {
+        int col = (int) (x / cellSize), row = (int) (y / cellSize);
+        col = col < 0 ? 0 : (col >= cols ? cols - 1 : col);
+        row = row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+        return row * cols + col;
+    }
+
+    /**
+     * Returns how many cells a cell is from the nearest agent, measured in STRAIGHT steps
+     * @param cell a cell from cellAt()
+     * @return the distance, or UNREACHED if the field has no agents
+     */
+    public int getSteps(int cell) {
+        return distance[cell];
+    }
+
+    /**
+     * Returns roughly how far the nearest agent is from a cell, in world units
+     * @param cell a cell from cellAt()
+     * @return the distance, or infinity if the field has no agents
+     */
+    public double getDistance(int cell) {
+        int d = distance[cell];
+        return d >= UNREACHED ? Double.POSITIVE_INFINITY : d * cellSize / STRAIGHT;
+    }
+
+    /**
+     * Returns how fast the distance grows to the right at a cell (a Sobel filter over the cell and
+     * its eight neighbours). Walking against the gradient leads to the nearest agent, walking along
+     * it leads away from it. Neighbours outside the world or out of reach count as the cell itself.
+     * @param cell a cell from cellAt()
+     * @return the X part of the gradient, 0 if the distance is the same on both sides
+     */
+    public int gradientX(int cell) {
+        int col = cell % cols;
+        int right = col < cols - 1 ? 1 : 0, left = col > 0 ? -1 : 0;
+        return column(cell + right) - column(cell + left);
+    }
+
+    /**
+     * Returns how fast the distance grows downwards at a cell, like gradientX()
+     * @param cell a cell from cellAt()
+     * @return the Y part of the gradient, 0 if the distance is the same above and below
+     */
+    public int gradientY(int cell) {
+        int row = cell / cols;
+        int down = row < rows - 1 ? cols : 0, up = row > 0 ? -cols : 0;
+        return line(cell + down) - line(cell + up);
+    }
+
+    /**
+     * Weighted sum of a cell and the cells above and below it, for gradientX()
+     */
+    private int column(int cell) {
+        int row = cell / cols, centre = valueAt(cell, cell);
+        int up = row > 0 ? valueAt(cell - cols, cell) : centre;
+        int down = row < rows - 1 ? valueAt(cell + cols, cell) : centre;
+        return up + 2 * centre + down;
+    }
+
+    /**
+     * Weighted sum of a cell and the cells left and right of it, for gradientY()
+     */
+    private int line(int cell) {
+        int col = cell % cols, centre = valueAt(cell, cell);
+        int left = col > 0 ? valueAt(cell - 1, cell) : centre;
+        int right = col < cols - 1 ? valueAt(cell + 1, cell) : centre;
+        return left + 2 * centre + right;
+    }
+
+    /**
+     * Returns the distance of a cell, or of the fallback cell if the first is out of reach
+     */
+    private int valueAt(int cell, int fallback) {
+        int d = distance[cell];
+        return d < UNREACHED ? d : Math.min(distance[fallback], UNREACHED);
+    }
+
+    /**
+     * Returns the current width (and height) of a cell
+     * @return cell size
+     */
+    public double getCellSize() {
+        return this.cellSize;
+    }
+}
@@ -0,0 +1,207 @@
+package ZombieSimulator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ *
+ * This class rebuilds the agents of a stream of frames written by a FrameEncoder. A keyframe sets
+ * every agent, and each delta after it moves the agents, changes the states of infected humans and
+ * adds spawned agents. The decoded frame can then be copied into a WorldSnapshot and drawn like a
+ * frame of the live simulation (see SnapshotBuffer.publish(FrameDecoder)).
+ *
+ * Frames must be decoded in the order they were encoded, starting from a keyframe. Decoding only
+ * reads and adds numbers, so it costs far less than the tick that produced the frame.
+ */
+public class FrameDecoder {
+    private int[] x = new int[0], y = new int[0];
+    private byte[] state = new byte[0];
+    private int count, width, height, humanCount, zombieCount;
+    private long tick = -1;
+
+    /**
+     * Applies one frame. Everything the frame says about itself is checked against its length and
+     * against the frames before it before it is used, so a corrupt frame (or one that is not from
+     * this stream) is turned down with an exception instead of breaking the decoder or running it
+     * out of memory. After a frame is turned down the next frame must be a keyframe.
+     * @param frame buffer holding the frame, in little endian order
+     * @param at where the frame starts in the buffer
+     * @return the frame's length in bytes
+     * @throws IllegalStateException if the frame is corrupt or does not follow the last frame
+     */
+    public int decode(ByteBuffer frame, int at) {
+        try {
+            return decodeChecked(frame, at);
+        } catch (IllegalStateException e) {
+            reset();
+            throw e;
+        }
+    }
+
+    private int decodeChecked(ByteBuffer frame, int at) {
+        if (at < 0 || at > frame.limit() - FrameEncoder.HEADER_BYTES) {
+            throw corrupt("it is shorter than a frame header");
+        }
+        int length = frame.getInt(at);
+        byte type = frame.get(at + 4);
+        int newCount = frame.getInt(at + 21);
+        if (length < FrameEncoder.HEADER_BYTES || length > frame.limit() - at) {
+            throw corrupt("its length " + length + " does not fit in the " + (frame.limit() - at) + " bytes it came in");
+        }
+        if (type != FrameEncoder.KEYFRAME && type != FrameEncoder.DELTA) {
+            throw corrupt("its type is " + type);
+        }
+        if (type == FrameEncoder.DELTA && tick < 0) {
+            throw new IllegalStateException("A delta frame cannot be decoded before a keyframe");
+        }
+        if (newCount < 0 || frame.getInt(at + 25) < 0 || frame.getInt(at + 29) < 0) {
+            throw corrupt("it has a negative count");
+        }
+        int end = at + length;
+        int p = at + FrameEncoder.HEADER_BYTES;
+        int previous = 0, changes = 0;
+        if (type == FrameEncoder.KEYFRAME) {
+            if (FrameEncoder.HEADER_BYTES + 9L * newCount != length) {
+                throw corrupt(newCount + " agents do not fill a keyframe of " + length + " bytes");
+            }
+        } else {
+            if (length < FrameEncoder.HEADER_BYTES + 8) {
+                throw corrupt("it is too short for a delta");
+            }
+            previous = frame.getInt(p);
+            changes = frame.getInt(p + 4);
+            if (previous != count) {
+                throw new IllegalStateException("A delta from " + previous + " agents does not follow a frame of " + count);
+            }
+            if (newCount < previous || changes < 0 || changes > previous
+                    || FrameEncoder.HEADER_BYTES + 8 + 5L * changes + 2L * previous + 9L * (newCount - previous) > length) {
+                throw corrupt("its " + changes + " changes, " + previous + " moves and " + (newCount - previous)
+                        + " spawns do not fit in " + length + " bytes");
+            }
+        }
+
+        tick = frame.getLong(at + 5);
+        width = frame.getInt(at + 13);
+        height = frame.getInt(at + 17);
+        humanCount = frame.getInt(at + 25);
+        zombieCount = frame.getInt(at + 29);
+        ensureCapacity(newCount);
+        if (type == FrameEncoder.KEYFRAME) {
+            for (int i = 0; i < newCount; i++) {
+                x[i] = frame.getInt(p);
+                y[i] = frame.getInt(p + 4);
+                p += 8;
+            }
+            frame.get(p, state, 0, newCount);
+        } else {
+            p += 8;
+            for (int k = 0; k < changes; k++) {
+                int changed = frame.getInt(p);
+                if (changed < 0 || changed >= previous) {
+                    throw corrupt("it changes agent " + changed + " of " + previous);
+                }
+                state[changed] = frame.get(p + 4);
+                p += 5;
+            }
+            for (int i = 0; i < previous; i++) {
+                byte ddx = frame.get(p);
+                if (ddx == FrameEncoder.ESCAPE) {
+                    // The moves still to come and the spawns must fit after the full location
+                    if (p + 9 + 2L * (previous - 1 - i) + 9L * (newCount - previous) > end) {
+                        throw corrupt("its moves run past its end");
+                    }
+                    x[i] = frame.getInt(p + 1);
+                    y[i] = frame.getInt(p + 5);
+                    p += 9;
+                } else {
+                    x[i] += ddx;
+                    y[i] += frame.get(p + 1);
+                    p += 2;
+                }
+            }
+            for (int i = previous; i < newCount; i++) {
+                x[i] = frame.getInt(p);
+                y[i] = frame.getInt(p + 4);
+                state[i] = frame.get(p + 8);
+                p += 9;
+            }
+        }
+        count = newCount;
+        return length;
+    }
+
+    private static IllegalStateException corrupt(String why) {
+        return new IllegalStateException("Corrupt frame: " + why);
+    }
+
+    /**
+     * Returns the type of the frame that starts at the given position
+     * @param frame buffer holding the frame
+     * @param at where the frame starts
+     * @return true for a keyframe, false for a delta
+     */
+    public static boolean isKeyframe(ByteBuffer frame, int at) {
+        return frame.get(at + 4) == FrameEncoder.KEYFRAME;
+    }
+
+    /**
+     * Forgets every agent, so the next frame decoded must be a keyframe
+     */
+    public void reset() {
+        count = 0;
+        tick = -1;
+    }
+
+    private void ensureCapacity(int n) {
+        if (x.length < n) {
+            int capacity = Math.max(n, x.length + (x.length >> 1));
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            state = Arrays.copyOf(state, capacity);
+        }
+    }
+
+    /**
+     * Returns the number of agents in the last decoded frame
+     * @return number of agents
+     */
+    public int size() {
+        return this.count;
+    }
+
+    // Per agent values of the last decoded frame, for indices 0 to size() - 1
+
+    public float getX(int i) {
+        return (float) x[i] / FrameEncoder.SUBPIXELS;
+    }
+
+    public float getY(int i) {
+        return (float) y[i] / FrameEncoder.SUBPIXELS;
+    }
+
+    public byte getState(int i) {
+        return state[i];
+    }
+
+    // World values of the last decoded frame
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getHumanCount() {
+        return this.humanCount;
+    }
+
+    public int getZombieCount() {
+        return this.zombieCount;
+    }
+
+    public long getTick() {
+        return this.tick;
+    }
+}
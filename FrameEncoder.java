@@ -0,0 +1,160 @@
+package ZombieSimulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ *
+ * This class turns a series of WorldSnapshots into compact binary frames, which a FrameDecoder
+ * turns back into the same snapshots. A frame is either a keyframe, which holds every agent's
+ * location and state, or a delta, which only holds what changed since the frame before it:
+ * - how far each agent moved, as one byte for x and one for y
+ * - the agents whose state changed (humans that were infected)
+ * - the location and state of every agent added since the frame before (spawns)
+ * A delta costs 2 bytes per agent, against the 9 bytes of a keyframe.
+ *
+ * Locations are rounded to 1/SUBPIXELS of a pixel, and deltas are worked out between rounded
+ * locations, so decoding a keyframe and any number of deltas gives exactly the rounded locations
+ * that were encoded, without rounding errors building up. An agent that moved further than a byte
+ * can hold (a teleport, or a much faster agent) is written as ESCAPE followed by its full location.
+ *
+ * Every frame starts with the same header (all values little endian):
+ *   int length, byte type, long tick, int width, int height, int count, int humans, int zombies
+ * followed by, for a keyframe:
+ *   count x (int x, int y), count x byte state
+ * or for a delta:
+ *   int previousCount, int changes, changes x (int index, byte state),
+ *   previousCount x (byte dx, byte dy | ESCAPE int x int y),
+ *   (count - previousCount) x (int x, int y, byte state)
+ *
+ * The encoder remembers the last frame it encoded, so each encoder must only be given the frames of
+ * one stream, in order. The returned buffer is reused by the next call.
+ */
+public class FrameEncoder {
+    // Locations are stored in 1/SUBPIXELS of a pixel
+    public static final int SUBPIXELS = 16;
+    static final byte KEYFRAME = 1, DELTA = 2;
+    // A delta byte that means the full location follows
+    static final byte ESCAPE = Byte.MIN_VALUE;
+    static final int HEADER_BYTES = 4 + 1 + 8 + 5 * 4;
+
+    private int[] lastX = new int[0], lastY = new int[0];
+    private byte[] lastState = new byte[0];
+    private int lastCount = -1;
+    private ByteBuffer out = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Encodes a snapshot as the next frame of the stream. A keyframe is written if one is asked for,
+     * if nothing has been encoded yet or if the snapshot has fewer agents than the last frame.
+     * @param snapshot the snapshot to encode
+     * @param keyframe true to write a keyframe, false to write a delta when possible
+     * @return the frame, from position 0 to its limit, valid until the next call
+     */
+    public ByteBuffer encode(WorldSnapshot snapshot, boolean keyframe) {
+        int count = snapshot.size();
+        boolean delta = !keyframe && lastCount >= 0 && count >= lastCount;
+        int previous = delta ? lastCount : 0;
+        // Worst case: every agent escapes, and every old agent changed state
+        ensureRoom(HEADER_BYTES + 8 + 5 * previous + 10L * previous + 9L * (count - previous));
+        remember(count);
+
+        out.clear();
+        out.putInt(0);
+        out.put(delta ? DELTA : KEYFRAME);
+        out.putLong(snapshot.getTick());
+        out.putInt(snapshot.getWidth());
+        out.putInt(snapshot.getHeight());
+        out.putInt(count);
+        out.putInt(snapshot.getHumanCount());
+        out.putInt(snapshot.getZombieCount());
+        if (delta) {
+            encodeDelta(snapshot, previous, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                int qx = quantize(snapshot.getX(i)), qy = quantize(snapshot.getY(i));
+                out.putInt(qx).putInt(qy);
+                lastX[i] = qx;
+                lastY[i] = qy;
+            }
+            for (int i = 0; i < count; i++) {
+                out.put(lastState[i] = snapshot.getState(i));
+            }
+        }
+        lastCount = count;
+        out.putInt(0, out.position());
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Writes the state changes, movements and spawns since the last frame
+     */
+    private void encodeDelta(WorldSnapshot snapshot, int previous, int count) {
+        out.putInt(previous);
+        int changesAt = out.position();
+        int changes = 0;
+        out.putInt(0);
+        for (int i = 0; i < previous; i++) {
+            byte state = snapshot.getState(i);
+            if (state != lastState[i]) {
+                out.putInt(i).put(state);
+                lastState[i] = state;
+                changes++;
+            }
+        }
+        out.putInt(changesAt, changes);
+        for (int i = 0; i < previous; i++) {
+            int qx = quantize(snapshot.getX(i)), qy = quantize(snapshot.getY(i));
+            int ddx = qx - lastX[i], ddy = qy - lastY[i];
+            if (ddx > ESCAPE && ddx <= Byte.MAX_VALUE && ddy > ESCAPE && ddy <= Byte.MAX_VALUE) {
+                out.put((byte) ddx).put((byte) ddy);
+            } else {
+                out.put(ESCAPE).putInt(qx).putInt(qy);
+            }
+            lastX[i] = qx;
+            lastY[i] = qy;
+        }
+        for (int i = previous; i < count; i++) {
+            int qx = quantize(snapshot.getX(i)), qy = quantize(snapshot.getY(i));
+            byte state = snapshot.getState(i);
+            out.putInt(qx).putInt(qy).put(state);
+            lastX[i] = qx;
+            lastY[i] = qy;
+            lastState[i] = state;
+        }
+    }
+
+    /**
+     * Forgets the last frame, so the next frame is a keyframe
+     */
+    public void reset() {
+        lastCount = -1;
+    }
+
+    /**
+     * Rounds a location to the nearest 1/SUBPIXELS of a pixel
+     */
+    static int quantize(float value) {
+        return Math.round(value * SUBPIXELS);
+    }
+
+    private void remember(int count) {
+        if (lastX.length < count) {
+            int capacity = Math.max(count, lastX.length + (lastX.length >> 1));
+            lastX = Arrays.copyOf(lastX, capacity);
+            lastY = Arrays.copyOf(lastY, capacity);
+            lastState = Arrays.copyOf(lastState, capacity);
+        }
+    }
+
+    private void ensureRoom(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Frame too large: " + bytes + " bytes");
+        }
+        if (out.capacity() < bytes) {
+            out = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, Math.max(bytes, out.capacity() + (long) (out.capacity() >> 1))))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package ZombieSimulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * This class streams a running simulation over TCP to any number of StreamViewers, so a run on a
+ * headless machine can be watched live from somewhere else. After a tick the world is copied into a
+ * WorldSnapshot and encoded once by a FrameEncoder, in the same format as a TrajectoryLog, and the
+ * same bytes go to every viewer: a keyframe every keyframeEvery frames and small deltas in between
+ * (about 2 bytes per agent). A viewer that connects gets a short hello and then a keyframe, which is
+ * written on the next tick for everybody, so it can start drawing straight away.
+ *
+ * The cost of streaming is kept within limits however big the population gets:
+ * - frames are only sent while the stream's budget of bytes per second allows, and a tick over
+ *   budget is skipped before it is copied or encoded, so a bigger population means fewer frames a
+ *   second rather than more bytes or more encoding time. A frame after skipped ticks is a delta
+ *   from the last frame that was sent.
+ * - every viewer has its own backlog of bytes that have not been sent yet, which is written without
+ *   ever blocking the engine. A viewer that falls more than MAX_BACKLOG behind misses frames until
+ *   the next regular keyframe, where it picks up again, so a slow viewer never holds up the
+ *   simulation, the other viewers or memory.
+ * - nothing is copied or encoded while nobody is watching.
+ *
+ * The stream is the hello (all values little endian):
+ *   int magic, int version, int subpixels, int keyframeEvery, long seed, double humanSpeed,
+ *   double speedRatio, int sightDistance, double size
+ * followed by frames, each starting with its length (see FrameEncoder).
+ */
+public class FrameServer implements SimulationEngine.TickListener, Closeable {
+    // "ZSTR"
+    static final int MAGIC = 0x5A535452;
+    static final int VERSION = 1;
+    static final int HELLO_BYTES = 4 + 4 + 4 + 4 + 8 + 8 + 8 + 4 + 8;
+    // Bytes a viewer can fall behind by before it misses frames
+    static final int MAX_BACKLOG = 16 << 20;
+    // Time the viewers get to take the rest of their backlogs when the server closes
+    static final long DRAIN_MILLIS = 1000;
+    // Budget that lets every tick through
+    public static final long UNLIMITED = 0;
+    // Address that only lets in viewers on the same machine
+    public static final String LOOPBACK = "127.0.0.1";
+
+    private final ServerSocketChannel server;
+    private final Thread acceptor;
+    private final int keyframeEvery;
+    private final long bytesPerSecond;
+    private final ConcurrentLinkedQueue<SocketChannel> joining = new ConcurrentLinkedQueue<>();
+    private final List<Viewer> viewers = new ArrayList<>();
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final WorldSnapshot snapshot = new WorldSnapshot();
+    private long framesSinceKeyframe = 0;
+    private boolean keyframeWanted = true;
+    // Bytes the budget allows right now, topped up by the time since the last tick
+    private double allowance;
+    private long lastTickTime;
+    private long frames = 0, skipped = 0, bytes = 0, encodeNanos = 0, agentFrames = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * Starts listening for viewers on a port of one network address. Anybody who can reach the
+     * address can watch, so it should only be other than the loopback address on a trusted network.
+     * @param address the host name or IP address to listen on, e.g. LOOPBACK or 0.0.0.0 for every
+     *                network interface
+     * @param port the TCP port, or 0 for any free port (see getPort())
+     * @param keyframeEvery send a keyframe every this many frames
+     * @param bytesPerSecond most bytes of frames to send each second, or UNLIMITED
+     */
+    public FrameServer(String address, int port, int keyframeEvery, long bytesPerSecond) {
+        if (keyframeEvery < 1 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("keyframeEvery must be >= 1 and bytesPerSecond >= 0: "
+                    + keyframeEvery + ", " + bytesPerSecond);
+        }
+        this.keyframeEvery = keyframeEvery;
+        this.bytesPerSecond = bytesPerSecond;
+        try {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(address, port));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not listen for viewers on " + address + " port " + port, e);
+        }
+        acceptor = new Thread(this::acceptViewers, "frame-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Accepts viewers until the server is closed. New viewers are only handed over to the engine
+     * thread here, which starts sending to them after the next tick.
+     */
+    private void acceptViewers() {
+        while (!closed) {
+            try {
+                SocketChannel viewer = server.accept();
+                viewer.configureBlocking(false);
+                viewer.socket().setTcpNoDelay(true);
+                joining.add(viewer);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Could not accept a viewer: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the world as it is after a tick to every viewer, if the budget allows it
+     */
+    @Override
+    public synchronized void tickCompleted(World world, long tick) {
+        if (closed) {
+            return;
+        }
+        SocketChannel joined;
+        while ((joined = joining.poll()) != null) {
+            Viewer viewer = new Viewer(joined);
+            viewer.pending.put(hello(world));
+            viewers.add(viewer);
+            keyframeWanted = true;
+        }
+        long now = System.nanoTime();
+        if (bytesPerSecond != UNLIMITED) {
+            // Allow at most a second's worth of bytes to build up while idle
+            allowance = Math.min(bytesPerSecond, allowance + (now - lastTickTime) * 1e-9 * bytesPerSecond);
+        }
+        lastTickTime = now;
+        if (viewers.isEmpty()) {
+            return;
+        }
+        if (bytesPerSecond != UNLIMITED && allowance < 0) {
+            skipped++;
+            flushAll();
+            return;
+        }
+
+        long encodeStart = System.nanoTime();
+        synchronized (world) {
+            snapshot.copyFrom(world, frames);
+        }
+        boolean keyframe = keyframeWanted || framesSinceKeyframe >= keyframeEvery - 1;
+        ByteBuffer frame = encoder.encode(snapshot, keyframe);
+        keyframe = FrameDecoder.isKeyframe(frame, 0);
+        encodeNanos += System.nanoTime() - encodeStart;
+        framesSinceKeyframe = keyframe ? 0 : framesSinceKeyframe + 1;
+        keyframeWanted = false;
+        int length = frame.remaining();
+        allowance -= length;
+        frames++;
+        bytes += length;
+        agentFrames += snapshot.size();
+
+        for (Viewer viewer: viewers) {
+            if (viewer.waitingForKeyframe && !keyframe) {
+                continue;
+            }
+            if (viewer.pending.position() > MAX_BACKLOG) {
+                // Too far behind: drop frames until the next regular keyframe
+                viewer.waitingForKeyframe = true;
+                continue;
+            }
+            viewer.waitingForKeyframe = false;
+            viewer.append(frame.duplicate());
+        }
+        flushAll();
+    }
+
+    /**
+     * Writes as much of every viewer's backlog as its socket takes without blocking, and drops
+     * viewers that have gone away
+     */
+    private void flushAll() {
+        for (int k = viewers.size() - 1; k >= 0; k--) {
+            Viewer viewer = viewers.get(k);
+            try {
+                viewer.flush();
+            } catch (IOException e) {
+                viewer.close();
+                viewers.remove(k);
+            }
+        }
+    }
+
+    /**
+     * Returns the hello that starts every stream, describing the world the frames come from
+     */
+    private ByteBuffer hello(World world) {
+        AgentParameters parameters = world.getParameters();
+        ByteBuffer hello = ByteBuffer.allocate(HELLO_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        hello.putInt(MAGIC).putInt(VERSION).putInt(FrameEncoder.SUBPIXELS).putInt(keyframeEvery);
+        hello.putLong(world.getPopulation().getSeed());
+        hello.putDouble(parameters.getHumanSpeed()).putDouble(parameters.getSpeedRatio());
+        hello.putInt(parameters.getSightDistance()).putDouble(parameters.getSize());
+        return hello.flip();
+    }
+
+    /**
+     * Returns the port the server listens on
+     * @return the TCP port
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    // Stream statistics
+
+    public synchronized int getViewerCount() {
+        return viewers.size();
+    }
+
+    public synchronized long getFrameCount() {
+        return this.frames;
+    }
+
+    public synchronized long getSkippedCount() {
+        return this.skipped;
+    }
+
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    public synchronized double getEncodeMeanMillis() {
+        return frames == 0 ? 0 : encodeNanos / 1e6 / frames;
+    }
+
+    public synchronized double getBytesPerAgentFrame() {
+        return agentFrames == 0 ? 0 : (double) bytes / agentFrames;
+    }
+
+    /**
+     * Stops accepting viewers and closes every connection, after giving the viewers up to
+     * DRAIN_MILLIS to take what is left of their backlogs
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close frame server", e);
+        }
+        long deadline = System.nanoTime() + DRAIN_MILLIS * 1_000_000L;
+        while (viewers.stream().anyMatch(viewer -> viewer.pending.position() > 0) && System.nanoTime() < deadline) {
+            flushAll();
+            LockSupport.parkNanos(1_000_000L);
+        }
+        for (Viewer viewer: viewers) {
+            viewer.close();
+        }
+        viewers.clear();
+        SocketChannel joined;
+        while ((joined = joining.poll()) != null) {
+            try {
+                joined.close();
+            } catch (IOException e) {
+                // Nothing was ever sent to it
+            }
+        }
+    }
+
+    /**
+     * One connected viewer and the bytes that have not been sent to it yet
+     */
+    private static final class Viewer {
+        final SocketChannel channel;
+        ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+        boolean waitingForKeyframe = false;
+
+        Viewer(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Adds a frame to the end of the backlog
+         */
+        void append(ByteBuffer frame) {
+            if (pending.remaining() < frame.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.position() + frame.remaining(), pending.capacity() * 2));
+                pending.flip();
+                bigger.put(pending);
+                pending = bigger;
+            }
+            pending.put(frame);
+        }
+
+        void flush() throws IOException {
+            if (pending.position() == 0) {
+                return;
+            }
+            pending.flip();
+            channel.write(pending);
+            pending.compact();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // It has gone already
+            }
+        }
+    }
+}
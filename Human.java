@@ -2,226 +2,301 @@ package ZombieSimulator;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
 
 /**
- * 
- * This class creates Human objects as threads for the Zombie Simulator. Humans are twice the speed of
+ *
+ * This class defines how Humans behave in the Zombie Simulator. Humans are twice the speed of
  * zombies and can only see 1/4 of the world around them. If a zombie in sight the human will change
- * direction and travel in the opposite direction away from the direction that the zombie is travelling in. 
- * If there are no zombies within a human's (limited) sight (or if there are no zombies existing at all) 
+ * direction and travel in the opposite direction away from the direction that the zombie is travelling in.
+ * If there are no zombies within a human's (limited) sight (or if there are no zombies existing at all)
  * then the human will move around randomly.
- * 
- * 
+ *
+ * There is no Human object per human. The position, direction and step counters of every agent are
+ * stored in the World's Population, and a single Human object holds the behaviour that is applied to
+ * any agent index i whose state is HUMAN. The World owns every human and zombie and the
+ * SimulationEngine advances all of them together, one planMove() per tick.
+ *
  * @author MYWT August 2020
  */
-public class Human implements Runnable {
-    // Movement is represented as delta of x and y (dx and dy)
-    protected double x, y;
-    protected double dx, dy; 
-    // Size is used to determine size in GUI and also affects if a human hits a wall and needs to 
+public class Human {
+    // Size is used to determine size in GUI and also affects if a human hits a wall and needs to
     // turn around and also if it is touching a zombie (and gets infected)
-    protected double size = 10; 
-    public boolean isAlive;
-    public static int worldWidth, worldHeight; // dimensions of GUI window (world bounds)
-    protected double maxSpeed = 6;
+    protected double size;
+    protected double maxSpeed;
     protected int sightDistance;
-    protected Random generator = new Random();
-    protected List<Human> others;
-    private Thread thread;
-    protected int totalSteps = 0;
-    protected int nStepsTaken = 0;
-    
-    /**
-     * The constructor takes in the starting location xy and also shares a resource which is list
-     * of all humans. The list of all humans is used by the MainGUI class so that the information
-     * for all human threads can be obtained and drawn inside the GUI.
-     * @param others List of all Human threads
-     * @param x X location of human in the world (GUI window)
-     * @param y Y location of human in the world (GUI window)
-     */
-    public Human(List<Human> others, double x, double y) {
-        this.others = others;
-        this.x = x;
-        this.y = y;
-        this.sightDistance = (int) 0.25 * (worldWidth * worldHeight);
-        setRandomDirection(this.maxSpeed); //sets random dx and dy limited by maxSpeed
-        this.nStepsTaken = 0;
-        generateNewTotalSteps();
-        this.thread = new Thread(this);
-        this.thread.start();
-    }
-    
-    /**
-     * Threads have a run() method (implemented here with the Runnable interface). The
-     * thread is run when the start() method is called (which is done in the constructor
-     * when a Human thread is instantiated. A boolean flag is used to stop/start a thread,
-     * in this case the flag variable is isAlive.
-     */
-    @Override
-    public void run() {
-        this.isAlive = true;
-        
-        while (isAlive) {
-            move();
+    protected final World world;
+    protected final Population population;
+
+    /**
+     * The constructor takes in the World whose Population this behaviour is applied to. The size,
+     * speed and sight distance come from the World's AgentParameters.
+     * @param world World that holds the Population of all humans and zombies
+     */
+    public Human(World world) {
+        this.world = world;
+        this.population = world.getPopulation();
+        this.size = world.getParameters().getSize();
+        this.maxSpeed = world.getParameters().getHumanSpeed();
+        setWorldSize(world.getWidth(), world.getHeight());
+    }
+
+    /**
+     * Called whenever the world bounds change, so the sight distance can be worked out again.
+     * Unless the AgentParameters give a fixed sight distance, a human can see 1/4 of the world
+     * around them, so the sight distance is the radius of a circle whose area is a quarter of the
+     * world's area.
+     * @param worldWidth width of the world
+     * @param worldHeight height of the world
+     */
+    protected void setWorldSize(int worldWidth, int worldHeight) {
+        int fixed = world.getParameters().getSightDistance();
+        if (fixed != AgentParameters.QUARTER_OF_WORLD) {
+            this.sightDistance = fixed;
+            return;
         }
+        this.sightDistance = (int) Math.sqrt(0.25 * worldWidth * worldHeight / Math.PI);
     }
-    
+
     /**
-     * Updates the Human thread's xy direction by a delta dx and dy. A random number of steps is
+     * Gives a newly added (or newly infected) agent a random direction and a random number of
+     * steps to walk in that direction.
+     * @param i index of the agent in the Population
+     */
+    public void initialise(int i) {
+        setRandomDirection(i, this.maxSpeed); //sets random dx and dy limited by maxSpeed
+        generateNewTotalSteps(i);
+    }
+
+    /**
+     * Updates the Human's xy direction by a delta dx and dy. A random number of steps is
      * first generated to define how long a human will walk in one direction before it changes
-     * direction. If a human hits a window (or world) boundary, it will travel in the opposite
+     * direction. When it is time to change direction the human looks for the nearest zombie within
+     * its sight distance (using the World's zombie grid) and runs directly away from it, if there is
+     * no zombie in sight it picks a random direction instead.
+     * If a human hits a window (or world) boundary, it will travel in the opposite
      * direction to the boundary, so it will never travel outside the world.
-     * The human thread also needs to sleep after each movement (of dx and dy) to delay
-     * the movement and create visible animation in the GUI.
+     * 
+     * planMove() is called once per tick by the World during its plan phase. It only reads the
+     * positions and states of other agents and only writes agent i's own direction and step
+     * counters, so every agent can be planned at the same time on different threads. The World
+     * moves the agent by dx and dy afterwards, in its commit phase.
+     * @param i index of the human in the Population
      */
-    public void move() {
+    public void planMove(int i) {
         // Checks if Human has hit a world boundary, if so, it will change dx or dy turn around
-        checkWorldEdgeIntersect();
-         
-        // If no humans and time to change directions, generate random direction
-        if (this.nStepsTaken >= this.totalSteps) {
-            setRandomDirection(this.maxSpeed);
-            generateNewTotalSteps();
+        checkWorldEdgeIntersect(i);
+
+        // If time to change directions, run away from the nearest zombie in sight or generate a random direction
+        if (population.getStepsTaken(i) >= population.getTotalSteps(i)) {
+            boolean fled = world.getThreatField() != null ? setDirectionUpThreatField(i) : setDirectionAwayFromNearestZombie(i);
+            if (!fled) {
+                setRandomDirection(i, this.maxSpeed);
+            }
+            generateNewTotalSteps(i);
+        }
+    }
+
+    /**
+     * Looks for the nearest zombie within the human's sight distance and, if there is one, sets
+     * dx and dy so the human runs directly away from it at full speed.
+     * @param i index of the human in the Population
+     * @return true if a zombie was in sight and the direction was changed
+     */
+    protected boolean setDirectionAwayFromNearestZombie(int i) {
+        if (population.getZombieCount() == 0) {
+            return false;
         }
-        
-        // Keep travelling in the same direction if the total steps have been completed, regardless of whether humans exist or not
-        x += dx;
-        y += dy;
-        
-        // Threads need to sleep to delay movement for animation. Otherwise, objects would move too fast to be noticable
-        try {
-            Thread.sleep((int)20);
-        } catch (InterruptedException e) {
-            // ignore if a thread fails to sleep, continue on
+        int nearestZombie = world.getZombieGrid().nearest(population.getX(i), population.getY(i), this.sightDistance);
+        if (nearestZombie < 0) {
+            return false;
         }
-        this.nStepsTaken++;
+        double dist = calculateDistance(i, nearestZombie);
+        if (dist == 0) {
+            return false;
+        }
+        population.setDX(i, ((population.getX(i) - population.getX(nearestZombie))/dist) * this.maxSpeed);
+        population.setDY(i, ((population.getY(i) - population.getY(nearestZombie))/dist) * this.maxSpeed);
+        return true;
     }
-    
+
+    /**
+     * Like setDirectionAwayFromNearestZombie(), but reads the World's threat field instead of
+     * searching for the nearest zombie: if the nearest zombie is within sight, the human runs at full
+     * speed up the slope of the field, away from the zombies around it. A human close enough to a
+     * zombie that the field is too coarse still runs directly away from the nearest one.
+     * @param i index of the human in the Population
+     * @return true if a zombie was in sight and the direction was changed
+     */
+    protected boolean setDirectionUpThreatField(int i) {
+        if (population.getZombieCount() == 0) {
+            return false;
+        }
+        FlowField field = world.getThreatField();
+        int cell = field.cellAt(population.getX(i), population.getY(i));
+        if (field.getDistance(cell) > this.sightDistance) {
+            return false;
+        }
+        if (field.getSteps(cell) <= FlowField.NEAR_CELLS * FlowField.STRAIGHT) {
+            return setDirectionAwayFromNearestZombie(i);
+        }
+        int gx = field.gradientX(cell), gy = field.gradientY(cell);
+        double length = Math.hypot(gx, gy);
+        if (length == 0) {
+            return setDirectionAwayFromNearestZombie(i);
+        }
+        population.setDX(i, (gx / length) * this.maxSpeed);
+        population.setDY(i, (gy / length) * this.maxSpeed);
+        return true;
+    }
+
     /**
      * Sets random dx and dy values with the maxSpeed as the upper limit.
      * dx and dy will never be 0 to prevent the case where object comes to stand still.
+     * A whole number speed picks whole numbers, and any other speed picks from the same number of
+     * evenly spaced values (the speed rounded, at least 1) up to the speed itself, so a slow or
+     * fractional speed is neither cut down nor turned into 0.
+     * @param i index of the agent in the Population
      * @param maxSpeed maximum speed of object as Double
      */
-    protected void setRandomDirection(double maxSpeed) {
-        dx = generateRandRange((int) this.maxSpeed);
-        dy = generateRandRange((int) this.maxSpeed);
+    protected void setRandomDirection(int i, double maxSpeed) {
+        int steps = (int) Math.max(1, Math.round(maxSpeed));
+        double stepSize = maxSpeed / steps;
+        population.setDX(i, generateRandRange(i, steps) * stepSize);
+        population.setDY(i, generateRandRange(i, steps) * stepSize);
     }
-    
+
     /**
      * Generates random integer representing total number of steps object will
      * travel in one direction before changing directions
-     * @return 
+     * @param i index of the agent in the Population
+     * @return
      */
-    protected int setTotalSteps() {
-        return generator.nextInt(20)+10;
+    protected int setTotalSteps(int i) {
+        return population.nextInt(i, 20)+10;
     }
-    
+
     /**
      * Helper function that randomly generates numbers to use for dx and dy and
      * excludes 0 to prevent objects from being stationary if dx =0 and dy=0.
+     * The 2 * range possible numbers are max, max - 1, ..., 1, -1, ..., -max, and one of them is
+     * picked by position without building a list, so no objects are created.
+     * @param i index of the agent in the Population, its random stream is used
      * @param range integer representing the max speed of an object
      * @return an integer used to set dx and dy attributes (object speed)
      */
-    protected int generateRandRange(int range) {
-        ArrayList<Integer> randNums = new ArrayList<>();
+    protected int generateRandRange(int i, int range) {
         int max = Math.abs(range);
-        int min = -max;
-        for (int i = max; i >= min; i-- ) {
-            if (i!= 0) {
-                randNums.add(i);
-            }
-        }
-        int randNum = randNums.get(generator.nextInt(randNums.size()));
-        return randNum;
+        int pick = population.nextInt(i, 2 * max);
+        // Positions 0 to max - 1 are the positive numbers, the rest skip over 0
+        return pick < max ? max - pick : max - pick - 1;
     }
-    
+
     /**
-     * Generates total number of steps for human thread to walk in one direction before a
+     * Generates total number of steps for human to walk in one direction before a
      * new direction is generated.
+     * @param i index of the agent in the Population
      */
-    protected void generateNewTotalSteps() {
-        this.totalSteps = setTotalSteps();
-        this.nStepsTaken = 0;
+    protected void generateNewTotalSteps(int i) {
+        population.setTotalSteps(i, setTotalSteps(i));
+        population.setStepsTaken(i, 0);
     }
-    
+
     /**
      * Helper function used to calculate the distance between objects
      * Zombies need to find the Human with the closest distance to chase
      * Humans need to find the Zombie with the closest distance to run away from
-     * @param human object to calculate distance to
+     * @param i index of the agent to calculate distance from
+     * @param other index of the agent to calculate distance to
      * @return distance as a Double
      */
-    protected double calculateDistance(Human human) {
-        return Math.hypot(x-human.x, y-human.y);
+    protected double calculateDistance(int i, int other) {
+        return Math.hypot(population.getX(i)-population.getX(other), population.getY(i)-population.getY(other));
     }
-    
+
     /**
      * Checks if a Human/Zombie has reached the world boundary or is about to reach the world
-     * boundary at the next move() step, and if so, it changes direction.
+     * boundary at the next step, and if so, it changes direction.
+     * @param i index of the agent in the Population
      */
-    protected void checkWorldEdgeIntersect() {
+    protected void checkWorldEdgeIntersect(int i) {
+        double x = population.getX(i), y = population.getY(i);
+        double dx = population.getDX(i), dy = population.getDY(i);
+
         // If human hits top edge of world
-        if (y - size + dy <= 0) 
+        if (y - size + dy <= 0)
             dy = -dy;
-        
+
         // If human hits bottom edge of world
-        if (y + size + dy >= worldHeight) 
+        if (y + size + dy >= world.getHeight())
             dy = -dy;
-        
+
         // if human hits left edge of world
-        if (x - size + dx <= 0) 
+        if (x - size + dx <= 0)
             dx = -dx;
-        
+
         // if human hits right edge of world
-        if (x + size + dx >= worldWidth) 
+        if (x + size + dx >= world.getWidth())
             dx = -dx;
+
+        population.setDX(i, dx);
+        population.setDY(i, dy);
     }
-    
+
     /**
-     * Sets boolean flag to false to trigger the thread to stop executing the move() method
+     * Checks if the agent's next step would take its middle into a wall of an ObstacleMap, and if
+     * so bounces it off the wall like checkWorldEdgeIntersect() bounces it off the world's edge:
+     * the step is turned back across, down or both. An agent boxed in on every side stands still
+     * until it picks a new direction. It takes a few bit tests however many walls there are. The
+     * World calls this after every agent plans its move, after a zombie is infected and after a
+     * human is pushed, so no step ever ends in a wall.
+     * @param i index of the agent in the Population
+     * @param walls the World's ObstacleMap
      */
-    public void kill() {
-        this.isAlive = false;
+    protected void checkWallIntersect(int i, ObstacleMap walls) {
+        double cx = population.getX(i) + size / 2, cy = population.getY(i) + size / 2;
+        double dx = population.getDX(i), dy = population.getDY(i);
+        // An agent that is inside a wall already (it was put there) is left to walk out of it
+        if (walls.isBlocked(cx, cy) || !walls.isBlocked(cx + dx, cy + dy)) {
+            return;
+        }
+        double newDX = walls.isBlocked(cx + dx, cy) ? -dx : dx;
+        double newDY = walls.isBlocked(cx, cy + dy) ? -dy : dy;
+        // Heading straight for the corner of a wall: go back the way it came
+        if (walls.isBlocked(cx + newDX, cy + newDY)) {
+            newDX = -dx;
+            newDY = -dy;
+        }
+        if (walls.isBlocked(cx + newDX, cy + newDY)) {
+            newDX = 0;
+            newDY = 0;
+        }
+        population.setDX(i, newDX);
+        population.setDY(i, newDY);
     }
-    
+
     /**
-    * Draws Human in the GUI as blue-filled circles with black outlines 
+    * Draws agent i in the GUI at its location, using drawAt() of this behaviour
+    * @param g Graphics object to draw
+    * @param i index of the agent in the Population
     */
-    public void draw(Graphics g) {
-        g.setColor(Color.BLUE);
-        g.fillOval((int) x, (int) y, (int) size, (int) size);
-        g.setColor(Color.BLACK);
-        g.drawOval((int) x, (int) y, (int) size, (int) size);
-    }
-    
-    /**
-     * Resource shared amongst all Human threads. Returns a list of all Human objects currently
-     * existing in the world.
-     * @return Returns a list of all Human objects currently existing in the world.
-     */
-    public List<Human> getOthers() {
-        return this.others;
-    }
-    
-    /**
-     * Returns current X location of object (implementing encapsulation)
-     * @return Double value of current X location of object
-     */
-    public double getX() {
-        return this.x;
+    public void draw(Graphics g, int i) {
+        drawAt(g, (int) population.getX(i), (int) population.getY(i));
     }
-    
+
     /**
-     * Returns current Y location of object (implementing encapsulation)
-     * @return Double value of current Y location of object
+     * Draws Human in the GUI as blue-filled circles with black outlines, with the top left corner
+     * at xy. The raster renderer also uses this to build the sprite it stamps into its image.
+     * @param g Graphics object to draw
+     * @param x X location of the sprite
+     * @param y Y location of the sprite
      */
-    public double getY() {
-        return this.y;
+    public void drawAt(Graphics g, int x, int y) {
+        g.setColor(Color.BLUE);
+        g.fillOval(x, y, (int) size, (int) size);
+        g.setColor(Color.BLACK);
+        g.drawOval(x, y, (int) size, (int) size);
     }
-    
+
     /**
      * Returns double value representing the width and height of the object.
      * (in this case objects always have the same width and height values)
@@ -230,23 +305,20 @@ public class Human implements Runnable {
     public double getSize() {
         return this.size;
     }
-    
 
     /**
-     * Allows for the Zombie class (subclass/child class) to set the DX value of a 
-     * Human if it is within the sight distance of a human (via encapsulation)
-     * @param dx 
+     * Returns how far away this kind of agent can see
+     * @return sight distance
      */
-    protected void setDX(double dx) {
-        this.dx = dx;
+    public int getSightDistance() {
+        return this.sightDistance;
     }
-    
+
     /**
-     * Allows for the Zombie class (subclass/child class) to set the DY value of a 
-     * Human if it is within the sight distance of a human (via encapsulation)
-     * @param dy 
+     * Returns the fastest this kind of agent can travel in one step
+     * @return maximum speed
      */
-    protected void setDY(double dy) {
-        this.dy = dy;
+    public double getMaxSpeed() {
+        return this.maxSpeed;
     }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package ZombieSimulator;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * This class is the lock-free queue that infection events are published to. When a zombie's
+ * checkInfect() finds a human it is touching, the human's index is offered to this queue straight
+ * away, from whichever thread is planning that zombie. At the end of the plan phase the World drains
+ * the whole queue as one batch in checkKill() and turns every victim into a zombie in place.
+ *
+ * Offering an event reserves a slot with a single atomic increment and writes the victim's index
+ * into a plain int array, so publishing never locks and never creates an object. The queue is
+ * multi-producer, single-consumer: producers only offer during the plan phase and the consumer only
+ * drains after every producer has finished it, so the consumer never sees a half-written slot.
+ * A human can only be offered once per tick (by whichever zombie claims it first), so a queue with
+ * room for every agent can never overflow.
+ */
+public class InfectionQueue {
+    private int[] events = new int[16];
+    private final AtomicInteger tail = new AtomicInteger();
+
+    /**
+     * Makes room for at least the given number of events. Must not be called while producers are
+     * offering events.
+     * @param capacity number of events that must fit
+     */
+    public void ensureCapacity(int capacity) {
+        if (events.length < capacity) {
+            events = Arrays.copyOf(events, Math.max(capacity, events.length + (events.length >> 1)));
+        }
+    }
+
+    /**
+     * Publishes an infection event. Safe to call from many threads at once.
+     * @param victim index of the infected human
+     */
+    public void offer(int victim) {
+        events[tail.getAndIncrement()] = victim;
+    }
+
+    /**
+     * Returns the number of events waiting to be drained
+     * @return number of pending events
+     */
+    public int size() {
+        return tail.get();
+    }
+
+    /**
+     * Sorts the waiting events by victim index, so draining them gives the same order no matter
+     * which threads offered them
+     */
+    public void sort() {
+        Arrays.sort(events, 0, tail.get());
+    }
+
+    /**
+     * Returns one of the waiting events
+     * @param k position of the event, from 0 to size() - 1
+     * @return index of the infected human
+     */
+    public int get(int k) {
+        return events[k];
+    }
+
+    /**
+     * Empties the queue once every waiting event has been handled
+     */
+    public void clear() {
+        tail.set(0);
+    }
+}
@@ -0,0 +1,135 @@
+package ZombieSimulator;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * This class prints "Human i killed by zombie j" lines for the World's infections without slowing
+ * down the tick. It listens for infections and stores each one as a few numbers (tick, victim and
+ * zombie) in a fixed size ring, and a separate writer thread turns them into text and prints them.
+ * Recording a kill never creates an object, builds a string or waits for the console, so logging
+ * costs the simulation almost nothing even when thousands of humans are killed in one tick.
+ *
+ * The log can be sampled so that only every Nth kill is recorded. If the writer falls so far
+ * behind that the ring is full, new kills are counted as dropped instead of making the simulation
+ * wait; the writer reports how many were dropped.
+ *
+ * Kills are recorded by one thread (the one running the World's ticks) and printed by the writer.
+ */
+public class KillLog implements World.InfectionListener {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    // How long the writer sleeps when there is nothing to print
+    private static final long IDLE_NANOS = 10_000_000L;
+
+    private final PrintStream out;
+    private final int sampleEvery;
+    private final long[] ticks;
+    private final int[] victims, zombies;
+    private final int mask;
+    // Kills written into the ring by the simulation, and kills printed by the writer
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long seen = 0;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a kill log that prints every kill to standard output
+     */
+    public KillLog() {
+        this(System.out, 1, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a kill log and starts its writer thread
+     * @param out where to print the kills
+     * @param sampleEvery record one kill out of this many, 1 records every kill
+     * @param capacity number of kills the ring can hold, rounded up to a power of two
+     */
+    public KillLog(PrintStream out, int sampleEvery, int capacity) {
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("sampleEvery must be >= 1: " + sampleEvery);
+        }
+        this.out = out;
+        this.sampleEvery = sampleEvery;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ticks = new long[size];
+        this.victims = new int[size];
+        this.zombies = new int[size];
+        this.mask = size - 1;
+        this.writer = new Thread(this::writeLoop, "kill-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void humanInfected(int victim, int zombie, long tick) {
+        if (seen++ % sampleEvery != 0) {
+            return;
+        }
+        long w = written.get();
+        if (w - read.get() > mask) {
+            dropped.incrementAndGet();
+            return;
+        }
+        int slot = (int) (w & mask);
+        ticks[slot] = tick;
+        victims[slot] = victim;
+        zombies[slot] = zombie;
+        // Publishing the new count makes the slot visible to the writer
+        written.lazySet(w + 1);
+    }
+
+    /**
+     * Prints everything that is still in the ring, stops the writer thread and waits for it
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the number of kills that were not printed because the ring was full
+     * @return number of dropped kills
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    private void writeLoop() {
+        StringBuilder line = new StringBuilder(64);
+        long reportedDrops = 0;
+        while (true) {
+            boolean stopping = !running;
+            long r = read.get(), w = written.get();
+            for (; r < w; r++) {
+                int slot = (int) (r & mask);
+                line.setLength(0);
+                line.append("tick ").append(ticks[slot]).append(": Human ").append(victims[slot])
+                        .append(" killed by zombie ").append(zombies[slot]);
+                out.println(line);
+                read.lazySet(r + 1);
+            }
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                out.println("kill log: " + (drops - reportedDrops) + " kills dropped, printing is too slow");
+                reportedDrops = drops;
+            }
+            if (stopping) {
+                return;
+            }
+            if (r == written.get()) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+}
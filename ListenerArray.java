@@ -0,0 +1,47 @@
+package ZombieSimulator;
+
+import java.util.Arrays;
+
+/**
+ *
+ * This class holds a list of listeners as a plain array that is copied whenever a listener is
+ * added or removed, and is never changed in place. The tick path reads the current array once and
+ * loops over it by index, which (unlike looping over a CopyOnWriteArrayList) never creates an
+ * iterator object, so telling listeners about each infection or tick does not allocate.
+ */
+final class ListenerArray<T> {
+    private volatile T[] listeners;
+
+    /**
+     * Creates an empty list
+     * @param empty an empty array of the listener type, used as the starting array
+     */
+    ListenerArray(T[] empty) {
+        this.listeners = empty;
+    }
+
+    synchronized void add(T listener) {
+        T[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
+
+    synchronized void remove(T listener) {
+        for (int k = 0; k < listeners.length; k++) {
+            if (listeners[k] == listener) {
+                T[] shrunk = Arrays.copyOf(listeners, listeners.length - 1);
+                System.arraycopy(listeners, k + 1, shrunk, k, listeners.length - k - 1);
+                listeners = shrunk;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the current listeners. The array must not be changed by the caller.
+     * @return the listeners at the time of the call
+     */
+    T[] get() {
+        return listeners;
+    }
+}
@@ -3,7 +3,14 @@ package ZombieSimulator;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.ArrayList;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import javax.swing.*;
 
 /**
@@ -14,28 +21,51 @@ import javax.swing.*;
  * The GUI is built using Swing JComponents. It includes buttons with action listeners so that
  * humans and zombies can be added with button clicks. It also includes a Swing Timer object -
  * Timer objects register action listeners and are used to periodically trigger actions performed.
- * The Timer in this GUI is used to repaint the GUI components to create the visual animations and
- * also to check if a human has been killed. When a human is killed, it is removed from the list
- * of humans and re-instantiates the object as a zombie thread starting from the same location to
- * represent a human turning into a zombie. 
+ * The Timer in this GUI is used to repaint the GUI components to create the visual animations, at
+ * a frame rate that is set separately from the simulation's tick rate, and to show how long each
+ * frame takes to paint.
+ * 
+ * The GUI does not move the humans and zombies itself. They live in a World that is advanced by a
+ * SimulationEngine on its own thread, the GUI only observes the World and draws it. The same World
+ * and engine can be run without the GUI by passing --headless to main(). With --world-file the World
+ * is saved to a WorldFile when the program ends and picked up again by the next run.
+ * 
+ * The world's size is set with --width and --height and does not change with the window. Dragging
+ * the mouse pans the view, the mouse wheel zooms in and out, and a double click shows the whole world
+ * again. New agents are added in the centre of the view.
  * 
  * @author MYWT August 2020
  */
 public class MainGUI extends JPanel implements ActionListener {
     
     private JButton addHumanButton, addZombieButton;
+    private JCheckBox hudCheckBox;
+    private JLabel frameLabel;
     private DrawPanel drawPanel;
     private Timer timer;
-    // Lists of humans and zombies are maintained for the GUI to draw
-    public static ArrayList<Human> humanList = new ArrayList<>();
-    public static ArrayList<Human> zombieList = new ArrayList<>();
+    private long lastReportTime, lastReportFrames;
+    // The World holds the humans and zombies, the engine advances it on its own thread
+    private final World world;
+    private final SimulationEngine engine;
+    private final SimulationMetrics metrics;
+    // Where the World is checkpointed, or null if it is not kept between runs
+    private final WorldFile worldFile;
+    // Where the run is recorded, or null if it is not
+    private final TrajectoryLog trajectoryLog;
+    // Where the run is streamed to viewers, or null if it is not
+    private final FrameServer frameServer;
     
     /**
      * MainGUI is a subclass of JPanel and builds the components required for the GUI (JComponent
-     * objects), adds the required action listeners and starts a Swing Timer that is used to
-     * perform repeated actions
+     * objects), adds the required action listeners, starts the simulation engine and starts a
+     * Swing Timer that is used to perform repeated actions
+     * @param world the World to show, empty or already holding agents
+     * @param options the ticks to run and frames to paint each second, the threads that run each
+     *                tick, how to draw, whether to show the HUD, which kills to print, and where to
+     *                record and stream the run
+     * @param worldFile WorldFile to checkpoint the World to, or null
      */
-    public MainGUI() 
+    public MainGUI(World world, RunOptions options, WorldFile worldFile) 
     {
         // Passing border layout manager to the JPanel. Border Layout manager divides
         // the JPanel into sections: north, south, center, west and east and GUI components can
@@ -47,123 +77,611 @@ public class MainGUI extends JPanel implements ActionListener {
         // Registering action listeners so that actions can be performed if triggered with button clicks
         addHumanButton.addActionListener(this);
         addZombieButton.addActionListener(this);
+        hudCheckBox = new JCheckBox("HUD", options.isHud());
+        hudCheckBox.addActionListener(this);
+        frameLabel = new JLabel();
         southPanel.add(addHumanButton);
         southPanel.add(addZombieButton);
+        southPanel.add(hudCheckBox);
+        southPanel.add(frameLabel);
         add(southPanel,BorderLayout.SOUTH);
         
-        drawPanel = new DrawPanel();
+        this.worldFile = worldFile;
+        this.world = world;
+        world.setParallelism(options.getThreads());
+        if (options.getKillLogEvery() > 0) {
+            world.addInfectionListener(new KillLog(System.out, options.getKillLogEvery(), 1 << 16));
+        }
+        drawPanel = new DrawPanel(world);
+        drawPanel.setRasterRendering(options.isRaster());
         add(drawPanel,BorderLayout.CENTER);
         
+        // The metrics can be watched in the HUD or with JConsole/VisualVM
+        metrics = new SimulationMetrics();
+        metrics.setPaintTime(drawPanel.getFrameTime());
+        metrics.registerMBean();
+        drawPanel.setMetrics(metrics);
+        drawPanel.setHudVisible(options.isHud());
+        
+        engine = new SimulationEngine(world, options.getTicksPerSecond());
+        engine.addTickListener(metrics);
+        engine.addTickListener(drawPanel.getSnapshots());
+        if (worldFile != null) {
+            engine.addTickListener(worldFile);
+        }
+        trajectoryLog = options.getRecord() != null
+                ? new TrajectoryLog(Path.of(options.getRecord()), world, options.getKeyframeEvery()) : null;
+        if (trajectoryLog != null) {
+            engine.addTickListener(trajectoryLog);
+        }
+        this.frameServer = options.getServer();
+        if (frameServer != null) {
+            engine.addTickListener(frameServer);
+        }
+        engine.start();
+        
         // The Swing timer object registers an action listener with a delay in milliseconds
         // representing how often to repaint the GUI components.
-        timer = new Timer(5,this);
+        timer = new Timer(Math.max(1, 1000 / Math.max(1, options.getFramesPerSecond())),this);
+        lastReportTime = System.nanoTime();
         timer.start();
     }
     
+    /**
+     * Stops the simulation engine and, if the World is kept in a WorldFile, checkpoints it so the
+     * next run with the same file carries on from here. A recording and a stream are closed.
+     */
+    public void shutdown() {
+        engine.stop();
+        if (trajectoryLog != null) {
+            trajectoryLog.close();
+        }
+        if (frameServer != null) {
+            frameServer.close();
+        }
+        if (worldFile != null) {
+            worldFile.checkpoint(world);
+            worldFile.close();
+        }
+    }
+    
     /**
      * ActionPerformed is invoked whenever actions occur. In MainGUI, actions occur when the buttons are
-     * clicked and when the timer triggers an action performed (the timer triggers actions every 5 
-     * milliseconds in this instance). 
+     * clicked and when the timer triggers an action performed (the timer triggers actions once per
+     * frame, 60 times a second unless --fps says otherwise). 
      * 
-     * When the add human/zombie button is pressed, a new human/zombie object is created
-     * and is added to the MainGUI's list of humans/zombies.
+     * When the add human/zombie button is pressed, a new human/zombie is queued to be added to the
+     * World in the centre of the window at the start of the next tick, so the button never waits for
+     * the engine. The HUD check box shows or hides the metrics overlay.
      * 
-     * When the timer triggers an action (every 5 milliseconds) it repaints the GUI to update it. As
+     * When the timer triggers an action (once per frame) it repaints the GUI to update it. As
      * zombies/humans move around, their locations change, so the GUI needs to update their locations to
-     * create animation in the GUI. The second timer action is to check to see if any humans are killed,
-     * and if they are, re-instantiate them as zombies.
+     * create animation in the GUI. Turning infected humans into zombies is done by the World during
+     * every tick. Once a second the timer also shows the frame rate and how long frames take to paint.
      * @param e The ActionEvent object
      */
     @Override
     public void actionPerformed(ActionEvent e) {
         Object source = e.getSource();
         if (source.equals(addHumanButton)) {
-            Human human = new Human(humanList, Double.valueOf(drawPanel.getWidth()/2), Double.valueOf(drawPanel.getHeight()/2));
-            humanList.add(human);
+            world.spawnHuman(viewCentreX(), viewCentreY());
         }
         if (source.equals(addZombieButton)) {
-            Zombie zombie = new Zombie(humanList, Double.valueOf(drawPanel.getWidth()/2), Double.valueOf(drawPanel.getHeight()/2) );
-            zombieList.add(zombie);
+            world.spawnZombie(viewCentreX(), viewCentreY());
+        }
+        if (source.equals(hudCheckBox)) {
+            drawPanel.setHudVisible(hudCheckBox.isSelected());
         }
         if (source.equals(timer)) {
             drawPanel.repaint();
-            checkKill();
+            reportFrameTime();
         }
     }
     
     /**
-     * Checks through the list of humans to check if the boolean flag isAlive is false for any human, which
-     * signals that the thread should be killed. It re-instantiates a new zombie thread in the same 
-     * location as where the human thread was killed (i.e. where the human was infected). The 'killed' human
-     * is removed from the MainGUI's human list and the new zombie is added to the MainGUI's zombie list.
-     * 
-     * This method has the keyword "synchronized" which means that it is thread safe and only one thread has
-     * access to this method at a time. Synchronisation should only be isolated to critical sections of code
-     * as to not completely slow down the code and reduce the process of multi-threading. Critical section of
-     * code refers to a code segment where same variables are accessed multiple times by multiple threads (this
-     * method controls a human being removed from the humanList and re-instantiated as a new zombie, which is 
-     * then added to the zombie list). Synchronisation here avoids an concurrency error that would be caused in
-     * the scenario that two zombies are very close to each other and kill a human at the same time (or almost 
-     * the same time) resulting in multiple attempts to remove the single human from the humanList.
+     * Returns the world location in the centre of the view, kept inside the world
      */
-    public synchronized void checkKill() {
-        Human killedHuman = null;
-        boolean removeHuman = false;
-        for (Human human: humanList) {
-                if (human.isAlive == false) {
-                    killedHuman = human;
-                    double humanX = human.getX();
-                    double humanY = human.getY();
-                    zombieList.add(new Zombie(human.others, humanX,humanY));
-                    removeHuman = true;
-                }
-            }
-            if (removeHuman && killedHuman != null) {
-                humanList.remove(killedHuman);
-            }
+    private double viewCentreX() {
+        double x = drawPanel.getCamera().toWorldX(drawPanel.getWidth() / 2);
+        return Math.max(0, Math.min(world.getWidth() - world.getHuman().getSize(), x));
+    }
+    
+    private double viewCentreY() {
+        double y = drawPanel.getCamera().toWorldY(drawPanel.getHeight() / 2);
+        return Math.max(0, Math.min(world.getHeight() - world.getHuman().getSize(), y));
+    }
+    
+    /**
+     * Shows the frame rate and paint times of the last second in the frame label
+     */
+    private void reportFrameTime() {
+        long now = System.nanoTime();
+        if (now - lastReportTime < 1_000_000_000L) {
+            return;
+        }
+        RollingStats frameTime = drawPanel.getFrameTime();
+        long frames = frameTime.getCount();
+        double fps = (frames - lastReportFrames) * 1e9 / (now - lastReportTime);
+        frameLabel.setText(String.format("%.0f fps, frame %.2f ms (p99 %.2f ms)",
+                fps, frameTime.mean() / 1e6, frameTime.percentile(0.99) / 1e6));
+        lastReportTime = now;
+        lastReportFrames = frames;
     }
     
     /**
-     * Inner class that represents the window that the humans and zombies move around in.
+     * Nested class that represents the window that the humans and zombies move around in.
      * It is a subclass of JPanel and the paintComponent method is overridden to define
      * that each time the human/zombie window is drawn/redrawn it needs to cycle through
      * the list of all humans and zombies and draw each graphic representing each human/
-     * zombie thread.
+     * zombie.
+     * 
+     * The panel only needs a World, not the rest of the GUI, so it can also be painted into an
+     * off-screen image without a window (for example by the rendering benchmark).
+     * 
+     * The panel never reads the live Population. It draws the newest WorldSnapshot from its own
+     * SnapshotBuffer, which the engine fills after every tick (see getSnapshots()), so painting
+     * never waits for a tick and never sees agents half way through one.
+     * 
+     * The panel shows the part of the world seen by its Camera, which the mouse pans (drag) and zooms
+     * (wheel, double click to see the whole world). Only the agents the snapshot finds in view with
+     * select() are drawn, and when zoomed out too far to make out single agents the
+     * RasterRenderer draws a density heat map instead (with either kind of rendering).
+     * 
+     * With raster rendering on, the snapshot is drawn by a RasterRenderer into a reusable image and
+     * the image is copied to the screen in one call. The image is only drawn again when a newer
+     * snapshot has arrived (or the panel has changed size, or the view has moved) since the last
+     * frame, so repainting faster than the simulation ticks only costs the copy. The time taken by
+     * every paint is recorded.
+     * 
+     * The walls of the World's ObstacleMap, if it has any, are drawn over the agents in grey.
+     * 
+     * When a SimulationMetrics is set and the HUD is visible, the metrics are drawn as text over the
+     * top left corner of the simulation.
      */
-    private class DrawPanel extends JPanel 
+    static class DrawPanel extends JPanel 
     {
-        public DrawPanel() 
+        static final int DEFAULT_SIZE = 500;
+        private final World world;
+        private final SnapshotBuffer snapshots;
+        private final RollingStats frameTime = new RollingStats(256);
+        private final Camera camera = new Camera();
+        private final RasterRenderer renderer;
+        private boolean raster = true;
+        private SimulationMetrics metrics;
+        private boolean hudVisible;
+        // The snapshot and view that the renderer's image shows, or null if it must be drawn again
+        private WorldSnapshot rendered;
+        private long renderedSequence;
+        private double renderedLeft, renderedTop, renderedScale;
+        // The walls drawn over the agents, and the map they were drawn from
+        private BufferedImage wallImage;
+        private ObstacleMap wallMap;
+        
+        public DrawPanel(World world) 
         {
             super();
-            setPreferredSize(new Dimension(500,500));
+            this.world = world;
+            this.snapshots = new SnapshotBuffer(world);
+            this.renderer = new RasterRenderer(world.getHuman(), world.getZombie());
+            setPreferredSize(new Dimension(DEFAULT_SIZE,DEFAULT_SIZE));
             setBackground(Color.WHITE);
+            MouseAdapter mouse = new CameraMouse();
+            addMouseListener(mouse);
+            addMouseMotionListener(mouse);
+            addMouseWheelListener(mouse);
+        }
+        
+        /**
+         * Pans the camera while the mouse is dragged, zooms with the wheel and fits the whole world
+         * on a double click
+         */
+        private class CameraMouse extends MouseAdapter {
+            private int lastX, lastY;
+            
+            @Override
+            public void mousePressed(MouseEvent e) {
+                lastX = e.getX();
+                lastY = e.getY();
+            }
+            
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                camera.pan(e.getX() - lastX, e.getY() - lastY);
+                lastX = e.getX();
+                lastY = e.getY();
+                repaint();
+            }
+            
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                camera.zoom(e.getX(), e.getY(), Math.pow(1.25, -e.getPreciseWheelRotation()));
+                repaint();
+            }
+            
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    camera.fit();
+                    repaint();
+                }
+            }
+        }
+        
+        /**
+         * Switches between drawing with a RasterRenderer and drawing each agent with Java2D
+         * @param raster true for raster rendering
+         */
+        public void setRasterRendering(boolean raster) {
+            this.raster = raster;
+            rendered = null;
+        }
+        
+        /**
+         * Returns the Camera that decides which part of the world is shown
+         * @return the panel's Camera
+         */
+        public Camera getCamera() {
+            return this.camera;
+        }
+        
+        /**
+         * Sets the metrics shown in the HUD and told about every paint
+         * @param metrics the SimulationMetrics, or null for none
+         */
+        public void setMetrics(SimulationMetrics metrics) {
+            this.metrics = metrics;
+        }
+        
+        /**
+         * Shows or hides the metrics HUD
+         * @param visible true to draw the HUD over the simulation
+         */
+        public void setHudVisible(boolean visible) {
+            this.hudVisible = visible;
+            repaint();
+        }
+        
+        /**
+         * Makes the next paint draw the snapshot again even if it has been drawn already
+         */
+        void invalidateFrame() {
+            rendered = null;
+        }
+        
+        /**
+         * Returns the SnapshotBuffer this panel draws from. Add it to the SimulationEngine as a
+         * TickListener so a snapshot is published after every tick.
+         * @return the panel's SnapshotBuffer
+         */
+        public SnapshotBuffer getSnapshots() {
+            return this.snapshots;
+        }
+        
+        /**
+         * Returns how long recent paints took, in nanoseconds
+         * @return rolling paint time statistics
+         */
+        public RollingStats getFrameTime() {
+            return this.frameTime;
         }
         
         @Override
         public void paintComponent(Graphics g) 
+        {
+            long start = System.nanoTime();
+            WorldSnapshot snapshot = snapshots.acquire();
+            camera.update(snapshot.getWidth(), snapshot.getHeight(), getWidth(), getHeight());
+            if (raster || renderer.showsHeatMap(camera)) {
+                paintRaster(g, snapshot);
+            } else {
+                paintShapes(g, snapshot);
+            }
+            paintWalls(g);
+            long nanos = System.nanoTime() - start;
+            frameTime.record(nanos);
+            if (metrics != null) {
+                metrics.paintCompleted(nanos);
+                if (hudVisible) {
+                    paintHud(g, metrics.getHudLines());
+                }
+            }
+        }
+        
+        /**
+         * Draws the walls of the World's ObstacleMap, if it has one, stretched over the world as the
+         * camera sees it. The walls are drawn into an image with a pixel per map cell only once.
+         */
+        private void paintWalls(Graphics g) 
+        {
+            ObstacleMap obstacles = world.getObstacles();
+            if (obstacles == null) {
+                return;
+            }
+            if (obstacles != wallMap) {
+                wallImage = obstacles.toImage();
+                wallMap = obstacles;
+            }
+            int left = (int) Math.round(camera.toScreenX(0)), top = (int) Math.round(camera.toScreenY(0));
+            int right = (int) Math.round(camera.toScreenX(obstacles.getWidth()));
+            int bottom = (int) Math.round(camera.toScreenY(obstacles.getHeight()));
+            g.drawImage(wallImage, left, top, right - left, bottom - top, null);
+        }
+        
+        /**
+         * Draws the HUD lines on a translucent box in the top left corner
+         */
+        private void paintHud(Graphics g, String[] lines) 
+        {
+            FontMetrics font = g.getFontMetrics();
+            int lineHeight = font.getHeight();
+            int width = 0;
+            for (String line: lines) {
+                width = Math.max(width, font.stringWidth(line));
+            }
+            g.setColor(new Color(0, 0, 0, 160));
+            g.fillRect(4, 4, width + 12, lines.length * lineHeight + 8);
+            g.setColor(Color.WHITE);
+            for (int k = 0; k < lines.length; k++) {
+                g.drawString(lines[k], 10, 8 + font.getAscent() + k * lineHeight);
+            }
+        }
+        
+        /**
+         * Draws the snapshot into the renderer's image if it is newer than the last one drawn or
+         * the view has moved, then copies the image
+         */
+        private void paintRaster(Graphics g, WorldSnapshot snapshot) 
+        {
+            int width = getWidth(), height = getHeight();
+            BufferedImage image = renderer.getImage();
+            boolean resized = image == null || image.getWidth() != width || image.getHeight() != height;
+            boolean moved = camera.getLeft() != renderedLeft || camera.getTop() != renderedTop
+                    || camera.getScale() != renderedScale;
+            if (resized || moved || snapshot != rendered || snapshot.sequence != renderedSequence) {
+                image = renderer.render(snapshot, camera, width, height);
+                rendered = snapshot;
+                renderedSequence = snapshot.sequence;
+                renderedLeft = camera.getLeft();
+                renderedTop = camera.getTop();
+                renderedScale = camera.getScale();
+            }
+            g.drawImage(image, 0, 0, null);
+        }
+        
+        /**
+         * Draws every agent in view with its own Java2D calls, scaled and moved by the camera
+         */
+        private void paintShapes(Graphics g, WorldSnapshot snapshot) 
         {
             super.paintComponent(g);
-            Human.worldHeight = getHeight();
-            Human.worldWidth = getWidth();
-
-            for (Human human: humanList) {
-                human.draw(g);
+            Human human = world.getHuman();
+            Zombie zombie = world.getZombie();
+            Graphics2D view = (Graphics2D) g.create();
+            view.scale(camera.getScale(), camera.getScale());
+            view.translate(-camera.getLeft(), -camera.getTop());
+            
+            // Agents hang right and down from their location, so look one agent further up and left
+            double reach = human.getSize() + 1;
+            int count = snapshot.select(camera.toWorldX(0) - reach, camera.toWorldY(0) - reach,
+                    camera.toWorldX(getWidth()), camera.toWorldY(getHeight()));
+            
+            // Humans are drawn first so that zombies are drawn on top of them
+            for (int k = 0; k < count; k++) {
+                int i = snapshot.getSelected(k);
+                if (snapshot.isHuman(i)) {
+                    human.drawAt(view, (int) snapshot.getX(i), (int) snapshot.getY(i));
+                }
             }
             
-            for (Human zombie: zombieList) {
-                zombie.draw(g);
+            for (int k = 0; k < count; k++) {
+                int i = snapshot.getSelected(k);
+                if (snapshot.isZombie(i)) {
+                    zombie.drawAt(view, (int) snapshot.getX(i), (int) snapshot.getY(i));
+                }
             }
+            view.dispose();
         }
     }
     
     /**
      * Main driver method that executes the program.
+     * 
+     * Options:
+     *   --rate N       simulation ticks per second (0 runs as fast as possible), default 50
+     *   --threads N    threads used to run each tick, default 1
+     *   --fps N        frames painted per second, default 60
+     *   --renderer raster|shapes
+     *                  draw into an image raster (the default) or draw each agent with Java2D
+     *   --agent-threads virtual|platform
+     *                  run every agent's loop on its own thread (headless only)
+     *   --headless     run without a window and print throughput, using the options below
+     *   --humans N     number of humans to start with, default 10000 headless and none with the GUI
+     *   --zombies N    number of zombies to start with, default 10 headless and none with the GUI
+     *   --ticks N      number of ticks to run (headless only), default 1000
+     *   --width N      world width, default 500
+     *   --height N     world height, default 500
+     *   --seed N       seed for the agents' random choices and (headless) locations, default 1
+     *                  when headless and a new seed every run with the GUI
+     *   --kill-log N   print one kill out of every N, 0 prints none, default 1
+     *   --hud          show the metrics HUD when the window opens
+     *   --batch FILE   run the parameter sweep described by a config file (see BatchRunner)
+     *   --world-file FILE
+     *                  carry on from the world checkpointed in FILE, if there is one, and
+     *                  checkpoint the world to it when the program ends
+     *   --checkpoint-every N
+     *                  also checkpoint to the world file every N ticks, 0 for only at the end,
+     *                  default 1000
+     *   --record FILE  record every tick of the run to a trajectory log
+     *   --keyframe-every N
+     *                  frames between keyframes in the recording, default 250
+     *   --replay FILE  play back a recording instead of running the simulation (with
+     *                  --headless, decode it as fast as possible and print the speed)
+     *   --flow-field N zombies chase and humans flee by following distance fields rebuilt
+     *                  every N ticks, instead of searching for the nearest enemy, default 0 (off)
+     *   --scenario FILE
+     *                  start from the world described by a scenario file (see Scenario) instead of
+     *                  --width, --height, --humans, --zombies and --seed
+     *   --shards N     split the world into N regions, each simulated by its own worker process
+     *                  (see ShardCoordinator), default 1 (everything in this process). Cannot be
+     *                  used with --world-file, --record, --kill-log, --hud, --agent-threads,
+     *                  --serve or --obstacles
+     *   --halo N       how far each shard sees into its neighbours' regions, default 100
+     *   --shard-worker PORT
+     *                  run as a worker process of the ShardCoordinator listening on PORT
+     *   --shard-token TOKEN
+     *                  the token the ShardCoordinator gave the worker process
+     *   --serve PORT   stream every tick to viewers connecting to PORT (see FrameServer), with the
+     *                  frames between keyframes set by --keyframe-every
+     *   --serve-budget N
+     *                  most megabytes a second streamed to each viewer, 0 for no limit, default 8
+     *   --serve-address ADDRESS
+     *                  the address --serve listens on, default 127.0.0.1 (only viewers on this
+     *                  machine). 0.0.0.0 lets in viewers from every network interface
+     *   --obstacles FILE
+     *                  put the walls of an obstacle map in the world (see ObstacleMap): an image
+     *                  where dark pixels are walls, or a .txt file where '#' is a wall
+     *   --watch HOST:PORT
+     *                  watch a simulation streamed by --serve instead of running one (with
+     *                  --headless, read the stream until it ends and print its speed and size)
      */
     public static void main(String[] args) {
-        JFrame frame = new JFrame("Zombie Simulator");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.getContentPane().add(new MainGUI());
-        frame.pack();
-        frame.setVisible(true);
+        boolean headless = false;
+        RunOptions options = new RunOptions();
+        String batch = null, replay = null;
+        // Every option given on the command line, by name, as the parser read it
+        Set<String> given = new HashSet<>();
+        int shardWorkerPort = -1;
+        long shardToken = 0;
+        String scenarioFile = null;
+        int servePort = -1;
+        double serveBudget = 8;
+        String serveAddress = FrameServer.LOOPBACK;
+        String watch = null;
+        String obstaclesFile = null;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            switch (option) {
+                case "--headless": headless = true; break;
+                case "--rate": options.setTicksPerSecond(Integer.parseInt(args[++i])); break;
+                case "--threads": options.setThreads(Integer.parseInt(args[++i])); break;
+                case "--fps": options.setFramesPerSecond(Integer.parseInt(args[++i])); break;
+                case "--renderer": options.setRaster(args[++i].equals("raster")); break;
+                case "--agent-threads": options.setAgentThreads(args[++i]); break;
+                case "--humans": options.setHumans(Integer.parseInt(args[++i])); break;
+                case "--zombies": options.setZombies(Integer.parseInt(args[++i])); break;
+                case "--ticks": options.setTicks(Long.parseLong(args[++i])); break;
+                case "--width": options.setWidth(Integer.parseInt(args[++i])); break;
+                case "--height": options.setHeight(Integer.parseInt(args[++i])); break;
+                case "--seed": options.setSeed(Long.parseLong(args[++i])); break;
+                case "--kill-log": options.setKillLogEvery(Integer.parseInt(args[++i])); break;
+                case "--hud": options.setHud(true); break;
+                case "--batch": batch = args[++i]; break;
+                case "--world-file": options.setWorldFile(args[++i]); break;
+                case "--checkpoint-every": options.setCheckpointEvery(Integer.parseInt(args[++i])); break;
+                case "--record": options.setRecord(args[++i]); break;
+                case "--keyframe-every": options.setKeyframeEvery(Integer.parseInt(args[++i])); break;
+                case "--replay": replay = args[++i]; break;
+                case "--flow-field": options.setFlowFieldEvery(Integer.parseInt(args[++i])); break;
+                case "--scenario": scenarioFile = args[++i]; break;
+                case "--shards": options.setShards(Integer.parseInt(args[++i])); break;
+                case "--halo": options.setHalo(Double.parseDouble(args[++i])); break;
+                case "--shard-worker": shardWorkerPort = Integer.parseInt(args[++i]); break;
+                case "--shard-token": shardToken = Long.parseUnsignedLong(args[++i], 16); break;
+                case "--serve": servePort = Integer.parseInt(args[++i]); break;
+                case "--serve-budget": serveBudget = Double.parseDouble(args[++i]); break;
+                case "--serve-address": serveAddress = args[++i]; break;
+                case "--watch": watch = args[++i]; break;
+                case "--obstacles": obstaclesFile = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option: " + option);
+            }
+            given.add(option);
+        }
+        boolean seedGiven = given.contains("--seed");
+        
+        if (shardWorkerPort >= 0) {
+            ShardWorker.run(shardWorkerPort, shardToken);
+            return;
+        }
+        if (replay != null) {
+            if (headless) {
+                ReplayViewer.replayHeadless(Path.of(replay));
+            } else {
+                ReplayViewer.open(Path.of(replay), options.getFramesPerSecond(), options.isRaster());
+            }
+            return;
+        }
+        if (watch != null) {
+            if (headless) {
+                StreamViewer.watchHeadless(watch, 0);
+            } else {
+                StreamViewer.open(watch, options.getFramesPerSecond(), options.isRaster());
+            }
+            return;
+        }
+        if (batch != null) {
+            BatchRunner.fromFile(Path.of(batch)).run();
+            return;
+        }
+        if (scenarioFile != null) {
+            options.setScenario(Scenario.fromFile(Path.of(scenarioFile)));
+        }
+        if (options.getShards() > 1) {
+            // The workers only simulate, so nothing else can hook into a sharded run's ticks
+            for (String option: List.of("--world-file", "--record", "--kill-log", "--hud", "--agent-threads",
+                    "--serve", "--obstacles")) {
+                if (given.contains(option)) {
+                    throw new IllegalArgumentException(option + " cannot be used with a run split over --shards");
+                }
+            }
+        }
+        if (obstaclesFile != null) {
+            options.setObstacles(ObstacleMap.fromFile(Path.of(obstaclesFile), options.getWidth(), options.getHeight()));
+        }
+        if (servePort >= 0) {
+            FrameServer server = new FrameServer(serveAddress, servePort, options.getKeyframeEvery(),
+                    (long) (serveBudget * 1e6));
+            System.out.println("Streaming to viewers on " + serveAddress + " port " + server.getPort());
+            options.setServer(server);
+        }
+        if (options.getShards() > 1) {
+            long seed = headless || seedGiven ? options.getSeed() : System.nanoTime();
+            World start = SimulationEngine.createWorld(options.getWidth(), options.getHeight(), options.getHumans(),
+                    options.getZombies(), seed, options.getScenario());
+            if (headless) {
+                ShardCoordinator.runHeadless(start, options);
+            } else {
+                ShardCoordinator.open(start, options);
+            }
+            return;
+        }
+        if (headless) {
+            SimulationEngine.runHeadless(options);
+            return;
+        }
+        
+        final WorldFile file = options.getWorldFile() != null
+                ? new WorldFile(Path.of(options.getWorldFile()), options.getCheckpointEvery()) : null;
+        final World world;
+        if (file != null && file.hasCheckpoint()) {
+            world = file.restore();
+        } else {
+            // The window starts empty unless it is told how many agents to start with
+            int humans = given.contains("--humans") ? options.getHumans() : 0;
+            int zombies = given.contains("--zombies") ? options.getZombies() : 0;
+            world = SimulationEngine.createWorld(options.getWidth(), options.getHeight(), humans, zombies,
+                    seedGiven ? options.getSeed() : System.nanoTime(), options.getScenario());
+        }
+        world.setFlowFieldEvery(options.getFlowFieldEvery());
+        world.setObstacles(options.getObstacles());
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Zombie Simulator");
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            MainGUI gui = new MainGUI(world, options, file);
+            // Closing the window exits the program, which runs the hook that saves the world
+            Runtime.getRuntime().addShutdownHook(new Thread(gui::shutdown, "shutdown"));
+            frame.getContentPane().add(gui);
+            frame.pack();
+            frame.setVisible(true);
+        });
     }
 }
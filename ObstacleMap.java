@@ -0,0 +1,227 @@
+package ZombieSimulator;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ *
+ * This class is a map of the walls and buildings in the world, held as one bit per cell of a grid
+ * that is stretched over the whole world. A map is loaded with MainGUI --obstacles from either:
+ * - an image (PNG, GIF, BMP or JPEG), where every pixel is a cell and dark pixels are walls
+ * - a text file ending in .txt, where every character is a cell and '#' is a wall, for example
+ *     ##########
+ *     #....#...#
+ *     #....#...#
+ *     #........#
+ *     ##########
+ *
+ * isBlocked() tells if a location is inside a wall with a multiply per axis and one bit test, and
+ * locations outside the world count as walls, so the cost of a wall test is the same however many
+ * walls the map has and however they are shaped. Agents bounce off walls the same way they bounce
+ * off the world's edge (see Human.checkWorldEdgeIntersect()), and the World's FlowFields route
+ * pursuit and flight around them.
+ *
+ * A map never changes once it is loaded. stretchedTo() gives the same walls over a world of another
+ * size without copying them.
+ */
+public final class ObstacleMap {
+    // Pixels darker than this (0 to 255) are walls
+    static final int WALL_BRIGHTNESS = 128;
+    // Colour the walls are drawn in
+    private static final int WALL_ARGB = 0xC0505050;
+
+    private final int cols, rows;
+    private final long[] bits;
+    private final int width, height;
+    // Cells per world unit across and down
+    private final double colScale, rowScale;
+    // Hash of the walls, the same for two maps with the same walls
+    private final long fingerprint;
+
+    private ObstacleMap(int cols, int rows, long[] bits, int width, int height) {
+        this.cols = cols;
+        this.rows = rows;
+        this.bits = bits;
+        this.width = width;
+        this.height = height;
+        this.colScale = (double) cols / width;
+        this.rowScale = (double) rows / height;
+        long hash = 31L * cols + rows;
+        for (long word: bits) {
+            hash = 31 * hash + word;
+        }
+        this.fingerprint = hash;
+    }
+
+    /**
+     * Makes a map from an image, with a cell for every pixel and a wall wherever a pixel is darker
+     * than WALL_BRIGHTNESS (transparent pixels are never walls)
+     * @param image the image
+     * @param width width of the world the map is stretched over
+     * @param height height of the world the map is stretched over
+     * @return the map
+     */
+    public static ObstacleMap fromImage(BufferedImage image, int width, int height) {
+        int cols = image.getWidth(), rows = image.getHeight();
+        long[] bits = new long[(cols * rows + 63) >>> 6];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int argb = image.getRGB(col, row);
+                int alpha = argb >>> 24, red = (argb >> 16) & 0xff, green = (argb >> 8) & 0xff, blue = argb & 0xff;
+                if (alpha >= 128 && (red * 299 + green * 587 + blue * 114) / 1000 < WALL_BRIGHTNESS) {
+                    int cell = row * cols + col;
+                    bits[cell >>> 6] |= 1L << cell;
+                }
+            }
+        }
+        return new ObstacleMap(cols, rows, bits, width, height);
+    }
+
+    /**
+     * Makes a map from lines of text, with a cell for every character and a wall for every '#'.
+     * Lines shorter than the longest one are open at the end.
+     * @param lines the lines of the map, top first
+     * @param width width of the world the map is stretched over
+     * @param height height of the world the map is stretched over
+     * @return the map
+     */
+    public static ObstacleMap fromLines(List<String> lines, int width, int height) {
+        int rows = lines.size(), cols = 0;
+        for (String line: lines) {
+            cols = Math.max(cols, line.length());
+        }
+        if (cols == 0) {
+            throw new IllegalArgumentException("An obstacle map needs at least one cell");
+        }
+        long[] bits = new long[(cols * rows + 63) >>> 6];
+        for (int row = 0; row < rows; row++) {
+            String line = lines.get(row);
+            for (int col = 0; col < line.length(); col++) {
+                if (line.charAt(col) == '#') {
+                    int cell = row * cols + col;
+                    bits[cell >>> 6] |= 1L << cell;
+                }
+            }
+        }
+        return new ObstacleMap(cols, rows, bits, width, height);
+    }
+
+    /**
+     * Reads a map from a text file (ending in .txt) or an image file
+     * @param file path of the map
+     * @param width width of the world the map is stretched over
+     * @param height height of the world the map is stretched over
+     * @return the map
+     */
+    public static ObstacleMap fromFile(Path file, int width, int height) {
+        try {
+            if (file.getFileName().toString().toLowerCase().endsWith(".txt")) {
+                return fromLines(Files.readAllLines(file), width, height);
+            }
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image == null) {
+                throw new IllegalArgumentException("Not an image or a .txt obstacle map: " + file);
+            }
+            return fromImage(image, width, height);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read obstacle map " + file, e);
+        }
+    }
+
+    /**
+     * Returns the same walls stretched over a world of another size
+     * @param width width of the world
+     * @param height height of the world
+     * @return a map sharing this map's cells
+     */
+    public ObstacleMap stretchedTo(int width, int height) {
+        return new ObstacleMap(cols, rows, bits, width, height);
+    }
+
+    /**
+     * Tells if location xy is inside a wall or outside the world
+     * @param x X location
+     * @param y Y location
+     * @return true if an agent cannot be at xy
+     */
+    public boolean isBlocked(double x, double y) {
+        if (!(x >= 0 && y >= 0 && x < width && y < height)) {
+            return true;
+        }
+        int col = Math.min(cols - 1, (int) (x * colScale)), row = Math.min(rows - 1, (int) (y * rowScale));
+        int cell = row * cols + col;
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Tells if a cell of the map is a wall
+     * @param col column of the cell
+     * @param row row of the cell
+     * @return true if the cell is a wall
+     */
+    public boolean isCellBlocked(int col, int row) {
+        int cell = row * cols + col;
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Draws the map into an image with a pixel for every cell, the walls in a translucent grey and
+     * the rest transparent, ready to be stretched over the world
+     * @return the image
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_ARGB);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (isCellBlocked(col, row)) {
+                    image.setRGB(col, row, WALL_ARGB);
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Returns the number of cells that are walls
+     * @return wall cells
+     */
+    public int getWallCount() {
+        int walls = 0;
+        for (long word: bits) {
+            walls += Long.bitCount(word);
+        }
+        return walls;
+    }
+
+    /**
+     * Returns a hash of the walls, which is the same for two maps with the same walls (whatever
+     * size of world they are stretched over) and almost never the same for different walls
+     * @return the hash
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+
+    // Getters
+
+    public int getColumns() {
+        return this.cols;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+}
@@ -0,0 +1,437 @@
+package ZombieSimulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ *
+ * This class stores every human and zombie in the Zombie Simulator as columns of primitive arrays
+ * (a "struct of arrays") instead of one object per agent. Agent number i is made up of x[i], y[i],
+ * dx[i], dy[i], its step counters and its state, which is either HUMAN or ZOMBIE. When a zombie
+ * infects a human, the human's state is simply flipped to ZOMBIE in place, no new object is created.
+ *
+ * Keeping each attribute in its own array means a loop over all agents reads memory in a straight
+ * line, which is much friendlier to the CPU cache than following a list of objects around the heap.
+ *
+ * Each agent also has its own random number stream (like each Human used to have its own Random),
+ * so an agent's random choices only depend on the world seed and its index.
+ *
+ * The columns can be copied out to (and back from) buffers outside the Java heap with one bulk copy
+ * per column, which is how a WorldFile checkpoints and restores a world.
+ */
+public class Population {
+    public static final byte HUMAN = 0;
+    public static final byte ZOMBIE = 1;
+    // Used to spread agent seeds apart, see nextInt()
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    // Bytes each agent takes up in each column, in the order writeColumns() writes them:
+    // x, y, dx, dy, random, totalSteps, nStepsTaken, state
+    static final int[] COLUMN_BYTES = {8, 8, 8, 8, 8, 4, 4, 1};
+
+    private double[] x, y;
+    private double[] dx, dy;
+    private int[] totalSteps, nStepsTaken;
+    private byte[] state;
+    private long[] random;
+    private int count = 0;
+    private int humanCount = 0, zombieCount = 0;
+    private final long seed;
+    // Goes up whenever agents are added, moved to another index or dropped, so anything that
+    // remembers agents by index knows when to forget them
+    private long version = 0;
+
+    /**
+     * Creates an empty population
+     * @param initialCapacity number of agents to make room for before the arrays need to grow
+     * @param seed seed used to create every agent's random number stream
+     */
+    public Population(int initialCapacity, long seed) {
+        this.seed = seed;
+        int capacity = Math.max(initialCapacity, 16);
+        x = new double[capacity];
+        y = new double[capacity];
+        dx = new double[capacity];
+        dy = new double[capacity];
+        totalSteps = new int[capacity];
+        nStepsTaken = new int[capacity];
+        state = new byte[capacity];
+        random = new long[capacity];
+    }
+
+    /**
+     * Creates a population from columns written by writeColumns()
+     * @param columns one buffer per column, in the order of COLUMN_BYTES
+     * @param count number of agents in the columns
+     * @param seed seed used to create the random number stream of every new agent
+     */
+    Population(ByteBuffer[] columns, int count, long seed) {
+        this(count, seed);
+        column(columns[0]).asDoubleBuffer().get(0, x, 0, count);
+        column(columns[1]).asDoubleBuffer().get(0, y, 0, count);
+        column(columns[2]).asDoubleBuffer().get(0, dx, 0, count);
+        column(columns[3]).asDoubleBuffer().get(0, dy, 0, count);
+        column(columns[4]).asLongBuffer().get(0, random, 0, count);
+        column(columns[5]).asIntBuffer().get(0, totalSteps, 0, count);
+        column(columns[6]).asIntBuffer().get(0, nStepsTaken, 0, count);
+        column(columns[7]).get(0, state, 0, count);
+        this.count = count;
+        for (int i = 0; i < count; i++) {
+            if (state[i] == HUMAN) {
+                humanCount++;
+            } else {
+                zombieCount++;
+            }
+        }
+    }
+
+    /**
+     * Copies every agent's columns into the given buffers with one bulk copy per column
+     * @param columns one buffer per column, in the order of COLUMN_BYTES, each with room for size() agents
+     */
+    void writeColumns(ByteBuffer[] columns) {
+        column(columns[0]).asDoubleBuffer().put(0, x, 0, count);
+        column(columns[1]).asDoubleBuffer().put(0, y, 0, count);
+        column(columns[2]).asDoubleBuffer().put(0, dx, 0, count);
+        column(columns[3]).asDoubleBuffer().put(0, dy, 0, count);
+        column(columns[4]).asLongBuffer().put(0, random, 0, count);
+        column(columns[5]).asIntBuffer().put(0, totalSteps, 0, count);
+        column(columns[6]).asIntBuffer().put(0, nStepsTaken, 0, count);
+        column(columns[7]).put(0, state, 0, count);
+    }
+
+    /**
+     * Columns are stored little endian, whatever the machine
+     */
+    private static ByteBuffer column(ByteBuffer buffer) {
+        return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Adds a new agent at location xy with no movement. The caller sets the agent's direction and
+     * step counters afterwards.
+     * @param x X location of the agent
+     * @param y Y location of the agent
+     * @param state HUMAN or ZOMBIE
+     * @return the index of the new agent
+     */
+    public int add(double x, double y, byte state) {
+        ensureCapacity(count + 1);
+        int i = count++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.dx[i] = 0;
+        this.dy[i] = 0;
+        this.totalSteps[i] = 0;
+        this.nStepsTaken[i] = 0;
+        this.state[i] = state;
+        this.random[i] = mix(seed + (i + 1) * GOLDEN_GAMMA);
+        version++;
+        if (state == HUMAN) {
+            humanCount++;
+        } else {
+            zombieCount++;
+        }
+        return i;
+    }
+
+    /**
+     * Adds many new agents with the same state at once, with no movement, like calling add() for each
+     * location in turn: the locations are copied into the columns in bulk and every agent gets the
+     * same random number stream add() would have given it. The caller sets the agents' directions
+     * and step counters afterwards.
+     * @param xs X location of each agent
+     * @param ys Y location of each agent
+     * @param count number of agents to add, from the start of xs and ys
+     * @param state HUMAN or ZOMBIE
+     * @return the index of the first new agent, the others follow it
+     */
+    public int addAll(double[] xs, double[] ys, int count, byte state) {
+        ensureCapacity(this.count + count);
+        int first = this.count, end = first + count;
+        System.arraycopy(xs, 0, x, first, count);
+        System.arraycopy(ys, 0, y, first, count);
+        Arrays.fill(dx, first, end, 0);
+        Arrays.fill(dy, first, end, 0);
+        Arrays.fill(totalSteps, first, end, 0);
+        Arrays.fill(nStepsTaken, first, end, 0);
+        Arrays.fill(this.state, first, end, state);
+        for (int i = first; i < end; i++) {
+            random[i] = mix(seed + (i + 1) * GOLDEN_GAMMA);
+        }
+        this.count = end;
+        version++;
+        if (state == HUMAN) {
+            humanCount += count;
+        } else {
+            zombieCount += count;
+        }
+        return first;
+    }
+
+    /**
+     * Copies every column of agent from over agent to, for example to close the gap left by an agent
+     * that has been taken out. Agent to is overwritten and the human and zombie counts are kept
+     * right, so once it is done moving agents down the caller drops the copies left at the end with
+     * truncate().
+     * @param from index of the agent to copy
+     * @param to index to copy it to
+     */
+    void move(int from, int to) {
+        if (state[to] != state[from]) {
+            if (state[to] == HUMAN) {
+                humanCount--;
+                zombieCount++;
+            } else {
+                humanCount++;
+                zombieCount--;
+            }
+        }
+        x[to] = x[from];
+        y[to] = y[from];
+        dx[to] = dx[from];
+        dy[to] = dy[from];
+        totalSteps[to] = totalSteps[from];
+        nStepsTaken[to] = nStepsTaken[from];
+        state[to] = state[from];
+        random[to] = random[from];
+        version++;
+    }
+
+    /**
+     * Drops every agent from the given index on, and takes them off the human and zombie counts
+     * @param count number of agents to keep
+     */
+    void truncate(int count) {
+        for (int i = count; i < this.count; i++) {
+            if (state[i] == HUMAN) {
+                humanCount--;
+            } else {
+                zombieCount--;
+            }
+        }
+        this.count = Math.min(count, this.count);
+        version++;
+    }
+
+    /**
+     * Makes sure the arrays can hold at least the given number of agents. Arrays grow by half
+     * their size each time so that adding agents one at a time stays cheap.
+     * @param capacity number of agents that must fit
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= state.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, state.length + (state.length >> 1));
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        dx = Arrays.copyOf(dx, newCapacity);
+        dy = Arrays.copyOf(dy, newCapacity);
+        totalSteps = Arrays.copyOf(totalSteps, newCapacity);
+        nStepsTaken = Arrays.copyOf(nStepsTaken, newCapacity);
+        state = Arrays.copyOf(state, newCapacity);
+        random = Arrays.copyOf(random, newCapacity);
+    }
+
+    /**
+     * Turns a human into a zombie by flipping its state in place. Infecting an agent that is
+     * already a zombie does nothing.
+     * 
+     * Only the World's checkKill() calls this, on the thread running the tick, for every victim
+     * drained from the InfectionQueue (and World.infectNow() for a victim of a zombie in another
+     * shard). The human and zombie counts are not changed here: checkKill() adds up how many
+     * humans it infected and calls countInfections() once after the drain.
+     * @param i index of the human to infect
+     * @return true if the agent was a human and is now a zombie
+     */
+    public boolean infect(int i) {
+        if (state[i] != HUMAN) {
+            return false;
+        }
+        state[i] = ZOMBIE;
+        return true;
+    }
+
+    /**
+     * Moves the given number of agents from the human count to the zombie count
+     * @param infected number of humans that were turned into zombies with infect()
+     */
+    public void countInfections(int infected) {
+        humanCount -= infected;
+        zombieCount += infected;
+    }
+
+    /**
+     * Moves agent i by its current direction and counts the step
+     * @param i index of the agent
+     */
+    public void advance(int i) {
+        x[i] += dx[i];
+        y[i] += dy[i];
+        nStepsTaken[i]++;
+    }
+
+    /**
+     * Returns a random integer from 0 (inclusive) to bound (exclusive) from agent i's own random
+     * stream. The stream is a SplitMix64 generator, which is just an addition and a few multiplies
+     * and shifts on a long, so no objects are needed.
+     * @param i index of the agent
+     * @param bound upper limit (exclusive), must be positive
+     * @return random integer in [0, bound)
+     */
+    public int nextInt(int i, int bound) {
+        long z = mix(random[i] += GOLDEN_GAMMA);
+        return (int) (((z >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * SplitMix64 finaliser, scrambles the bits of a long
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the number of agents (humans and zombies)
+     * @return number of agents
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Returns the number of agents that are humans
+     * @return number of humans
+     */
+    public int getHumanCount() {
+        return this.humanCount;
+    }
+
+    /**
+     * Returns the number of agents that are zombies
+     * @return number of zombies
+     */
+    public int getZombieCount() {
+        return this.zombieCount;
+    }
+
+    /**
+     * Combines the position, direction and state of every agent into a single number. Two
+     * populations with the same checksum are (almost certainly) in exactly the same state, which
+     * is used to check that a parallel run ends up where a single threaded run does.
+     * @return checksum of every agent's state
+     */
+    public long checksum() {
+        long hash = count;
+        for (int i = 0; i < count; i++) {
+            hash = hash * 31 + Double.doubleToLongBits(x[i]);
+            hash = hash * 31 + Double.doubleToLongBits(y[i]);
+            hash = hash * 31 + Double.doubleToLongBits(dx[i]);
+            hash = hash * 31 + Double.doubleToLongBits(dy[i]);
+            hash = hash * 31 + state[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the seed that every agent's random number stream was created from
+     * @return the population's seed
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Returns a number that changes whenever agents are added, moved to another index or dropped.
+     * Infections do not change it.
+     * @return the population's version
+     */
+    long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the number of agents with the given state
+     * @param state HUMAN or ZOMBIE
+     * @return number of agents with that state
+     */
+    public int getCount(byte state) {
+        return state == HUMAN ? this.humanCount : this.zombieCount;
+    }
+
+    // Getters and setters for each column of agent i. They are tiny so the JIT inlines them and a
+    // loop over getX(i)/setX(i, ...) runs just as fast as a loop over the arrays themselves.
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public void setX(int i, double value) {
+        x[i] = value;
+    }
+
+    public double getY(int i) {
+        return y[i];
+    }
+
+    public void setY(int i, double value) {
+        y[i] = value;
+    }
+
+    public double getDX(int i) {
+        return dx[i];
+    }
+
+    public void setDX(int i, double value) {
+        dx[i] = value;
+    }
+
+    public double getDY(int i) {
+        return dy[i];
+    }
+
+    public void setDY(int i, double value) {
+        dy[i] = value;
+    }
+
+    public int getTotalSteps(int i) {
+        return totalSteps[i];
+    }
+
+    public void setTotalSteps(int i, int value) {
+        totalSteps[i] = value;
+    }
+
+    public int getStepsTaken(int i) {
+        return nStepsTaken[i];
+    }
+
+    public void setStepsTaken(int i, int value) {
+        nStepsTaken[i] = value;
+    }
+
+    public byte getState(int i) {
+        return state[i];
+    }
+
+    // The random stream is only read and written as a whole when an agent moves to another process
+
+    long getRandom(int i) {
+        return random[i];
+    }
+
+    void setRandom(int i, long value) {
+        random[i] = value;
+    }
+
+    public boolean isHuman(int i) {
+        return state[i] == HUMAN;
+    }
+
+    public boolean isZombie(int i) {
+        return state[i] == ZOMBIE;
+    }
+}
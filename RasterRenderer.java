@@ -0,0 +1,290 @@
+package ZombieSimulator;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ *
+ * This class draws a WorldSnapshot by writing pixels straight into the int[] raster of a
+ * BufferedImage, instead of making four Java2D calls (fill and outline, colour changes) for every
+ * agent. The image is created once and reused for every frame, and is only replaced when the
+ * window changes size. The DrawPanel then copies the finished image to the screen with a single
+ * drawImage().
+ *
+ * Each kind of agent has a sprite: the pixels that Human.drawAt() or Zombie.drawAt() would draw,
+ * captured once into a list of opaque pixels. Drawing an agent is then just copying those colours
+ * into the raster at the agent's location, which is what makes the renderer fast for tens or
+ * hundreds of thousands of agents. The result looks the same as drawing each agent with Java2D.
+ *
+ * The image shows the part of the world seen by a Camera. Sprites are captured again at the
+ * camera's scale when it changes, and only the agents the snapshot finds in view with select() are
+ * visited, so looking at a small part of a huge world costs about as much as the agents in that
+ * part. When the camera is zoomed out so far that an agent would be smaller than
+ * HEAT_MAP_BELOW pixels, individual agents would just be noise, so a density heat map is drawn
+ * instead: the view is split into HEAT_BIN x HEAT_BIN pixel bins, the humans and zombies in each bin
+ * are counted, and each bin is shaded from blue (all humans) to red (all zombies), darker the more
+ * agents it holds. Anything outside the world is grey.
+ */
+public class RasterRenderer {
+    private static final int BACKGROUND = Color.WHITE.getRGB();
+    private static final int OUTSIDE = Color.LIGHT_GRAY.getRGB();
+    // Agents smaller than this many pixels are shown as a heat map
+    static final double HEAT_MAP_BELOW = 2;
+    // Width and height in pixels of one bin of the heat map
+    private static final int HEAT_BIN = 4;
+
+    private final Human human;
+    private final Zombie zombie;
+    private BufferedImage image;
+    private int[] pixels;
+    private int width, height;
+    private Sprite humanSprite, zombieSprite;
+    // Agents counted in each bin of the heat map
+    private int[] humanBins = new int[0], zombieBins = new int[0];
+
+    /**
+     * Creates a renderer, capturing the sprites of the given behaviours
+     * @param human the behaviour whose drawAt() draws a human
+     * @param zombie the behaviour whose drawAt() draws a zombie
+     */
+    public RasterRenderer(Human human, Zombie zombie) {
+        this.human = human;
+        this.zombie = zombie;
+        this.humanSprite = new Sprite(human, 1);
+        this.zombieSprite = new Sprite(zombie, 1);
+    }
+
+    /**
+     * Returns true if the camera is zoomed out so far that render() draws a heat map
+     * @param camera the Camera of the view
+     * @return true for a heat map, false for individual agents
+     */
+    public boolean showsHeatMap(Camera camera) {
+        return camera.getScale() * human.getSize() < HEAT_MAP_BELOW;
+    }
+
+    /**
+     * Draws the part of the snapshot seen by the camera into the renderer's image: every agent in
+     * view, humans first so that zombies are drawn on top of them, or a heat map when zoomed out.
+     * @param snapshot the WorldSnapshot to draw
+     * @param camera the Camera of the view
+     * @param width width of the image
+     * @param height height of the image
+     * @return the image, which is reused by the next call
+     */
+    public BufferedImage render(WorldSnapshot snapshot, Camera camera, int width, int height) {
+        ensureImage(width, height);
+        fillBackground(snapshot, camera);
+        if (showsHeatMap(camera)) {
+            renderHeatMap(snapshot, camera);
+            return image;
+        }
+        double scale = camera.getScale();
+        if (humanSprite.scale != scale) {
+            humanSprite = new Sprite(human, scale);
+            zombieSprite = new Sprite(zombie, scale);
+        }
+        // Sprites hang right and down from an agent's location, so look one agent further up and left
+        double reach = human.getSize() + 1;
+        int count = snapshot.select(camera.toWorldX(0) - reach, camera.toWorldY(0) - reach,
+                camera.toWorldX(width), camera.toWorldY(height));
+        stampSelected(snapshot, camera, count, Population.HUMAN, humanSprite);
+        stampSelected(snapshot, camera, count, Population.ZOMBIE, zombieSprite);
+        return image;
+    }
+
+    /**
+     * Stamps every selected agent with the given state
+     */
+    private void stampSelected(WorldSnapshot snapshot, Camera camera, int count, byte state, Sprite sprite) {
+        for (int k = 0; k < count; k++) {
+            int i = snapshot.getSelected(k);
+            if (snapshot.getState(i) == state) {
+                stamp(sprite, (int) Math.floor(camera.toScreenX(snapshot.getX(i))),
+                        (int) Math.floor(camera.toScreenY(snapshot.getY(i))));
+            }
+        }
+    }
+
+    /**
+     * Counts the humans and zombies in view into bins and shades each bin by how many agents it
+     * holds (on a log scale, so a few agents still show next to a crowd) and what share of them are
+     * zombies
+     */
+    private void renderHeatMap(WorldSnapshot snapshot, Camera camera) {
+        int binColumns = (width + HEAT_BIN - 1) / HEAT_BIN, binRows = (height + HEAT_BIN - 1) / HEAT_BIN;
+        int bins = binColumns * binRows;
+        if (humanBins.length < bins) {
+            humanBins = new int[bins];
+            zombieBins = new int[bins];
+        }
+        Arrays.fill(humanBins, 0, bins, 0);
+        Arrays.fill(zombieBins, 0, bins, 0);
+
+        double left = camera.toWorldX(0), top = camera.toWorldY(0);
+        double perBin = camera.getScale() / HEAT_BIN;
+        int count = snapshot.select(left, top, camera.toWorldX(width), camera.toWorldY(height));
+        for (int k = 0; k < count; k++) {
+            int i = snapshot.getSelected(k);
+            int bx = Math.min(binColumns - 1, (int) ((snapshot.getX(i) - left) * perBin));
+            int by = Math.min(binRows - 1, (int) ((snapshot.getY(i) - top) * perBin));
+            if (snapshot.isZombie(i)) {
+                zombieBins[by * binColumns + bx]++;
+            } else {
+                humanBins[by * binColumns + bx]++;
+            }
+        }
+
+        int most = 1;
+        for (int b = 0; b < bins; b++) {
+            most = Math.max(most, humanBins[b] + zombieBins[b]);
+        }
+        double logMost = Math.log1p(most);
+        for (int by = 0; by < binRows; by++) {
+            for (int bx = 0; bx < binColumns; bx++) {
+                int humans = humanBins[by * binColumns + bx], zombies = zombieBins[by * binColumns + bx];
+                if (humans + zombies > 0) {
+                    fillBin(bx * HEAT_BIN, by * HEAT_BIN, heatColor(humans, zombies, logMost));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the colour of a heat map bin: white blended towards a mix of blue and red
+     */
+    private static int heatColor(int humans, int zombies, double logMost) {
+        // Even a single agent is clearly darker than an empty bin
+        double heat = 0.25 + 0.75 * Math.log1p(humans + zombies) / logMost;
+        double zombieShare = (double) zombies / (humans + zombies);
+        int red = (int) (255 * (1 - heat) + 255 * zombieShare * heat);
+        int blue = (int) (255 * (1 - heat) + 255 * (1 - zombieShare) * heat);
+        int green = (int) (255 * (1 - heat));
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    private void fillBin(int x, int y, int color) {
+        for (int py = y, endY = Math.min(height, y + HEAT_BIN); py < endY; py++) {
+            Arrays.fill(pixels, py * width + x, py * width + Math.min(width, x + HEAT_BIN), color);
+        }
+    }
+
+    /**
+     * Fills the image with the background colour where the world is and grey around it
+     */
+    private void fillBackground(WorldSnapshot snapshot, Camera camera) {
+        int worldLeft = clamp(camera.toScreenX(0), width), worldRight = clamp(camera.toScreenX(snapshot.getWidth()), width);
+        int worldTop = clamp(camera.toScreenY(0), height), worldBottom = clamp(camera.toScreenY(snapshot.getHeight()), height);
+        if (worldLeft == 0 && worldTop == 0 && worldRight == width && worldBottom == height) {
+            Arrays.fill(pixels, BACKGROUND);
+            return;
+        }
+        Arrays.fill(pixels, OUTSIDE);
+        for (int py = worldTop; py < worldBottom; py++) {
+            Arrays.fill(pixels, py * width + worldLeft, py * width + worldRight, BACKGROUND);
+        }
+    }
+
+    private static int clamp(double value, int limit) {
+        return (int) Math.max(0, Math.min(limit, Math.ceil(value)));
+    }
+
+    /**
+     * Returns the image drawn by the last call to render()
+     * @return the image, or null if nothing has been drawn yet
+     */
+    public BufferedImage getImage() {
+        return this.image;
+    }
+
+    /**
+     * Creates the image if there is none yet or the size has changed. Otherwise the existing image
+     * and its raster are reused.
+     */
+    private void ensureImage(int width, int height) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        if (image != null && this.width == width && this.height == height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Copies a sprite's pixels into the raster with its top left corner at xy. Sprites that are
+     * completely inside the image are copied without checking each pixel, only sprites that
+     * cross an edge are clipped.
+     */
+    private void stamp(Sprite sprite, int x, int y) {
+        int[] dx = sprite.dx, dy = sprite.dy, colors = sprite.colors;
+        if (x >= 0 && y >= 0 && x <= width - sprite.width && y <= height - sprite.height) {
+            int origin = y * width + x;
+            for (int k = 0; k < colors.length; k++) {
+                pixels[origin + dy[k] * width + dx[k]] = colors[k];
+            }
+            return;
+        }
+        for (int k = 0; k < colors.length; k++) {
+            int px = x + dx[k], py = y + dy[k];
+            if (px >= 0 && py >= 0 && px < width && py < height) {
+                pixels[py * width + px] = colors[k];
+            }
+        }
+    }
+
+    /**
+     * The opaque pixels drawn by one kind of agent, relative to the agent's location
+     */
+    private static final class Sprite {
+        final double scale;
+        final int width, height;
+        final int[] dx, dy, colors;
+
+        /**
+         * Captures the pixels drawn by behaviour.drawAt() at the given scale into a list of offsets
+         * and colours
+         */
+        Sprite(Human behaviour, double scale) {
+            this.scale = scale;
+            // Outlines are drawn one pixel past the size
+            int extent = (int) Math.ceil(((int) behaviour.getSize() + 1) * scale);
+            BufferedImage scratch = new BufferedImage(extent, extent, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = scratch.createGraphics();
+            g.scale(scale, scale);
+            behaviour.drawAt(g, 0, 0);
+            g.dispose();
+
+            int opaque = 0;
+            for (int y = 0; y < extent; y++) {
+                for (int x = 0; x < extent; x++) {
+                    if ((scratch.getRGB(x, y) >>> 24) != 0) {
+                        opaque++;
+                    }
+                }
+            }
+            width = extent;
+            height = extent;
+            dx = new int[opaque];
+            dy = new int[opaque];
+            colors = new int[opaque];
+            int k = 0;
+            for (int y = 0; y < extent; y++) {
+                for (int x = 0; x < extent; x++) {
+                    int argb = scratch.getRGB(x, y);
+                    if ((argb >>> 24) != 0) {
+                        dx[k] = x;
+                        dy[k] = y;
+                        colors[k] = argb;
+                        k++;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ZombieSimulator;
+
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.nio.file.Path;
+import javax.swing.*;
+
+/**
+ *
+ * This class plays back a run recorded by a TrajectoryLog in the same DrawPanel that shows the live
+ * simulation. Nothing is simulated: every frame is decoded from the log by a TrajectoryReader and
+ * published to the panel's SnapshotBuffer, so a recorded run can be watched at any speed (up to as
+ * fast as frames can be decoded) and scrubbed back and forth with the slider, whatever the number
+ * of agents or the machine that recorded it.
+ *
+ * The play button starts and pauses playback, and the speed box sets how many recorded ticks are
+ * played each second. "max" plays as many frames as can be decoded in each repaint.
+ */
+public class ReplayViewer extends JPanel implements ActionListener {
+    // Recorded ticks played per second, MAX_SPEED plays as fast as frames can be decoded
+    private static final int MAX_SPEED = 0;
+    private static final int[] SPEEDS = {10, SimulationEngine.DEFAULT_TICKS_PER_SECOND, 250, 1000, 5000, MAX_SPEED};
+    // Time spent decoding in each repaint at MAX_SPEED
+    private static final long MAX_SPEED_BUDGET = 12_000_000L;
+    // Largest starting size of the view, bigger worlds are zoomed out to fit
+    private static final int MAX_WINDOW = 800;
+
+    private final TrajectoryReader reader;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final MainGUI.DrawPanel drawPanel;
+    private final JButton playButton;
+    private final JSlider slider;
+    private final JComboBox<String> speedBox;
+    private final JLabel tickLabel;
+    private final Timer timer;
+    private boolean playing = true;
+    // Frame being shown, with the fraction of the next frame played so far
+    private double position = 0;
+    private int shown = -1;
+    private long lastFrameTime;
+
+    /**
+     * Creates a viewer for a recorded run and starts playing it at the recorded speed
+     * @param reader the TrajectoryReader of the recording
+     * @param framesPerSecond how many times to repaint each second
+     * @param raster true to draw with the RasterRenderer, false to draw each agent with Java2D
+     */
+    public ReplayViewer(TrajectoryReader reader, int framesPerSecond, boolean raster) {
+        super(new BorderLayout());
+        this.reader = reader;
+        reader.seek(0, decoder);
+        // The World is never ticked, it only gives the panel the recorded agents' size to draw
+        World world = new World(decoder.getWidth(), decoder.getHeight(), reader.getSeed(), reader.getParameters());
+        drawPanel = new MainGUI.DrawPanel(world);
+        drawPanel.setRasterRendering(raster);
+        drawPanel.setPreferredSize(new Dimension(Math.min(MAX_WINDOW, decoder.getWidth()),
+                Math.min(MAX_WINDOW, decoder.getHeight())));
+        add(drawPanel, BorderLayout.CENTER);
+
+        JPanel southPanel = new JPanel();
+        playButton = new JButton("Pause");
+        playButton.addActionListener(this);
+        slider = new JSlider(0, Math.max(0, reader.getFrameCount() - 1), 0);
+        slider.addChangeListener(e -> {
+            if (slider.getValueIsAdjusting() || slider.getValue() != shown) {
+                position = slider.getValue();
+                show(slider.getValue());
+            }
+        });
+        String[] names = new String[SPEEDS.length];
+        for (int k = 0; k < SPEEDS.length; k++) {
+            names[k] = SPEEDS[k] == MAX_SPEED ? "max" : SPEEDS[k] + " ticks/s";
+        }
+        speedBox = new JComboBox<>(names);
+        speedBox.setSelectedIndex(1);
+        tickLabel = new JLabel();
+        southPanel.add(playButton);
+        southPanel.add(slider);
+        southPanel.add(speedBox);
+        southPanel.add(tickLabel);
+        add(southPanel, BorderLayout.SOUTH);
+
+        show(0);
+        timer = new Timer(Math.max(1, 1000 / Math.max(1, framesPerSecond)), this);
+        lastFrameTime = System.nanoTime();
+        timer.start();
+    }
+
+    /**
+     * The play button pauses or carries on playing. Each timer event moves the playback position on
+     * by the time since the last one at the chosen speed, and shows the frame it gets to.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if (e.getSource().equals(playButton)) {
+            playing = !playing;
+            playButton.setText(playing ? "Pause" : "Play");
+            return;
+        }
+        long now = System.nanoTime();
+        double seconds = (now - lastFrameTime) / 1e9;
+        lastFrameTime = now;
+        int last = reader.getFrameCount() - 1;
+        if (!playing || shown >= last) {
+            return;
+        }
+        int speed = SPEEDS[speedBox.getSelectedIndex()];
+        if (speed == MAX_SPEED) {
+            // Decode frame after frame until this repaint's budget is used up
+            int frame = shown;
+            while (frame < last && System.nanoTime() - now < MAX_SPEED_BUDGET) {
+                reader.seek(++frame, decoder);
+            }
+            position = frame;
+        } else {
+            position = Math.min(last, position + speed * seconds);
+        }
+        show((int) position);
+    }
+
+    /**
+     * Decodes a frame, hands it to the panel and updates the slider and label
+     */
+    private void show(int frame) {
+        if (frame != shown) {
+            reader.seek(frame, decoder);
+            shown = frame;
+        }
+        drawPanel.getSnapshots().publish(decoder);
+        slider.setValue(frame);
+        tickLabel.setText(String.format("tick %d  humans %d  zombies %d", decoder.getTick(),
+                decoder.getHumanCount(), decoder.getZombieCount()));
+        drawPanel.repaint();
+    }
+
+    /**
+     * Decodes every frame of a recording as fast as possible without drawing anything, and prints how
+     * fast that was and how the run ended
+     * @param file the recording
+     */
+    public static void replayHeadless(Path file) {
+        try (TrajectoryReader reader = new TrajectoryReader(file)) {
+            FrameDecoder decoder = new FrameDecoder();
+            int frames = reader.getFrameCount();
+            long agentFrames = 0;
+            long start = System.nanoTime();
+            for (int f = 0; f < frames; f++) {
+                reader.seek(f, decoder);
+                agentFrames += decoder.size();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Replayed %d frames (ticks %d to %d) in %.3f s: %.0f frames/s, %.0f agent-frames/s (humans=%d zombies=%d)%n",
+                    frames, reader.getTick(0), reader.getTick(frames - 1), seconds, frames / seconds,
+                    agentFrames / seconds, decoder.getHumanCount(), decoder.getZombieCount());
+        }
+    }
+
+    /**
+     * Opens a window that plays a recording
+     * @param file the recording
+     * @param framesPerSecond how many times to repaint each second
+     * @param raster true to draw with the RasterRenderer, false to draw each agent with Java2D
+     */
+    public static void open(Path file, int framesPerSecond, boolean raster) {
+        TrajectoryReader reader = new TrajectoryReader(file);
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Zombie Simulator replay: " + file.getFileName());
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.getContentPane().add(new ReplayViewer(reader, framesPerSecond, raster));
+            frame.pack();
+            frame.setVisible(true);
+        });
+    }
+}
@@ -0,0 +1,105 @@
+package ZombieSimulator;
+
+import java.util.Arrays;
+
+/**
+ *
+ * This class keeps the most recent samples of a measurement (for example how long each tick took,
+ * in nanoseconds) in a fixed size ring, and works out the mean, maximum and percentiles over them.
+ * Recording a sample is just an array write, so it can be done every tick. Sorting only happens
+ * when a percentile is asked for.
+ *
+ * Samples are recorded by one thread. Reading from another thread gives an approximate answer,
+ * which is fine for reporting.
+ */
+public class RollingStats {
+    private final long[] samples;
+    private final long[] sorted;
+    private long count = 0;
+
+    /**
+     * Creates an empty ring
+     * @param window number of most recent samples to keep
+     */
+    public RollingStats(int window) {
+        this.samples = new long[window];
+        this.sorted = new long[window];
+    }
+
+    /**
+     * Records a sample, replacing the oldest one once the ring is full
+     * @param value the sample
+     */
+    public void record(long value) {
+        samples[(int) (count % samples.length)] = value;
+        count++;
+    }
+
+    /**
+     * Returns the value below which the given fraction of the kept samples fall
+     * @param fraction between 0 and 1, for example 0.99 for the 99th percentile
+     * @return the percentile, or 0 if there are no samples
+     */
+    public synchronized long percentile(double fraction) {
+        int n = size();
+        if (n == 0) {
+            return 0;
+        }
+        System.arraycopy(samples, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        int index = (int) Math.ceil(fraction * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, index))];
+    }
+
+    /**
+     * Returns the mean of the kept samples
+     * @return mean, or 0 if there are no samples
+     */
+    public double mean() {
+        int n = size();
+        if (n == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += samples[i];
+        }
+        return (double) sum / n;
+    }
+
+    /**
+     * Returns the largest of the kept samples
+     * @return maximum, or 0 if there are no samples
+     */
+    public long max() {
+        long max = 0;
+        for (int i = 0, n = size(); i < n; i++) {
+            max = Math.max(max, samples[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the most recently recorded sample
+     * @return last sample, or 0 if there are no samples
+     */
+    public long last() {
+        return count == 0 ? 0 : samples[(int) ((count - 1) % samples.length)];
+    }
+
+    /**
+     * Returns the number of samples kept (at most the window size)
+     * @return number of kept samples
+     */
+    public int size() {
+        return (int) Math.min(count, samples.length);
+    }
+
+    /**
+     * Returns the number of samples ever recorded
+     * @return total number of samples
+     */
+    public long getCount() {
+        return this.count;
+    }
+}
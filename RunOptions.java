@@ -0,0 +1,410 @@
+package ZombieSimulator;
+
+/**
+ *
+ * This class holds the options of a run, headless or with a window, in one process or split over
+ * shards: the world to start with, how long and how fast to run it and on how many threads, how to
+ * show it, and what to do with every tick besides simulating it (print the kills, checkpoint it,
+ * record it, stream it). MainGUI fills one in from the command line and hands it to
+ * SimulationEngine.runHeadless(), ShardCoordinator or its own window. Every option that is not
+ * set keeps the default the command line documents.
+ */
+public class RunOptions {
+    private int width = 500;
+    private int height = 500;
+    private int humans = 10000;
+    private int zombies = 10;
+    private long ticks = 1000;
+    private long seed = 1;
+    private int threads = 1;
+    private String agentThreads = null;
+    private int killLogEvery = 1;
+    private String worldFile = null;
+    private int checkpointEvery = 1000;
+    private String record = null;
+    private int keyframeEvery = 250;
+    private int flowFieldEvery = 0;
+    private Scenario scenario = null;
+    private FrameServer server = null;
+    private ObstacleMap obstacles = null;
+    private int ticksPerSecond = SimulationEngine.DEFAULT_TICKS_PER_SECOND;
+    private int framesPerSecond = 60;
+    private boolean raster = true;
+    private boolean hud = false;
+    private int shards = 1;
+    private double halo = ShardCoordinator.DEFAULT_HALO;
+
+    // Getters
+
+    /**
+     * Returns the width of the world a new run starts with
+     * @return width of the world
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Returns the height of the world a new run starts with
+     * @return height of the world
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Returns how many humans a new run starts with
+     * @return number of humans
+     */
+    public int getHumans() {
+        return this.humans;
+    }
+
+    /**
+     * Returns how many zombies a new run starts with
+     * @return number of zombies
+     */
+    public int getZombies() {
+        return this.zombies;
+    }
+
+    /**
+     * Returns how many ticks a headless run lasts
+     * @return number of ticks to run
+     */
+    public long getTicks() {
+        return this.ticks;
+    }
+
+    /**
+     * Returns the seed used to place the agents and for their random choices
+     * @return the seed
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Returns how many threads run each tick (of each worker, when sharded)
+     * @return number of threads
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Returns the kind of thread every agent gets to itself, if any (see AgentThreads)
+     * @return "virtual" or "platform", or null to run the agents in ticks
+     */
+    public String getAgentThreads() {
+        return this.agentThreads;
+    }
+
+    /**
+     * Returns how many kills go by for each one that is printed
+     * @return print one kill out of this many, or 0 to print no kills
+     */
+    public int getKillLogEvery() {
+        return this.killLogEvery;
+    }
+
+    /**
+     * Returns the WorldFile the run resumes from and checkpoints to
+     * @return path of the file, or null
+     */
+    public String getWorldFile() {
+        return this.worldFile;
+    }
+
+    /**
+     * Returns how often the world is checkpointed to the world file as well as at the end
+     * @return ticks between checkpoints, or 0 for only at the end
+     */
+    public int getCheckpointEvery() {
+        return this.checkpointEvery;
+    }
+
+    /**
+     * Returns the TrajectoryLog the run is recorded to
+     * @return path of the log, or null
+     */
+    public String getRecord() {
+        return this.record;
+    }
+
+    /**
+     * Returns how many frames of a recording or stream come between keyframes
+     * @return frames between keyframes
+     */
+    public int getKeyframeEvery() {
+        return this.keyframeEvery;
+    }
+
+    /**
+     * Returns how often the pursuit and threat FlowFields are rebuilt
+     * @return ticks between rebuilds, or 0 for agents to search for their nearest enemy instead
+     */
+    public int getFlowFieldEvery() {
+        return this.flowFieldEvery;
+    }
+
+    /**
+     * Returns the Scenario a new run is seeded from, whose size and seed are used instead of
+     * width, height and seed
+     * @return the scenario, or null to place humans and zombies at random
+     */
+    public Scenario getScenario() {
+        return this.scenario;
+    }
+
+    /**
+     * Returns the FrameServer every tick is streamed to. It is closed when a headless run ends
+     * @return the server, or null
+     */
+    public FrameServer getServer() {
+        return this.server;
+    }
+
+    /**
+     * Returns the walls in the world
+     * @return the ObstacleMap, or null for an open world
+     */
+    public ObstacleMap getObstacles() {
+        return this.obstacles;
+    }
+
+    /**
+     * Returns how many ticks a run with a window runs each second
+     * @return ticks per second, or SimulationEngine.AS_FAST_AS_POSSIBLE
+     */
+    public int getTicksPerSecond() {
+        return this.ticksPerSecond;
+    }
+
+    /**
+     * Returns how many times a second the window is repainted
+     * @return frames per second
+     */
+    public int getFramesPerSecond() {
+        return this.framesPerSecond;
+    }
+
+    /**
+     * Returns whether the window draws with the RasterRenderer
+     * @return true for the RasterRenderer, false to draw each agent with Java2D
+     */
+    public boolean isRaster() {
+        return this.raster;
+    }
+
+    /**
+     * Returns whether the window shows the metrics HUD from the start
+     * @return true to show the HUD
+     */
+    public boolean isHud() {
+        return this.hud;
+    }
+
+    /**
+     * Returns how many regions (and worker processes) the world is split into
+     * @return number of shards, 1 to run everything in this process
+     */
+    public int getShards() {
+        return this.shards;
+    }
+
+    /**
+     * Returns how far outside its region each shard worker can see
+     * @return the halo width
+     */
+    public double getHalo() {
+        return this.halo;
+    }
+
+    // Setters
+
+    /**
+     * Sets the width of the world a new run starts with
+     * @param width width of the world
+     */
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * Sets the height of the world a new run starts with
+     * @param height height of the world
+     */
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    /**
+     * Sets how many humans a new run starts with
+     * @param humans number of humans
+     */
+    public void setHumans(int humans) {
+        this.humans = humans;
+    }
+
+    /**
+     * Sets how many zombies a new run starts with
+     * @param zombies number of zombies
+     */
+    public void setZombies(int zombies) {
+        this.zombies = zombies;
+    }
+
+    /**
+     * Sets how many ticks a headless run lasts
+     * @param ticks number of ticks to run
+     */
+    public void setTicks(long ticks) {
+        this.ticks = ticks;
+    }
+
+    /**
+     * Sets the seed used to place the agents and for their random choices
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets how many threads run each tick (of each worker, when sharded)
+     * @param threads number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the kind of thread every agent gets to itself (see AgentThreads)
+     * @param agentThreads "virtual" or "platform", or null to run the agents in ticks
+     */
+    public void setAgentThreads(String agentThreads) {
+        this.agentThreads = agentThreads;
+    }
+
+    /**
+     * Sets how many kills go by for each one that is printed
+     * @param killLogEvery print one kill out of this many, or 0 to print no kills
+     */
+    public void setKillLogEvery(int killLogEvery) {
+        this.killLogEvery = killLogEvery;
+    }
+
+    /**
+     * Sets the WorldFile the run resumes from and checkpoints to
+     * @param worldFile path of the file, or null
+     */
+    public void setWorldFile(String worldFile) {
+        this.worldFile = worldFile;
+    }
+
+    /**
+     * Sets how often the world is checkpointed to the world file as well as at the end
+     * @param checkpointEvery ticks between checkpoints, or 0 for only at the end
+     */
+    public void setCheckpointEvery(int checkpointEvery) {
+        this.checkpointEvery = checkpointEvery;
+    }
+
+    /**
+     * Sets the TrajectoryLog the run is recorded to
+     * @param record path of the log, or null
+     */
+    public void setRecord(String record) {
+        this.record = record;
+    }
+
+    /**
+     * Sets how many frames of a recording or stream come between keyframes
+     * @param keyframeEvery frames between keyframes
+     */
+    public void setKeyframeEvery(int keyframeEvery) {
+        this.keyframeEvery = keyframeEvery;
+    }
+
+    /**
+     * Sets how often the pursuit and threat FlowFields are rebuilt
+     * @param flowFieldEvery ticks between rebuilds, or 0 for agents to search for their nearest enemy instead
+     */
+    public void setFlowFieldEvery(int flowFieldEvery) {
+        this.flowFieldEvery = flowFieldEvery;
+    }
+
+    /**
+     * Sets the Scenario a new run is seeded from, whose size and seed are used instead of width,
+     * height and seed
+     * @param scenario the scenario, or null to place humans and zombies at random
+     */
+    public void setScenario(Scenario scenario) {
+        this.scenario = scenario;
+    }
+
+    /**
+     * Sets the FrameServer every tick is streamed to
+     * @param server the server, or null
+     */
+    public void setServer(FrameServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Sets the walls in the world
+     * @param obstacles the ObstacleMap, or null for an open world
+     */
+    public void setObstacles(ObstacleMap obstacles) {
+        this.obstacles = obstacles;
+    }
+
+    /**
+     * Sets how many ticks a run with a window runs each second
+     * @param ticksPerSecond ticks per second, or SimulationEngine.AS_FAST_AS_POSSIBLE
+     */
+    public void setTicksPerSecond(int ticksPerSecond) {
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    /**
+     * Sets how many times a second the window is repainted
+     * @param framesPerSecond frames per second
+     */
+    public void setFramesPerSecond(int framesPerSecond) {
+        this.framesPerSecond = framesPerSecond;
+    }
+
+    /**
+     * Sets whether the window draws with the RasterRenderer
+     * @param raster true for the RasterRenderer, false to draw each agent with Java2D
+     */
+    public void setRaster(boolean raster) {
+        this.raster = raster;
+    }
+
+    /**
+     * Sets whether the window shows the metrics HUD from the start
+     * @param hud true to show the HUD
+     */
+    public void setHud(boolean hud) {
+        this.hud = hud;
+    }
+
+    /**
+     * Sets how many regions (and worker processes) the world is split into
+     * @param shards number of shards, 1 to run everything in this process
+     */
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Sets how far outside its region each shard worker can see
+     * @param halo the halo width
+     */
+    public void setHalo(double halo) {
+        this.halo = halo;
+    }
+}
@@ -0,0 +1,41 @@
+package ZombieSimulator;
+
+/**
+ *
+ * This class is the plain Java DistanceKernel, one candidate at a time. It runs on every JVM and
+ * is the reference that other kernels must match exactly.
+ */
+public class ScalarDistanceKernel implements DistanceKernel {
+
+    @Override
+    public int nearest(double[] xs, double[] ys, int[] ids, int from, int to, double x, double y) {
+        int best = -1;
+        double bestDist2 = Double.POSITIVE_INFINITY;
+        for (int k = from; k < to; k++) {
+            double ddx = xs[k] - x, ddy = ys[k] - y;
+            double dist2 = ddx * ddx + ddy * ddy;
+            if (best < 0 || dist2 < bestDist2 || (dist2 == bestDist2 && ids[k] < ids[best])) {
+                best = k;
+                bestDist2 = dist2;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public int firstWithin(double[] xs, double[] ys, int[] ids, int from, int to, double x, double y, double radius2) {
+        int first = -1;
+        for (int k = from; k < to; k++) {
+            double ddx = xs[k] - x, ddy = ys[k] - y;
+            if (ddx * ddx + ddy * ddy <= radius2 && (first < 0 || ids[k] < ids[first])) {
+                first = k;
+            }
+        }
+        return first;
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,266 @@
+package ZombieSimulator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ *
+ * This class describes how a world starts: its size, seed and agent parameters, and groups of humans
+ * and zombies, each with a count and a way of spreading them over the world. A scenario is written as
+ * a Properties file (like the BatchRunner's config) and loaded with MainGUI --scenario. For example:
+ *
+ *   width=20000
+ *   height=20000
+ *   seed=7
+ *   speedRatio=0.5
+ *   groups=city,suburbs,outbreak
+ *   city.state=human
+ *   city.count=600000
+ *   city.distribution=clusters
+ *   city.clusters=40
+ *   city.radius=300
+ *   suburbs.state=human
+ *   suburbs.count=400000
+ *   outbreak.state=zombie
+ *   outbreak.count=500
+ *   outbreak.distribution=disc
+ *   outbreak.centre=10000,10000
+ *   outbreak.radius=200
+ *
+ * The distributions are:
+ * - uniform (the default): anywhere in the group's area, which is left,top,right,bottom and
+ *   defaults to the whole world less 20 on each side, like SimulationEngine.populate()
+ * - disc: anywhere within radius of the centre (the centre defaults to the middle of the world)
+ * - gaussian: a normal spread around the centre, with radius as the standard deviation
+ * - clusters: a normal spread around a number of centres picked at random in the area, with each
+ *   agent going to a random one of them
+ * Agents that would land outside the world are moved onto its edge.
+ *
+ * The groups are seeded in the order they are listed, a chunk of CHUNK locations at a time, and each
+ * chunk goes into the Population with World.addAgents() in one bulk copy per column, so a world of a
+ * million agents is seeded in well under a second without any per-agent objects. The same scenario
+ * always gives the same world.
+ */
+public class Scenario {
+    // Number of locations worked out before they are handed to the World in one go
+    static final int CHUNK = 1 << 16;
+
+    private final int width, height;
+    private final long seed;
+    private final AgentParameters parameters;
+    private final List<Group> groups = new ArrayList<>();
+
+    /**
+     * Creates a scenario from the properties of a scenario file. Properties that are left out get
+     * the same defaults as the command line.
+     * @param config the scenario
+     */
+    public Scenario(Properties config) {
+        this.width = Integer.parseInt(config.getProperty("width", "500"));
+        this.height = Integer.parseInt(config.getProperty("height", "500"));
+        this.seed = Long.parseLong(config.getProperty("seed", "1"));
+        String sight = config.getProperty("sightDistance", "quarter").trim();
+        this.parameters = new AgentParameters(
+                Double.parseDouble(config.getProperty("humanSpeed", String.valueOf(AgentParameters.DEFAULT.getHumanSpeed()))),
+                Double.parseDouble(config.getProperty("speedRatio", String.valueOf(AgentParameters.DEFAULT.getSpeedRatio()))),
+                sight.equals("quarter") ? AgentParameters.QUARTER_OF_WORLD : Integer.parseInt(sight),
+                Double.parseDouble(config.getProperty("size", String.valueOf(AgentParameters.DEFAULT.getSize()))));
+        if (width < 40 || height < 40) {
+            throw new IllegalArgumentException("A scenario's world must be at least 40x40: " + width + "x" + height);
+        }
+        for (String name: config.getProperty("groups", "").split(",")) {
+            if (!name.isBlank()) {
+                groups.add(new Group(name.trim(), config));
+            }
+        }
+    }
+
+    /**
+     * Reads a scenario file
+     * @param file path of the Properties file
+     * @return the scenario it describes
+     */
+    public static Scenario fromFile(Path file) {
+        Properties config = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            config.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read scenario " + file, e);
+        }
+        return new Scenario(config);
+    }
+
+    /**
+     * Creates a new World of the scenario's size, seed and parameters and seeds every group into it
+     * @return the World
+     */
+    public World createWorld() {
+        World world = new World(width, height, seed, parameters);
+        seed(world);
+        return world;
+    }
+
+    /**
+     * Adds every group of the scenario to a world, one chunk of locations at a time
+     * @param world the World to add the agents to
+     */
+    public void seed(World world) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] xs = new double[CHUNK], ys = new double[CHUNK];
+        double maxX = world.getWidth() - parameters.getSize(), maxY = world.getHeight() - parameters.getSize();
+        for (Group group: groups) {
+            group.pickCentres(random);
+            for (int added = 0; added < group.count; ) {
+                int chunk = Math.min(CHUNK, group.count - added);
+                for (int k = 0; k < chunk; k++) {
+                    group.place(random, xs, ys, k);
+                    xs[k] = Math.max(0, Math.min(maxX, xs[k]));
+                    ys[k] = Math.max(0, Math.min(maxY, ys[k]));
+                }
+                world.addAgents(group.state, xs, ys, chunk);
+                added += chunk;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of agents the scenario seeds
+     * @return humans plus zombies in every group
+     */
+    public long getAgentCount() {
+        long count = 0;
+        for (Group group: groups) {
+            count += group.count;
+        }
+        return count;
+    }
+
+    // Getters
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    public AgentParameters getParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * One group of agents of the same state spread over the world in the same way, read from the
+     * properties that start with the group's name
+     */
+    private final class Group {
+        final String name;
+        final byte state;
+        final int count;
+        final String distribution;
+        final double left, top, right, bottom;
+        final double centreX, centreY, radius;
+        final int clusters;
+        // Centres of the clusters, picked at random when the group is seeded
+        private final double[] clusterX, clusterY;
+
+        Group(String name, Properties config) {
+            this.name = name;
+            String state = property(config, "state", "human");
+            if (!state.equals("human") && !state.equals("zombie")) {
+                throw new IllegalArgumentException(name + ".state must be human or zombie: " + state);
+            }
+            this.state = state.equals("human") ? Population.HUMAN : Population.ZOMBIE;
+            this.count = Integer.parseInt(property(config, "count", "0"));
+            this.distribution = property(config, "distribution", "uniform");
+            double[] area = numbers(property(config, "area", "20,20," + (width - 20) + "," + (height - 20)), 4, "area");
+            this.left = area[0];
+            this.top = area[1];
+            this.right = area[2];
+            this.bottom = area[3];
+            double[] centre = numbers(property(config, "centre", (width / 2.0) + "," + (height / 2.0)), 2, "centre");
+            this.centreX = centre[0];
+            this.centreY = centre[1];
+            this.radius = Double.parseDouble(property(config, "radius", "100"));
+            this.clusters = Integer.parseInt(property(config, "clusters", "10"));
+            if (count < 0 || radius < 0 || clusters < 1 || right < left || bottom < top) {
+                throw new IllegalArgumentException("Invalid scenario group " + name + ": count=" + count
+                        + " radius=" + radius + " clusters=" + clusters + " area=" + left + "," + top + "," + right + "," + bottom);
+            }
+            switch (distribution) {
+                case "uniform": case "disc": case "gaussian": case "clusters": break;
+                default: throw new IllegalArgumentException("Unknown distribution for " + name + ": " + distribution);
+            }
+            this.clusterX = new double[clusters];
+            this.clusterY = new double[clusters];
+        }
+
+        private String property(Properties config, String key, String defaultValue) {
+            return config.getProperty(name + "." + key, defaultValue).trim();
+        }
+
+        private double[] numbers(String list, int expected, String key) {
+            String[] values = list.split(",");
+            if (values.length != expected) {
+                throw new IllegalArgumentException(name + "." + key + " needs " + expected + " numbers: " + list);
+            }
+            double[] parsed = new double[expected];
+            for (int i = 0; i < expected; i++) {
+                parsed[i] = Double.parseDouble(values[i].trim());
+            }
+            return parsed;
+        }
+
+        /**
+         * Picks the centres of the clusters distribution anywhere in the area
+         */
+        void pickCentres(SplittableRandom random) {
+            if (!distribution.equals("clusters")) {
+                return;
+            }
+            for (int c = 0; c < clusters; c++) {
+                clusterX[c] = left + random.nextDouble() * (right - left);
+                clusterY[c] = top + random.nextDouble() * (bottom - top);
+            }
+        }
+
+        /**
+         * Works out the location of one agent of the group into xs[k] and ys[k]
+         */
+        void place(SplittableRandom random, double[] xs, double[] ys, int k) {
+            switch (distribution) {
+                case "disc": {
+                    double r = radius * Math.sqrt(random.nextDouble());
+                    double angle = 2 * Math.PI * random.nextDouble();
+                    xs[k] = centreX + r * Math.cos(angle);
+                    ys[k] = centreY + r * Math.sin(angle);
+                    break;
+                }
+                case "gaussian":
+                    xs[k] = centreX + random.nextGaussian() * radius;
+                    ys[k] = centreY + random.nextGaussian() * radius;
+                    break;
+                case "clusters": {
+                    int c = random.nextInt(clusters);
+                    xs[k] = clusterX[c] + random.nextGaussian() * radius;
+                    ys[k] = clusterY[c] + random.nextGaussian() * radius;
+                    break;
+                }
+                default:
+                    xs[k] = left + random.nextDouble() * (right - left);
+                    ys[k] = top + random.nextDouble() * (bottom - top);
+            }
+        }
+    }
+}
@@ -0,0 +1,544 @@
+package ZombieSimulator;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ *
+ * This class runs a simulation split over several processes. The world is cut into rectangular
+ * regions by a ShardRegions, and the coordinator starts one ShardWorker process (a JVM of its own,
+ * with its own heap and threads) for each region and talks to it over a socket on this machine.
+ * Every message goes through the coordinator, which keeps the workers in step, one tick at a time:
+ * - it sends each worker the agents that moved into its region (migrants) and copies of the
+ *   neighbours' agents within the halo of its border (ghosts), and every worker plans its tick
+ * - it passes the ghost humans that a worker's zombies infected on to the workers that own them, and
+ *   every worker commits its tick
+ * - it collects the agents that left each region and the agents near each border, to route to the
+ *   right workers at the start of the next tick
+ * The workers do all of the simulating in parallel, the coordinator only copies bytes between them.
+ *
+ * For the GUI, each worker also sends a keyframe of its region (see FrameEncoder), and the
+ * coordinator publishes the decoded regions together as one WorldSnapshot, so a sharded run is drawn
+ * by the same DrawPanel as a run in one process.
+ *
+ * A sharded run does not give the same result as the same world run in one process. Agents only see
+ * across a border as far as the halo, so a zombie far from a border chases the nearest human in its
+ * own region, and a push by a zombie in another region is not passed on. Two runs with the same
+ * seed and the same number of shards do give the same result.
+ */
+public class ShardCoordinator implements Closeable {
+    // How far a ghost zone reaches into each neighbour by default
+    public static final double DEFAULT_HALO = 100;
+    // How long to wait for the worker processes to start and connect
+    private static final int CONNECT_TIMEOUT_MILLIS = 60_000;
+    // How long a connection gets to send its HELLO before it is dropped
+    private static final int HELLO_TIMEOUT_MILLIS = 10_000;
+    // JVM options that would clash if every worker had them too: debugger and JMX ports, agents,
+    // and flight recordings or logs written to one file
+    private static final List<String> NOT_FOR_WORKERS = List.of("-agentlib:", "-agentpath:", "-javaagent:",
+            "-Xrunjdwp", "-Xdebug", "-XX:StartFlightRecording", "-XX:FlightRecorderOptions", "-Xlog:",
+            "-Xloggc:", "-Dcom.sun.management.jmxremote");
+    // Largest starting size of the window, bigger worlds are zoomed out to fit
+    private static final int MAX_WINDOW = 800;
+
+    private final ShardRegions regions;
+    private final double halo;
+    private final ShardLink[] links;
+    private final List<Process> processes = new ArrayList<>();
+    // What to send each worker at the start of the next tick
+    private final Outbox[] migrants, ghosts, infections;
+    private final FrameDecoder[] frames;
+    private final int[] humans, zombies;
+    // Agents that left a region in the last tick and join the next one at the start of the next tick
+    private int movingHumans, movingZombies;
+    private final long[] busyNanos;
+    // Read by the GUI without waiting for the tick that is running
+    private volatile int humanCount, zombieCount;
+    private volatile long tickCount = 0;
+    private volatile long migrated = 0, ghostsSent = 0;
+    private boolean closed = false;
+
+    /**
+     * Starts a worker process for each region and waits for them all to connect. The world starts
+     * empty, hand it agents with populate().
+     * @param shards number of regions (and worker processes)
+     * @param width width of the world
+     * @param height height of the world
+     * @param seed seed for the workers' Worlds
+     * @param parameters speeds, sight distance and size of the agents
+     * @param halo how far outside its region each worker can see
+     * @param threads number of threads each worker uses to run its ticks
+     * @param flowFieldEvery rebuild each worker's flow fields every this many ticks, or 0 for none
+     */
+    public ShardCoordinator(int shards, int width, int height, long seed, AgentParameters parameters, double halo,
+            int threads, int flowFieldEvery) {
+        if (halo < 0) {
+            throw new IllegalArgumentException("halo must be >= 0: " + halo);
+        }
+        this.regions = new ShardRegions(shards, width, height);
+        this.halo = halo;
+        this.links = new ShardLink[shards];
+        this.migrants = new Outbox[shards];
+        this.ghosts = new Outbox[shards];
+        this.infections = new Outbox[shards];
+        this.frames = new FrameDecoder[shards];
+        this.humans = new int[shards];
+        this.zombies = new int[shards];
+        this.busyNanos = new long[shards];
+        for (int s = 0; s < shards; s++) {
+            migrants[s] = new Outbox();
+            ghosts[s] = new Outbox();
+            infections[s] = new Outbox();
+            frames[s] = new FrameDecoder();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.socket().setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            int port = server.socket().getLocalPort();
+            // Only the processes started here know the token, so no other program on this machine
+            // can take a region
+            long token = new SecureRandom().nextLong();
+            for (int s = 0; s < shards; s++) {
+                processes.add(startWorker(port, token));
+            }
+            // Workers are given their regions in the order they connect
+            for (int s = 0; s < shards; s++) {
+                links[s] = new ShardLink(acceptWorker(server, token));
+                links[s].begin(ShardLink.SETUP);
+                ByteBuffer out = links[s].room(128);
+                out.putInt(s).putInt(shards).putInt(width).putInt(height).putLong(seed).putDouble(halo);
+                out.putDouble(parameters.getHumanSpeed()).putDouble(parameters.getSpeedRatio());
+                out.putInt(parameters.getSightDistance()).putDouble(parameters.getSize());
+                out.putInt(threads).putInt(flowFieldEvery);
+                links[s].send();
+            }
+        } catch (SocketTimeoutException e) {
+            close();
+            throw new IllegalStateException("Shard workers did not connect within " + CONNECT_TIMEOUT_MILLIS + " ms", e);
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException("Could not start shard workers", e);
+        }
+    }
+
+    /**
+     * Starts a JVM that runs MainGUI --shard-worker, with the same Java, class path and JVM options
+     * (heap size, added modules) as this one, apart from the ones that would clash between processes
+     */
+    private static Process startWorker(int port, long token) throws IOException {
+        String java = ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(workerOptions(ManagementFactory.getRuntimeMXBean().getInputArguments()));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MainGUI.class.getName());
+        command.add("--shard-worker");
+        command.add(String.valueOf(port));
+        command.add("--shard-token");
+        command.add(Long.toHexString(token));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Returns the JVM options a worker is started with: this JVM's, without NOT_FOR_WORKERS
+     * @param options the options this JVM was started with
+     * @return the options to pass on
+     */
+    static List<String> workerOptions(List<String> options) {
+        List<String> passed = new ArrayList<>();
+        for (String option: options) {
+            if (NOT_FOR_WORKERS.stream().noneMatch(option::startsWith)) {
+                passed.add(option);
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Waits for a worker to connect and send a HELLO with the token. Connections that send anything
+     * else, or nothing within HELLO_TIMEOUT_MILLIS, are closed and the wait goes on.
+     * @param server the socket the workers connect to
+     * @param token the token every worker was started with
+     * @return the worker's socket, in blocking mode, with its HELLO read
+     * @throws SocketTimeoutException if no worker connects within the server's timeout
+     */
+    static SocketChannel acceptWorker(ServerSocketChannel server, long token) throws IOException {
+        while (true) {
+            Socket socket = server.socket().accept();
+            try {
+                socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+                ByteBuffer hello = ByteBuffer.wrap(socket.getInputStream().readNBytes(ShardLink.HELLO_BYTES))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (hello.limit() == ShardLink.HELLO_BYTES && hello.getInt(0) == ShardLink.HELLO_BYTES
+                        && hello.get(4) == ShardLink.HELLO && hello.getLong(5) == token) {
+                    socket.setSoTimeout(0);
+                    return socket.getChannel();
+                }
+            } catch (SocketTimeoutException e) {
+                // Said nothing in time, so it is not one of the workers
+            }
+            socket.close();
+        }
+    }
+
+    /**
+     * Hands every agent of a world to the worker whose region it is in, with everything about it
+     * (direction, step counters, random stream), so it carries on from the first tick exactly as it
+     * would have in the world. Agents keep their order within each region.
+     * @param world the World holding the agents
+     */
+    public synchronized void populate(World world) {
+        synchronized (world) {
+            Population population = world.getPopulation();
+            for (int i = 0, n = population.size(); i < n; i++) {
+                Outbox outbox = migrants[regions.shardAt(population.getX(i), population.getY(i))];
+                ShardLink.putAgent(outbox.add(ShardLink.AGENT_BYTES), population, i);
+            }
+            humanCount += population.getHumanCount();
+            zombieCount += population.getZombieCount();
+        }
+    }
+
+    /**
+     * Runs one tick on every worker and waits for them all to finish it
+     * @param snapshot true to have every worker send a keyframe of its region, which can then be
+     *                 published with publishTo()
+     */
+    public synchronized void step(boolean snapshot) {
+        if (closed) {
+            throw new IllegalStateException("The shard coordinator is closed");
+        }
+        int shards = links.length;
+        // STEP: byte snapshot, int migrants, migrants x agent, int ghosts, ghosts x ghost
+        for (int s = 0; s < shards; s++) {
+            ShardLink link = links[s];
+            link.begin(ShardLink.STEP);
+            ByteBuffer out = link.room(1 + 4 + 4 + migrants[s].bytes() + ghosts[s].bytes());
+            out.put((byte) (snapshot ? 1 : 0));
+            migrants[s].writeTo(out);
+            ghosts[s].writeTo(out);
+            link.send();
+            migrated += migrants[s].count;
+            ghostsSent += ghosts[s].count;
+            migrants[s].clear();
+            ghosts[s].clear();
+        }
+        // GHOSTS_INFECTED: int count, count x (int shard, int index), passed on to the owners
+        for (int s = 0; s < shards; s++) {
+            ByteBuffer in = links[s].receive(ShardLink.GHOSTS_INFECTED);
+            for (int k = 0, count = in.getInt(); k < count; k++) {
+                int owner = in.getInt();
+                infections[owner].add(4).putInt(in.getInt());
+            }
+        }
+        // INFECT: int count, count x int index
+        for (int s = 0; s < shards; s++) {
+            ShardLink link = links[s];
+            link.begin(ShardLink.INFECT);
+            infections[s].writeTo(link.room(4 + infections[s].bytes()));
+            link.send();
+            infections[s].clear();
+        }
+        movingHumans = 0;
+        movingZombies = 0;
+        int humanTotal = 0, zombieTotal = 0;
+        for (int s = 0; s < shards; s++) {
+            receiveDone(s);
+            humanTotal += humans[s];
+            zombieTotal += zombies[s];
+        }
+        humanCount = humanTotal + movingHumans;
+        zombieCount = zombieTotal + movingZombies;
+        tickCount++;
+    }
+
+    /**
+     * Reads a worker's DONE message (see ShardWorker.sendDone()), and routes its leavers to the
+     * regions they moved into and its border agents, as ghosts, to every region whose halo they are in
+     */
+    private void receiveDone(int shard) {
+        ByteBuffer in = links[shard].receive(ShardLink.DONE);
+        humans[shard] = in.getInt();
+        zombies[shard] = in.getInt();
+        busyNanos[shard] = in.getLong();
+        for (int k = 0, leavers = in.getInt(); k < leavers; k++) {
+            int at = in.position();
+            int to = regions.shardAt(in.getDouble(at), in.getDouble(at + 8));
+            if (in.get(at + ShardLink.AGENT_BYTES - 1) == Population.HUMAN) {
+                movingHumans++;
+            } else {
+                movingZombies++;
+            }
+            ByteBuffer out = migrants[to].add(ShardLink.AGENT_BYTES);
+            out.put(out.position(), in, at, ShardLink.AGENT_BYTES);
+            out.position(out.position() + ShardLink.AGENT_BYTES);
+            in.position(at + ShardLink.AGENT_BYTES);
+        }
+        for (int k = 0, border = in.getInt(); k < border; k++) {
+            double x = in.getDouble(), y = in.getDouble();
+            byte state = in.get();
+            int index = in.getInt();
+            for (int s = 0; s < links.length; s++) {
+                if (s != shard && regions.isNear(s, x, y, halo)) {
+                    ghosts[s].add(ShardLink.GHOST_BYTES).putDouble(x).putDouble(y).put(state).putInt(shard).putInt(index);
+                }
+            }
+        }
+        if (in.get() != 0) {
+            in.position(in.position() + frames[shard].decode(in, in.position()));
+        }
+    }
+
+    /**
+     * Publishes the regions sent with the last step(true) as one snapshot of the whole world
+     * @param snapshots the SnapshotBuffer to publish to
+     */
+    public synchronized void publishTo(SnapshotBuffer snapshots) {
+        snapshots.publish(frames);
+    }
+
+    /**
+     * Tells every worker to stop and waits for the processes to end. Closing a coordinator that is
+     * already closed does nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (ShardLink link: links) {
+            if (link != null) {
+                try {
+                    link.sendStop();
+                    link.close();
+                } catch (UncheckedIOException e) {
+                    // The worker has already gone
+                }
+            }
+        }
+        for (Process process: processes) {
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Getters, the counts are as of the end of the last tick
+
+    public int getHumanCount() {
+        return this.humanCount;
+    }
+
+    public int getZombieCount() {
+        return this.zombieCount;
+    }
+
+    public long getTickCount() {
+        return this.tickCount;
+    }
+
+    public long getMigrated() {
+        return this.migrated;
+    }
+
+    public long getGhostsSent() {
+        return this.ghostsSent;
+    }
+
+    public ShardRegions getRegions() {
+        return this.regions;
+    }
+
+    /**
+     * Returns how long each worker spent simulating in the last tick, without the time it waited
+     * for the others
+     * @param shard number of the region
+     * @return busy time in nanoseconds
+     */
+    public synchronized long getBusyNanos(int shard) {
+        return this.busyNanos[shard];
+    }
+
+    /**
+     * Bytes waiting to be sent to one worker in the next message, and how many items they make up
+     */
+    private static final class Outbox {
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN);
+        private int count;
+
+        /**
+         * Makes room for one more item and counts it
+         * @return the buffer to write the item into
+         */
+        ByteBuffer add(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.position() + bytes, buffer.capacity() * 2))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+            count++;
+            return buffer;
+        }
+
+        int bytes() {
+            return buffer.position();
+        }
+
+        /**
+         * Writes the number of items and then the items
+         */
+        void writeTo(ByteBuffer out) {
+            out.putInt(count);
+            out.put(out.position(), buffer, 0, buffer.position());
+            out.position(out.position() + buffer.position());
+        }
+
+        void clear() {
+            buffer.clear();
+            count = 0;
+        }
+    }
+
+    /**
+     * Starts a worker for each region of a world and hands its agents out to them
+     */
+    private static ShardCoordinator create(World world, int shards, double halo, int threads, int flowFieldEvery) {
+        ShardCoordinator coordinator = new ShardCoordinator(shards, world.getWidth(), world.getHeight(),
+                world.getPopulation().getSeed(), world.getParameters(), halo, threads, flowFieldEvery);
+        coordinator.populate(world);
+        return coordinator;
+    }
+
+    /**
+     * Runs a sharded simulation without any GUI and prints how many agent-steps per second it managed,
+     * how many agents moved between regions and how busy the workers were
+     * @param world the World to start from (see SimulationEngine.createWorld()), which is only read
+     * @param options the number of shards, the halo, the ticks to run, the threads each worker uses
+     *                to run its ticks and how often each worker rebuilds its flow fields
+     */
+    public static void runHeadless(World world, RunOptions options) {
+        int shards = options.getShards(), threads = options.getThreads();
+        long ticks = options.getTicks();
+        double halo = options.getHalo();
+        long startUp = System.nanoTime();
+        try (ShardCoordinator coordinator = create(world, shards, halo, threads, options.getFlowFieldEvery())) {
+            System.out.printf("Started %d shard workers (%s regions, halo %.0f) in %.1f ms%n", shards,
+                    coordinator.getRegions(), halo, (System.nanoTime() - startUp) / 1e6);
+            long agentSteps = 0, busiest = 0, busy = 0;
+            long start = System.nanoTime();
+            for (long i = 0; i < ticks; i++) {
+                agentSteps += coordinator.getHumanCount() + coordinator.getZombieCount();
+                coordinator.step(false);
+                long most = 0;
+                for (int s = 0; s < shards; s++) {
+                    most = Math.max(most, coordinator.getBusyNanos(s));
+                    busy += coordinator.getBusyNanos(s);
+                }
+                busiest += most;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%d ticks in %.3f s: %.0f ticks/s, %.0f agent-steps/s (humans=%d zombies=%d shards=%d threads=%d)%n",
+                    ticks, seconds, ticks / seconds, agentSteps / seconds, coordinator.getHumanCount(),
+                    coordinator.getZombieCount(), shards, threads);
+            double perTick = Math.max(1, ticks);
+            System.out.printf("per tick: %.0f migrants, %.0f ghosts, worker busy mean %.3f ms, busiest %.3f ms, tick %.3f ms%n",
+                    coordinator.getMigrated() / perTick, coordinator.getGhostsSent() / perTick,
+                    busy / perTick / shards / 1e6, busiest / perTick / 1e6, seconds * 1e3 / perTick);
+        }
+    }
+
+    /**
+     * Opens a window that shows a sharded simulation. The coordinator runs ticks on its own thread at
+     * the given rate, each worker sends its region after every tick and the merged world is drawn.
+     * Closing the window stops the workers.
+     * @param world the World to start from (see SimulationEngine.createWorld()), which is only read
+     * @param options the number of shards, the halo, the threads each worker uses to run its ticks,
+     *                how often each worker rebuilds its flow fields, the ticks to run each second and
+     *                how to draw them
+     */
+    public static void open(World world, RunOptions options) {
+        int shards = options.getShards(), ticksPerSecond = options.getTicksPerSecond();
+        ShardCoordinator coordinator = create(world, shards, options.getHalo(), options.getThreads(),
+                options.getFlowFieldEvery());
+        int width = world.getWidth(), height = world.getHeight();
+        // An empty World that is never ticked, it only gives the panel the agents' size to draw
+        MainGUI.DrawPanel drawPanel = new MainGUI.DrawPanel(new World(width, height, 0, world.getParameters()));
+        drawPanel.setRasterRendering(options.isRaster());
+        drawPanel.setPreferredSize(new Dimension(Math.min(MAX_WINDOW, width), Math.min(MAX_WINDOW, height)));
+        coordinator.step(true);
+        coordinator.publishTo(drawPanel.getSnapshots());
+        Runtime.getRuntime().addShutdownHook(new Thread(coordinator::close, "shutdown"));
+
+        Thread ticker = new Thread(() -> {
+            long period = ticksPerSecond == SimulationEngine.AS_FAST_AS_POSSIBLE ? 0 : 1_000_000_000L / ticksPerSecond;
+            long nextTick = System.nanoTime();
+            while (true) {
+                synchronized (coordinator) {
+                    if (coordinator.closed) {
+                        return;
+                    }
+                    coordinator.step(true);
+                    coordinator.publishTo(drawPanel.getSnapshots());
+                }
+                nextTick = Math.max(nextTick + period, System.nanoTime() - period);
+                long now;
+                while ((now = System.nanoTime()) < nextTick) {
+                    LockSupport.parkNanos(nextTick - now);
+                }
+            }
+        }, "shard-coordinator");
+        ticker.setDaemon(true);
+
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Zombie Simulator: " + shards + " shards");
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            JPanel panel = new JPanel(new BorderLayout());
+            panel.add(drawPanel, BorderLayout.CENTER);
+            JLabel label = new JLabel();
+            panel.add(label, BorderLayout.SOUTH);
+            new Timer(Math.max(1, 1000 / Math.max(1, options.getFramesPerSecond())), e -> {
+                label.setText(String.format("tick %d  humans %d  zombies %d  %s regions  migrants %d  ghosts %d",
+                        coordinator.getTickCount(), coordinator.getHumanCount(), coordinator.getZombieCount(),
+                        coordinator.getRegions(), coordinator.getMigrated(), coordinator.getGhostsSent()));
+                drawPanel.repaint();
+            }).start();
+            frame.getContentPane().add(panel);
+            frame.pack();
+            frame.setVisible(true);
+            ticker.start();
+        });
+    }
+}
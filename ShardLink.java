@@ -0,0 +1,189 @@
+package ZombieSimulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ *
+ * This class is one end of the socket between the ShardCoordinator and a ShardWorker. Everything
+ * sent between them is a message: an int length (counting itself), a byte type and then whatever
+ * the type holds, little endian like the rest of the simulator's binary formats. Each side writes a
+ * whole message and then blocks reading the next one, so the two always take turns and no message
+ * needs a thread of its own.
+ *
+ * A link keeps one buffer for the message it is writing and one for the message it last read, and
+ * both are reused for every message, so a tick of messages does not allocate once the buffers are
+ * big enough for the largest message.
+ */
+public class ShardLink implements Closeable {
+    // Message types
+    static final byte SETUP = 1, STEP = 2, GHOSTS_INFECTED = 3, INFECT = 4, DONE = 5, STOP = 6, HELLO = 7;
+    // A HELLO message: length, type and the worker's token
+    static final int HELLO_BYTES = 4 + 1 + 8;
+    // An agent that moves to another process: x, y, dx, dy, random, totalSteps, nStepsTaken, state
+    static final int AGENT_BYTES = 8 + 8 + 8 + 8 + 8 + 4 + 4 + 1;
+    // A ghost: x, y, state, the shard that owns it and its index there
+    static final int GHOST_BYTES = 8 + 8 + 1 + 4 + 4;
+
+    private final SocketChannel channel;
+    private ByteBuffer out = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer in = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Creates a link over a connected socket
+     * @param channel the socket, in blocking mode
+     */
+    public ShardLink(SocketChannel channel) {
+        this.channel = channel;
+        try {
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not set up shard link", e);
+        }
+    }
+
+    /**
+     * Starts writing a new message
+     * @param type the message type
+     * @return the buffer to write the message into, valid until the next call to room()
+     */
+    ByteBuffer begin(byte type) {
+        out.clear();
+        out.putInt(0);
+        out.put(type);
+        return out;
+    }
+
+    /**
+     * Makes sure the message being written has room for more bytes. The buffer may be replaced by a
+     * bigger one with the message so far copied across, so always carry on writing into the buffer
+     * this returns.
+     * @param bytes number of bytes about to be written
+     * @return the buffer to carry on writing the message into
+     */
+    ByteBuffer room(long bytes) {
+        long needed = out.position() + bytes;
+        if (needed > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Shard message too large: " + needed + " bytes");
+        }
+        if (needed > out.capacity()) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(needed, out.capacity() + (long) (out.capacity() >> 1)));
+            ByteBuffer bigger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            out.flip();
+            bigger.put(out);
+            out = bigger;
+        }
+        return out;
+    }
+
+    /**
+     * Sends the message that was started with begin()
+     */
+    void send() {
+        out.putInt(0, out.position());
+        out.flip();
+        try {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not send shard message", e);
+        }
+    }
+
+    /**
+     * Writes everything about an agent, so it carries on exactly where it was in another process
+     * @param out buffer with room for AGENT_BYTES
+     * @param population the agent's Population
+     * @param i index of the agent
+     */
+    static void putAgent(ByteBuffer out, Population population, int i) {
+        out.putDouble(population.getX(i)).putDouble(population.getY(i));
+        out.putDouble(population.getDX(i)).putDouble(population.getDY(i));
+        out.putLong(population.getRandom(i));
+        out.putInt(population.getTotalSteps(i)).putInt(population.getStepsTaken(i));
+        out.put(population.getState(i));
+    }
+
+    /**
+     * Reads an agent written by putAgent() and adds it to the end of a Population
+     * @param in buffer positioned at the agent
+     * @param population the Population to add it to
+     * @return index of the agent in the Population
+     */
+    static int getAgent(ByteBuffer in, Population population) {
+        double x = in.getDouble(), y = in.getDouble(), dx = in.getDouble(), dy = in.getDouble();
+        long random = in.getLong();
+        int totalSteps = in.getInt(), stepsTaken = in.getInt();
+        int i = population.add(x, y, in.get());
+        population.setDX(i, dx);
+        population.setDY(i, dy);
+        population.setRandom(i, random);
+        population.setTotalSteps(i, totalSteps);
+        population.setStepsTaken(i, stepsTaken);
+        return i;
+    }
+
+    /**
+     * Waits for the next message, which must be of the given type or STOP
+     * @param type the message type expected
+     * @return the message, positioned just after its type and valid until the next call, or null if
+     *         the other side sent STOP
+     */
+    ByteBuffer receive(byte type) {
+        try {
+            in.clear().limit(4);
+            readFully();
+            int length = in.getInt(0);
+            if (length > in.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(length, in.capacity() + (in.capacity() >> 1)))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                bigger.putInt(length);
+                in = bigger;
+            }
+            in.limit(length);
+            readFully();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not receive shard message", e);
+        }
+        in.flip();
+        in.position(4);
+        byte received = in.get();
+        if (received == STOP) {
+            return null;
+        }
+        if (received != type) {
+            throw new IllegalStateException("Expected shard message " + type + " but got " + received);
+        }
+        return in;
+    }
+
+    private void readFully() throws IOException {
+        while (in.hasRemaining()) {
+            if (channel.read(in) < 0) {
+                throw new IOException("Shard link closed");
+            }
+        }
+    }
+
+    /**
+     * Tells the other side that no more messages are coming
+     */
+    void sendStop() {
+        begin(STOP);
+        send();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close shard link", e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package ZombieSimulator;
+
+/**
+ *
+ * This class splits the world into a grid of rectangular regions, one for each ShardWorker process.
+ * The number of shards is split into columns and rows as close to square as it will go (6 shards
+ * are 3 columns by 2 rows), so each region has as little border with its neighbours as possible.
+ *
+ * Every location belongs to exactly one region. Locations outside the world (agents can step a
+ * little past the edge before they bounce back) belong to the nearest region. The coordinator and
+ * every worker build the same ShardRegions from the number of shards and the world's size, so they
+ * always agree on who owns an agent without asking each other.
+ */
+public final class ShardRegions {
+    private final int shards, columns, rows;
+    private final int width, height;
+
+    /**
+     * Splits a world into regions
+     * @param shards number of regions, at least 1
+     * @param width width of the world
+     * @param height height of the world
+     */
+    public ShardRegions(int shards, int width, int height) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be >= 1: " + shards);
+        }
+        // The largest number of rows up to the square root that divides the shards evenly
+        int rows = (int) Math.sqrt(shards);
+        while (shards % rows != 0) {
+            rows--;
+        }
+        int columns = shards / rows;
+        // Wide worlds get the columns, tall worlds the rows
+        if (height > width) {
+            int swap = rows;
+            rows = columns;
+            columns = swap;
+        }
+        this.shards = shards;
+        this.columns = columns;
+        this.rows = rows;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Returns the region a location belongs to
+     * @param x X location
+     * @param y Y location
+     * @return number of the region, from 0 to getShards() - 1
+     */
+    public int shardAt(double x, double y) {
+        int column = (int) Math.floor(x * columns / width);
+        int row = (int) Math.floor(y * rows / height);
+        column = column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+        row = row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+        return row * columns + column;
+    }
+
+    /**
+     * Returns true if a location is within a distance of a region (inside it, or outside it but no
+     * further than margin from its edge). Regions on the edge of the world reach out forever on that
+     * side, like shardAt() does.
+     * @param shard number of the region
+     * @param x X location
+     * @param y Y location
+     * @param margin how far outside the region still counts
+     * @return true if the location is in the region grown by margin on every side
+     */
+    public boolean isNear(int shard, double x, double y, double margin) {
+        int column = shard % columns, row = shard / columns;
+        double left = column == 0 ? Double.NEGATIVE_INFINITY : getLeft(shard) - margin;
+        double right = column == columns - 1 ? Double.POSITIVE_INFINITY : getRight(shard) + margin;
+        double top = row == 0 ? Double.NEGATIVE_INFINITY : getTop(shard) - margin;
+        double bottom = row == rows - 1 ? Double.POSITIVE_INFINITY : getBottom(shard) + margin;
+        return x >= left && x < right && y >= top && y < bottom;
+    }
+
+    /**
+     * Returns true if a location in a region is within a distance of any of its neighbours, so the
+     * agent there has to be shown to them as a ghost
+     * @param shard number of the region the location is in
+     * @param x X location
+     * @param y Y location
+     * @param margin how close to a neighbour counts
+     * @return true if the location is no further than margin from the edge of another region
+     */
+    public boolean isNearBorder(int shard, double x, double y, double margin) {
+        int column = shard % columns, row = shard / columns;
+        return (column > 0 && x < getLeft(shard) + margin)
+                || (column < columns - 1 && x >= getRight(shard) - margin)
+                || (row > 0 && y < getTop(shard) + margin)
+                || (row < rows - 1 && y >= getBottom(shard) - margin);
+    }
+
+    // Edges of each region, the left and top edges are inside the region and the right and bottom
+    // edges are inside the next one
+
+    public double getLeft(int shard) {
+        return (double) (shard % columns) * width / columns;
+    }
+
+    public double getRight(int shard) {
+        return (double) (shard % columns + 1) * width / columns;
+    }
+
+    public double getTop(int shard) {
+        return (double) (shard / columns) * height / rows;
+    }
+
+    public double getBottom(int shard) {
+        return (double) (shard / columns + 1) * height / rows;
+    }
+
+    // Getters
+
+    public int getShards() {
+        return this.shards;
+    }
+
+    public int getColumns() {
+        return this.columns;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    @Override
+    public String toString() {
+        return columns + "x" + rows;
+    }
+}
@@ -0,0 +1,252 @@
+package ZombieSimulator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ *
+ * This class runs one region of a sharded simulation in its own process. The worker owns the agents
+ * whose location is in its region and advances them with the phases of World.tick(), in step with
+ * every other worker, as told by the ShardCoordinator over a ShardLink. Each tick goes like this:
+ * 1) STEP: the worker adds the agents that moved into its region during the last tick (migrants)
+ *    and the ghosts: copies of the neighbours' agents that are within the halo of its border. Ghosts
+ *    go at the end of the Population, after every owned agent.
+ * 2) The grids are rebuilt over owned agents and ghosts, and only owned agents are planned, so an
+ *    owned zombie sees and touches humans on the other side of the border, and an owned human runs
+ *    from zombies over there. checkKill() converts the victims, ghosts included.
+ * 3) GHOSTS_INFECTED / INFECT: the ghost victims are sent to the coordinator, which passes them on to
+ *    the workers that own them, and the worker converts its own humans that were infected by a
+ *    neighbour's zombies, all before anything moves.
+ * 4) Every owned agent is committed, the ghosts are dropped, and DONE sends the coordinator every
+ *    owned agent that has left the region (which is then taken out of the Population), the agents
+ *    near the border for the neighbours' ghosts, and a keyframe of the region when the GUI wants one.
+ *
+ * Ghosts are only planned by the worker that owns them, so each agent still moves exactly once a
+ * tick. Agents further than the halo from the border cannot be seen across it: a zombie chases the
+ * nearest human it knows of, which is only the nearest in the whole world when that human is in its
+ * region or within the halo.
+ */
+public class ShardWorker implements World.InfectionListener {
+    private final ShardLink link;
+    private final int shard;
+    private final ShardRegions regions;
+    private final double halo;
+    private final World world;
+    private final Population population;
+    // Where each ghost (local index owned + k) lives in the shard that owns it
+    private int[] ghostShard = new int[0], ghostIndex = new int[0];
+    private int owned;
+    // Ghost humans infected during this tick's checkKill(), as ghost numbers
+    private int[] infectedGhosts = new int[16];
+    private int infectedGhostCount;
+    private final WorldSnapshot snapshot = new WorldSnapshot();
+    private final FrameEncoder encoder = new FrameEncoder();
+    private long snapshots = 0;
+
+    /**
+     * Creates a worker from the coordinator's SETUP message:
+     *   int shard, int shards, int width, int height, long seed, double halo, double humanSpeed,
+     *   double speedRatio, int sightDistance, double size, int threads, int flowFieldEvery
+     * @param link the link to the coordinator
+     * @param setup the SETUP message
+     */
+    ShardWorker(ShardLink link, ByteBuffer setup) {
+        this.link = link;
+        this.shard = setup.getInt();
+        int shards = setup.getInt(), width = setup.getInt(), height = setup.getInt();
+        long seed = setup.getLong();
+        this.halo = setup.getDouble();
+        AgentParameters parameters = new AgentParameters(setup.getDouble(), setup.getDouble(), setup.getInt(),
+                setup.getDouble());
+        int threads = setup.getInt(), flowFieldEvery = setup.getInt();
+        this.regions = new ShardRegions(shards, width, height);
+        this.world = new World(width, height, seed, parameters);
+        this.population = world.getPopulation();
+        world.setParallelism(threads);
+        world.setFlowFieldEvery(flowFieldEvery);
+        world.addInfectionListener(this);
+    }
+
+    /**
+     * Runs one tick as the coordinator tells it to
+     * @return false if the coordinator sent STOP instead of STEP
+     */
+    boolean step() {
+        ByteBuffer in = link.receive(ShardLink.STEP);
+        if (in == null) {
+            return false;
+        }
+        synchronized (world) {
+            long start = System.nanoTime();
+            boolean wantSnapshot = in.get() != 0;
+            int n = beginTick(in);
+            world.runPhase(World.PLAN, owned);
+            infectedGhostCount = 0;
+            world.checkKill();
+            long waitStart = System.nanoTime();
+            sendInfectedGhosts();
+
+            in = link.receive(ShardLink.INFECT);
+            if (in == null) {
+                return false;
+            }
+            long waited = System.nanoTime() - waitStart;
+            for (int k = 0, infections = in.getInt(); k < infections; k++) {
+                world.infectNow(in.getInt());
+            }
+            // Ghosts are moved along with everybody else, which also clears the pushes claimed on them
+            world.runPhase(World.COMMIT, n);
+            world.endTick();
+            population.truncate(owned);
+            sendDone(wantSnapshot, start, waited);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the migrants and ghosts of a STEP message:
+     *   byte snapshot, int migrants, migrants x agent, int ghosts, ghosts x ghost
+     * and starts the World's tick
+     * @return number of agents in this tick, ghosts included
+     */
+    private int beginTick(ByteBuffer in) {
+        for (int k = 0, migrants = in.getInt(); k < migrants; k++) {
+            ShardLink.getAgent(in, population);
+        }
+        owned = population.size();
+        int ghosts = in.getInt();
+        if (ghostShard.length < ghosts) {
+            ghostShard = new int[ghosts + (ghosts >> 1)];
+            ghostIndex = new int[ghostShard.length];
+        }
+        for (int k = 0; k < ghosts; k++) {
+            double x = in.getDouble(), y = in.getDouble();
+            population.add(x, y, in.get());
+            ghostShard[k] = in.getInt();
+            ghostIndex[k] = in.getInt();
+        }
+        return world.beginTick();
+    }
+
+    /**
+     * Keeps the ghost humans that checkKill() converts, to pass on to the workers that own them
+     */
+    @Override
+    public void humanInfected(int victim, int zombie, long tick) {
+        if (victim < owned) {
+            return;
+        }
+        if (infectedGhostCount == infectedGhosts.length) {
+            infectedGhosts = Arrays.copyOf(infectedGhosts, infectedGhostCount * 2);
+        }
+        infectedGhosts[infectedGhostCount++] = victim - owned;
+    }
+
+    /**
+     * Sends GHOSTS_INFECTED: int count, count x (int shard, int index)
+     */
+    private void sendInfectedGhosts() {
+        link.begin(ShardLink.GHOSTS_INFECTED);
+        ByteBuffer out = link.room(4 + 8L * infectedGhostCount);
+        out.putInt(infectedGhostCount);
+        for (int k = 0; k < infectedGhostCount; k++) {
+            int ghost = infectedGhosts[k];
+            out.putInt(ghostShard[ghost]).putInt(ghostIndex[ghost]);
+        }
+        link.send();
+    }
+
+    /**
+     * Takes the agents that left the region out of the Population and sends DONE:
+     *   int humans, int zombies, long busy nanoseconds, int leavers, leavers x agent,
+     *   int border, border x (double x, double y, byte state, int index), byte snapshot, keyframe
+     * Agents that stay keep their order, so the region plays out the same way every run.
+     */
+    private void sendDone(boolean wantSnapshot, long start, long waited) {
+        link.begin(ShardLink.DONE);
+        ByteBuffer out = link.room(4 + 4 + 8 + 4);
+        // Counts and busy time are filled in once the leavers are gone
+        int countsAt = out.position();
+        int leaversAt = countsAt + 16;
+        out.position(leaversAt);
+        out.putInt(0);
+        int leavers = 0, kept = 0;
+        for (int i = 0; i < owned; i++) {
+            if (regions.shardAt(population.getX(i), population.getY(i)) != shard) {
+                out = link.room(ShardLink.AGENT_BYTES);
+                ShardLink.putAgent(out, population, i);
+                leavers++;
+            } else {
+                if (kept != i) {
+                    population.move(i, kept);
+                }
+                kept++;
+            }
+        }
+        population.truncate(kept);
+        owned = kept;
+        out.putInt(leaversAt, leavers);
+
+        int borderAt = out.position();
+        out = link.room(4);
+        out.putInt(0);
+        int border = 0;
+        for (int i = 0; i < owned; i++) {
+            double x = population.getX(i), y = population.getY(i);
+            if (regions.isNearBorder(shard, x, y, halo)) {
+                out = link.room(8 + 8 + 1 + 4);
+                out.putDouble(x).putDouble(y).put(population.getState(i)).putInt(i);
+                border++;
+            }
+        }
+        out.putInt(borderAt, border);
+
+        out = link.room(1);
+        out.put((byte) (wantSnapshot ? 1 : 0));
+        if (wantSnapshot) {
+            snapshot.copyFrom(world, snapshots++);
+            ByteBuffer frame = encoder.encode(snapshot, true);
+            out = link.room(frame.remaining());
+            out.put(frame);
+        }
+        out.putInt(countsAt, population.getHumanCount());
+        out.putInt(countsAt + 4, population.getZombieCount());
+        out.putLong(countsAt + 8, System.nanoTime() - start - waited);
+        link.send();
+    }
+
+    /**
+     * Connects to the coordinator on this machine and runs ticks until it says STOP. This is what a
+     * worker process started by the ShardCoordinator runs (MainGUI --shard-worker PORT --shard-token
+     * TOKEN).
+     * @param port the port the coordinator listens on
+     * @param token the token the coordinator gave this worker, which proves it started it
+     */
+    public static void run(int port, long token) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not connect to the shard coordinator on port " + port, e);
+        }
+        try (ShardLink link = new ShardLink(channel)) {
+            // HELLO: long token, which the coordinator checks before giving this worker a region
+            link.begin(ShardLink.HELLO).putLong(token);
+            link.send();
+            ByteBuffer setup = link.receive(ShardLink.SETUP);
+            if (setup == null) {
+                return;
+            }
+            ShardWorker worker = new ShardWorker(link, setup);
+            while (worker.step()) {
+                // One tick per STEP, until the coordinator sends STOP
+            }
+            worker.world.setParallelism(1);
+        }
+    }
+}
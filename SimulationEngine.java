@@ -0,0 +1,386 @@
+package ZombieSimulator;
+
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * This class advances a World in discrete, fixed-length ticks on a single engine thread. Instead of
+ * every human and zombie sleeping on its own thread, the engine calls World.tick() at a configurable
+ * rate (ticks per second). A rate of AS_FAST_AS_POSSIBLE runs ticks back to back with no pausing,
+ * which is used for headless runs on servers.
+ *
+ * By default each tick is World.tick(). With setAgentThreads() the engine runs ticks through an
+ * AgentThreads mode instead, where every agent runs its own loop on its own (virtual) thread.
+ *
+ * The engine does not know about the GUI. Anything that wants to watch the simulation (like MainGUI)
+ * registers a TickListener and is told after each tick has finished.
+ *
+ * The engine counts the bytes allocated by every tick with an AllocationCounter. Once the World's
+ * arrays have grown to fit the population, a tick allocates nothing, so the garbage collector has
+ * nothing to pause the simulation for.
+ */
+public class SimulationEngine implements Runnable {
+    // Tick rate that runs ticks back to back without waiting
+    public static final int AS_FAST_AS_POSSIBLE = 0;
+    // Humans used to sleep for 20 ms between moves, which is 50 moves per second
+    public static final int DEFAULT_TICKS_PER_SECOND = 50;
+
+    private final World world;
+    private final ListenerArray<TickListener> listeners = new ListenerArray<>(new TickListener[0]);
+    private volatile int ticksPerSecond;
+    private volatile boolean running;
+    private Thread thread;
+    private volatile AgentThreads agentThreads;
+    private final AllocationCounter allocations;
+
+    /**
+     * Observers of the simulation implement this interface to be told when a tick has completed.
+     * Listeners are called on the engine thread, so they should return quickly.
+     */
+    public interface TickListener {
+        void tickCompleted(World world, long tick);
+    }
+
+    /**
+     * Creates an engine for the given world. The engine is not started until start() is called.
+     * @param world the World to advance
+     * @param ticksPerSecond how many ticks to run each second, or AS_FAST_AS_POSSIBLE
+     */
+    public SimulationEngine(World world, int ticksPerSecond) {
+        this.world = world;
+        this.allocations = new AllocationCounter(world);
+        setTicksPerSecond(ticksPerSecond);
+    }
+
+    /**
+     * Starts the engine thread. Calling start() on an engine that is already running does nothing.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "simulation-engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the engine thread and waits for the tick that is currently running to finish
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * The engine loop. Each tick is given a deadline of one tick period after the previous one, so
+     * the rate stays fixed even when a tick takes a varying amount of time. If the engine falls more
+     * than one tick behind (for example after a long GC pause) it does not try to catch up with a
+     * burst of ticks, it simply starts counting again from now.
+     */
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime();
+        while (running) {
+            step();
+
+            int rate = ticksPerSecond;
+            if (rate == AS_FAST_AS_POSSIBLE) {
+                nextTick = System.nanoTime();
+                continue;
+            }
+            long period = 1_000_000_000L / rate;
+            nextTick += period;
+            long now = System.nanoTime();
+            if (now - nextTick > period) {
+                nextTick = now;
+            }
+            while (running && (now = System.nanoTime()) < nextTick) {
+                LockSupport.parkNanos(this, nextTick - now);
+            }
+        }
+    }
+
+    /**
+     * Advances the world by exactly one tick on the calling thread and tells all listeners
+     */
+    public void step() {
+        AgentThreads agents = this.agentThreads;
+        allocations.begin();
+        if (agents != null) {
+            agents.tick();
+        } else {
+            world.tick();
+        }
+        allocations.end();
+        long tick = world.getTickCount();
+        TickListener[] current = listeners.get();
+        for (int k = 0; k < current.length; k++) {
+            current[k].tickCompleted(world, tick);
+        }
+    }
+
+    /**
+     * Runs the given number of ticks on the calling thread, as fast as possible, and returns how long
+     * that took. Used for headless runs and benchmarks where no engine thread is needed.
+     * @param ticks number of ticks to run
+     * @return elapsed time in nanoseconds
+     */
+    public long runTicks(long ticks) {
+        long start = System.nanoTime();
+        for (long i = 0; i < ticks; i++) {
+            step();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Registers an observer that is told after every tick
+     * @param listener the listener to add
+     */
+    public void addTickListener(TickListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes an observer that was added with addTickListener()
+     * @param listener the listener to remove
+     */
+    public void removeTickListener(TickListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Runs ticks through the given AgentThreads mode instead of World.tick(), or back through
+     * World.tick() when null. Any previous AgentThreads mode is shut down.
+     * @param agentThreads the agent threads mode, or null
+     */
+    public void setAgentThreads(AgentThreads agentThreads) {
+        AgentThreads previous = this.agentThreads;
+        this.agentThreads = agentThreads;
+        if (previous != null && previous != agentThreads) {
+            synchronized (world) {
+                previous.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns the agent threads mode used to run ticks
+     * @return the AgentThreads mode, or null if ticks run through World.tick()
+     */
+    public AgentThreads getAgentThreads() {
+        return this.agentThreads;
+    }
+
+    /**
+     * Changes the tick rate. Takes effect from the next tick.
+     * @param ticksPerSecond how many ticks to run each second, or AS_FAST_AS_POSSIBLE
+     */
+    public void setTicksPerSecond(int ticksPerSecond) {
+        if (ticksPerSecond < 0) {
+            throw new IllegalArgumentException("ticksPerSecond must be >= 0: " + ticksPerSecond);
+        }
+        this.ticksPerSecond = ticksPerSecond;
+    }
+
+    /**
+     * Returns the current tick rate
+     * @return ticks per second, or AS_FAST_AS_POSSIBLE
+     */
+    public int getTicksPerSecond() {
+        return this.ticksPerSecond;
+    }
+
+    /**
+     * Returns true if the engine thread is running
+     * @return true if running
+     */
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * Returns the counter of bytes allocated by each tick
+     * @return the engine's AllocationCounter
+     */
+    public AllocationCounter getAllocations() {
+        return this.allocations;
+    }
+
+    /**
+     * Returns the world that this engine advances
+     * @return the World
+     */
+    public World getWorld() {
+        return this.world;
+    }
+
+    /**
+     * Adds humans and then zombies to the world at random locations at least 20 away from the
+     * edges. The same seed always gives the same locations.
+     * @param world the World to add the agents to
+     * @param humans number of humans to add
+     * @param zombies number of zombies to add
+     * @param seed seed for the random locations
+     */
+    public static void populate(World world, int humans, int zombies, long seed) {
+        Random random = new Random(seed);
+        double[] xs = new double[Math.min(Scenario.CHUNK, Math.max(humans, zombies))], ys = new double[xs.length];
+        addAtRandom(world, Population.HUMAN, humans, random, xs, ys);
+        addAtRandom(world, Population.ZOMBIE, zombies, random, xs, ys);
+    }
+
+    /**
+     * Adds agents at random locations for populate(), a chunk of locations at a time
+     */
+    private static void addAtRandom(World world, byte state, int count, Random random, double[] xs, double[] ys) {
+        int width = world.getWidth(), height = world.getHeight();
+        for (int added = 0; added < count; ) {
+            int chunk = Math.min(xs.length, count - added);
+            for (int k = 0; k < chunk; k++) {
+                xs[k] = 20 + random.nextDouble() * (width - 40);
+                ys[k] = 20 + random.nextDouble() * (height - 40);
+            }
+            world.addAgents(state, xs, ys, chunk);
+            added += chunk;
+        }
+    }
+
+    /**
+     * Creates the world a run starts with: seeded from a scenario if there is one (printing how long
+     * that took), or with humans and zombies at random locations
+     * @param width width of the world
+     * @param height height of the world
+     * @param humans number of humans to start with
+     * @param zombies number of zombies to start with
+     * @param seed seed used to place the agents and for their random choices
+     * @param scenario the Scenario to seed the world from instead, or null
+     * @return the new World
+     */
+    public static World createWorld(int width, int height, int humans, int zombies, long seed, Scenario scenario) {
+        if (scenario == null) {
+            World world = new World(width, height, seed);
+            populate(world, humans, zombies, seed);
+            return world;
+        }
+        long seedStart = System.nanoTime();
+        World world = scenario.createWorld();
+        System.out.printf("Seeded %d agents (%dx%d world) from the scenario in %.1f ms%n", world.getAgentCount(),
+                world.getWidth(), world.getHeight(), (System.nanoTime() - seedStart) / 1e6);
+        return world;
+    }
+
+    /**
+     * Runs a simulation without any GUI and prints how many agent-steps per second it managed.
+     * Humans and zombies are placed at random locations in the world, or seeded from a scenario,
+     * unless a world file holds a checkpoint, in which case the run carries on from the checkpoint
+     * instead. The world is checkpointed to the world file at the end of the run.
+     * @param options what to run and what to do with every tick
+     */
+    public static void runHeadless(RunOptions options) {
+        String worldFile = options.getWorldFile(), record = options.getRecord();
+        String agentThreads = options.getAgentThreads();
+        long ticks = options.getTicks();
+        int threads = options.getThreads();
+        FrameServer server = options.getServer();
+        WorldFile file = worldFile != null ? new WorldFile(Path.of(worldFile), options.getCheckpointEvery()) : null;
+        World world;
+        if (file != null && file.hasCheckpoint()) {
+            long restoreStart = System.nanoTime();
+            world = file.restore();
+            System.out.printf("Resumed %s at tick %d with %d agents in %.1f ms%n", worldFile, world.getTickCount(),
+                    world.getAgentCount(), (System.nanoTime() - restoreStart) / 1e6);
+        } else {
+            world = createWorld(options.getWidth(), options.getHeight(), options.getHumans(), options.getZombies(),
+                    options.getSeed(), options.getScenario());
+        }
+        world.setParallelism(threads);
+        world.setFlowFieldEvery(options.getFlowFieldEvery());
+        world.setObstacles(options.getObstacles());
+        KillLog killLog = null;
+        if (options.getKillLogEvery() > 0) {
+            killLog = new KillLog(System.out, options.getKillLogEvery(), 1 << 16);
+            world.addInfectionListener(killLog);
+        }
+        SimulationEngine engine = new SimulationEngine(world, AS_FAST_AS_POSSIBLE);
+        SimulationMetrics metrics = new SimulationMetrics();
+        metrics.registerMBean();
+        engine.addTickListener(metrics);
+        if (file != null) {
+            engine.addTickListener(file);
+        }
+        TrajectoryLog log = record != null
+                ? new TrajectoryLog(Path.of(record), world, options.getKeyframeEvery()) : null;
+        if (log != null) {
+            engine.addTickListener(log);
+        }
+        if (server != null) {
+            engine.addTickListener(server);
+        }
+        if (agentThreads != null) {
+            engine.setAgentThreads(new AgentThreads(world, agentThreads.equals("virtual")));
+        }
+        long agentSteps = 0;
+        long start = System.nanoTime();
+        for (long i = 0; i < ticks; i++) {
+            agentSteps += world.getAgentCount();
+            engine.step();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (killLog != null) {
+            killLog.close();
+        }
+        if (log != null) {
+            log.close();
+            System.out.printf("Recorded %d frames to %s: %.1f MB, %.2f bytes per agent per frame%n", log.getFrameCount(),
+                    record, log.getSize() / 1e6, (double) log.getSize() / log.getFrameCount() / Math.max(1, world.getAgentCount()));
+        }
+        if (server != null) {
+            server.close();
+            System.out.printf("Streamed %d frames (%d ticks skipped over budget): %.1f MB, %.2f bytes per agent per frame, encode mean %.3f ms%n",
+                    server.getFrameCount(), server.getSkippedCount(), server.getBytes() / 1e6,
+                    server.getBytesPerAgentFrame(), server.getEncodeMeanMillis());
+        }
+        if (file != null) {
+            long checkpointStart = System.nanoTime();
+            file.checkpoint(world);
+            file.close();
+            System.out.printf("Checkpointed tick %d to %s in %.1f ms%n", world.getTickCount(), worldFile,
+                    (System.nanoTime() - checkpointStart) / 1e6);
+        }
+        System.out.printf("%d ticks in %.3f s: %.0f ticks/s, %.0f agent-steps/s (humans=%d zombies=%d threads=%d kernel=%s checksum=%x)%n",
+                ticks, seconds, ticks / seconds, agentSteps / seconds,
+                world.getHumanCount(), world.getZombieCount(), threads, world.getDistanceKernel().getName(),
+                world.getPopulation().checksum());
+        System.out.printf("tick mean %.3f ms, p50 %.3f ms, p99 %.3f ms (grid %.3f, pursuit %.3f, infection %.3f, movement %.3f ms)%n",
+                metrics.getTickMeanMillis(), metrics.getTickP50Millis(), metrics.getTickP99Millis(),
+                metrics.getGridMeanMillis(), metrics.getPursuitMeanMillis(), metrics.getInfectionMeanMillis(),
+                metrics.getMovementMeanMillis());
+        RollingStats allocated = engine.getAllocations().getBytesPerTick();
+        if (engine.getAllocations().isSupported()) {
+            System.out.printf("allocated per tick over the last %d ticks: mean %.0f bytes, max %d bytes, last %d bytes%n",
+                    allocated.size(), allocated.mean(), allocated.max(), allocated.last());
+        }
+        AgentThreads agents = engine.getAgentThreads();
+        if (agents != null) {
+            RollingStats latency = agents.getTickLatency();
+            System.out.printf("%s agent threads=%d tick latency: mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                    agentThreads, agents.getThreadCount(), latency.mean() / 1e6, latency.percentile(0.5) / 1e6,
+                    latency.percentile(0.99) / 1e6, latency.max() / 1e6);
+            engine.setAgentThreads(null);
+        }
+        world.setParallelism(1);
+    }
+}
@@ -0,0 +1,289 @@
+package ZombieSimulator;
+
+import java.lang.management.ManagementFactory;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ *
+ * This class collects live metrics about the simulation so slowdowns can be found without an
+ * external profiler. After every tick it records the tick's duration and its parts (grid, pursuit,
+ * infection and movement, see TickTimings) as rolling percentiles, together with the human and
+ * zombie counts, the number of pending conversions drained by the tick and the infections per
+ * second. Paint times come from the DrawPanel's own RollingStats.
+ *
+ * The metrics can be read in three ways:
+ * - as a JMX MBean (SimulationMetricsMBean), after registerMBean()
+ * - as JFR events (ZombieSimulator.Tick after every tick and ZombieSimulator.Paint after every
+ *   paint), which are only created while a flight recording has them enabled
+ * - drawn by the DrawPanel as a HUD overlay, using getHudLines()
+ *
+ * Recording a tick does not allocate, so the metrics can stay on all the time.
+ */
+public class SimulationMetrics implements SimulationEngine.TickListener, SimulationMetricsMBean {
+    public static final String OBJECT_NAME = "ZombieSimulator:type=SimulationMetrics";
+    private static final int WINDOW = 1024;
+    private static final EventType TICK_EVENT = EventType.getEventType(TickEvent.class);
+    private static final EventType PAINT_EVENT = EventType.getEventType(PaintEvent.class);
+
+    private final RollingStats tickNanos = new RollingStats(WINDOW);
+    private final RollingStats gridNanos = new RollingStats(WINDOW);
+    private final RollingStats pursuitNanos = new RollingStats(WINDOW);
+    private final RollingStats infectionNanos = new RollingStats(WINDOW);
+    private final RollingStats movementNanos = new RollingStats(WINDOW);
+    private volatile RollingStats paintNanos = new RollingStats(1);
+    private volatile long tickCount;
+    private volatile int humanCount, zombieCount, pendingConversions;
+    private volatile double infectionsPerSecond;
+    // Infections counted since the start of the current one second window
+    private long windowStart = System.nanoTime();
+    private int windowInfections;
+
+    @Override
+    public void tickCompleted(World world, long tick) {
+        TickTimings timings = world.getTickTimings();
+        tickNanos.record(timings.getTickNanos());
+        gridNanos.record(timings.getGridNanos());
+        pursuitNanos.record(timings.getPursuitNanos());
+        infectionNanos.record(timings.getInfectionNanos());
+        movementNanos.record(timings.getMovementNanos());
+        tickCount = tick;
+        humanCount = world.getPopulation().getHumanCount();
+        zombieCount = world.getPopulation().getZombieCount();
+        pendingConversions = timings.getConversions();
+
+        windowInfections += timings.getConversions();
+        long now = System.nanoTime();
+        if (now - windowStart >= 1_000_000_000L) {
+            infectionsPerSecond = windowInfections * 1e9 / (now - windowStart);
+            windowStart = now;
+            windowInfections = 0;
+        }
+
+        if (TICK_EVENT.isEnabled()) {
+            TickEvent event = new TickEvent();
+            event.tick = tick;
+            event.tickTime = timings.getTickNanos();
+            event.gridTime = timings.getGridNanos();
+            event.pursuitTime = timings.getPursuitNanos();
+            event.infectionTime = timings.getInfectionNanos();
+            event.movementTime = timings.getMovementNanos();
+            event.humans = humanCount;
+            event.zombies = zombieCount;
+            event.conversions = pendingConversions;
+            event.commit();
+        }
+    }
+
+    /**
+     * Uses the given paint times for the paint metrics
+     * @param paintNanos paint durations in nanoseconds, like DrawPanel.getFrameTime()
+     */
+    public void setPaintTime(RollingStats paintNanos) {
+        this.paintNanos = paintNanos;
+    }
+
+    /**
+     * Called by the DrawPanel after every paint, emits a JFR event if a recording wants one
+     * @param nanos how long the paint took
+     */
+    public void paintCompleted(long nanos) {
+        if (PAINT_EVENT.isEnabled()) {
+            PaintEvent event = new PaintEvent();
+            event.paintTime = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, replacing metrics registered earlier
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Returns the metrics as a few lines of text for the HUD overlay
+     * @return lines to draw, top to bottom
+     */
+    public String[] getHudLines() {
+        return new String[] {
+            String.format("tick %d  humans %d  zombies %d", tickCount, humanCount, zombieCount),
+            String.format("tick %.2f ms  p50 %.2f  p99 %.2f  max %.2f",
+                    getTickMeanMillis(), getTickP50Millis(), getTickP99Millis(), getTickMaxMillis()),
+            String.format("grid %.2f  pursuit %.2f  infection %.2f  movement %.2f ms",
+                    getGridMeanMillis(), getPursuitMeanMillis(), getInfectionMeanMillis(), getMovementMeanMillis()),
+            String.format("infections/s %.1f  pending %d", infectionsPerSecond, pendingConversions),
+            String.format("paint %.2f ms  p99 %.2f", getPaintMeanMillis(), getPaintP99Millis())
+        };
+    }
+
+    /**
+     * Returns the rolling tick durations, in nanoseconds
+     * @return tick duration statistics
+     */
+    public RollingStats getTickNanos() {
+        return this.tickNanos;
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1e6;
+    }
+
+    // SimulationMetricsMBean
+
+    @Override
+    public long getTickCount() {
+        return this.tickCount;
+    }
+
+    @Override
+    public int getHumanCount() {
+        return this.humanCount;
+    }
+
+    @Override
+    public int getZombieCount() {
+        return this.zombieCount;
+    }
+
+    @Override
+    public double getInfectionsPerSecond() {
+        return this.infectionsPerSecond;
+    }
+
+    @Override
+    public int getPendingConversions() {
+        return this.pendingConversions;
+    }
+
+    @Override
+    public double getTickMeanMillis() {
+        return millis(tickNanos.mean());
+    }
+
+    @Override
+    public double getTickP50Millis() {
+        return millis(tickNanos.percentile(0.5));
+    }
+
+    @Override
+    public double getTickP99Millis() {
+        return millis(tickNanos.percentile(0.99));
+    }
+
+    @Override
+    public double getTickMaxMillis() {
+        return millis(tickNanos.max());
+    }
+
+    @Override
+    public double getGridMeanMillis() {
+        return millis(gridNanos.mean());
+    }
+
+    @Override
+    public double getGridP99Millis() {
+        return millis(gridNanos.percentile(0.99));
+    }
+
+    @Override
+    public double getPursuitMeanMillis() {
+        return millis(pursuitNanos.mean());
+    }
+
+    @Override
+    public double getPursuitP99Millis() {
+        return millis(pursuitNanos.percentile(0.99));
+    }
+
+    @Override
+    public double getInfectionMeanMillis() {
+        return millis(infectionNanos.mean());
+    }
+
+    @Override
+    public double getInfectionP99Millis() {
+        return millis(infectionNanos.percentile(0.99));
+    }
+
+    @Override
+    public double getMovementMeanMillis() {
+        return millis(movementNanos.mean());
+    }
+
+    @Override
+    public double getMovementP99Millis() {
+        return millis(movementNanos.percentile(0.99));
+    }
+
+    @Override
+    public double getPaintMeanMillis() {
+        return millis(paintNanos.mean());
+    }
+
+    @Override
+    public double getPaintP99Millis() {
+        return millis(paintNanos.percentile(0.99));
+    }
+
+    /**
+     * JFR event committed after every tick while enabled in a recording
+     */
+    @Name("ZombieSimulator.Tick")
+    @Label("Simulation Tick")
+    @Category("Zombie Simulator")
+    @Description("Duration and parts of one simulation tick")
+    static class TickEvent extends Event {
+        @Label("Tick")
+        long tick;
+        @Label("Tick Time") @Timespan
+        long tickTime;
+        @Label("Grid Time") @Timespan
+        long gridTime;
+        @Label("Pursuit Time") @Timespan
+        long pursuitTime;
+        @Label("Infection Time") @Timespan
+        long infectionTime;
+        @Label("Movement Time") @Timespan
+        long movementTime;
+        @Label("Humans")
+        int humans;
+        @Label("Zombies")
+        int zombies;
+        @Label("Conversions")
+        int conversions;
+    }
+
+    /**
+     * JFR event committed after every paint of the DrawPanel while enabled in a recording
+     */
+    @Name("ZombieSimulator.Paint")
+    @Label("Paint")
+    @Category("Zombie Simulator")
+    @Description("Time taken to paint one frame")
+    static class PaintEvent extends Event {
+        @Label("Paint Time") @Timespan
+        long paintTime;
+    }
+}
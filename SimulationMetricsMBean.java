@@ -0,0 +1,47 @@
+package ZombieSimulator;
+
+/**
+ *
+ * The JMX view of SimulationMetrics, as shown in JConsole or VisualVM under
+ * ZombieSimulator:type=SimulationMetrics. Durations are in milliseconds and percentiles are over
+ * the most recent ticks (or frames, for paint times).
+ */
+public interface SimulationMetricsMBean {
+    long getTickCount();
+
+    int getHumanCount();
+
+    int getZombieCount();
+
+    double getInfectionsPerSecond();
+
+    int getPendingConversions();
+
+    double getTickMeanMillis();
+
+    double getTickP50Millis();
+
+    double getTickP99Millis();
+
+    double getTickMaxMillis();
+
+    double getGridMeanMillis();
+
+    double getGridP99Millis();
+
+    double getPursuitMeanMillis();
+
+    double getPursuitP99Millis();
+
+    double getInfectionMeanMillis();
+
+    double getInfectionP99Millis();
+
+    double getMovementMeanMillis();
+
+    double getMovementP99Millis();
+
+    double getPaintMeanMillis();
+
+    double getPaintP99Millis();
+}
@@ -0,0 +1,90 @@
+package ZombieSimulator;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * This class passes WorldSnapshots from the simulation to one observer without either side ever
+ * waiting for the other. It is a triple buffer of three snapshot objects that are swapped by
+ * reference and reused forever:
+ * - back: the snapshot the simulation copies the world into after a tick
+ * - ready: the newest complete snapshot, waiting to be picked up
+ * - front: the snapshot the observer is reading
+ * After copying, the simulation swaps back and ready. When the observer wants a frame it swaps
+ * ready and front, but only if ready is newer than what it already has. Because the observer holds
+ * its own front snapshot, the simulation can publish as often as it likes without disturbing it,
+ * and the observer always gets the latest tick (ticks in between are simply skipped). Two buffers
+ * would not be enough, since the simulation would then have to wait for the observer to let go of
+ * the one it is reading.
+ *
+ * A SnapshotBuffer is a TickListener, so it can be added to a SimulationEngine to publish after
+ * every tick. Each observer should have its own SnapshotBuffer. A replay publishes decoded frames
+ * with publish(FrameDecoder) instead, and a ShardCoordinator the frames of its regions with
+ * publish(FrameDecoder[]).
+ */
+public class SnapshotBuffer implements SimulationEngine.TickListener {
+    private final World world;
+    // Only used by the thread that publishes
+    private WorldSnapshot back = new WorldSnapshot();
+    private long published = 0;
+    private final AtomicReference<WorldSnapshot> ready = new AtomicReference<>(new WorldSnapshot());
+    // Only used by the observer
+    private WorldSnapshot front = new WorldSnapshot();
+
+    /**
+     * Creates a buffer for the world and publishes a first snapshot straight away, so an observer
+     * has something to read before the first tick
+     * @param world the World to take snapshots of
+     */
+    public SnapshotBuffer(World world) {
+        this.world = world;
+        publish();
+    }
+
+    /**
+     * Copies the world into the back snapshot and makes it the ready one. Holds the World's lock
+     * only while copying.
+     */
+    public void publish() {
+        synchronized (world) {
+            back.copyFrom(world, published++);
+        }
+        back = ready.getAndSet(back);
+    }
+
+    /**
+     * Publishes a frame decoded from a recording instead of the World, so the observer draws a
+     * replay exactly like the live simulation
+     * @param frame the FrameDecoder holding the frame to publish
+     */
+    public void publish(FrameDecoder frame) {
+        back.copyFrom(frame, published++);
+        back = ready.getAndSet(back);
+    }
+
+    /**
+     * Publishes the frames of every region of a sharded simulation as one snapshot of the whole world
+     * @param regions one FrameDecoder per region, holding frames of the same tick
+     */
+    public void publish(FrameDecoder[] regions) {
+        back.copyFrom(regions, published++);
+        back = ready.getAndSet(back);
+    }
+
+    @Override
+    public void tickCompleted(World world, long tick) {
+        publish();
+    }
+
+    /**
+     * Returns the newest snapshot. The observer may read it until its next call to acquire(), and
+     * gets the same snapshot back if nothing newer has been published.
+     * @return the newest snapshot
+     */
+    public WorldSnapshot acquire() {
+        if (ready.get().sequence > front.sequence) {
+            front = ready.getAndSet(front);
+        }
+        return front;
+    }
+}
@@ -0,0 +1,312 @@
+package ZombieSimulator;
+
+import java.util.Arrays;
+
+/**
+ *
+ * This class is a uniform grid (spatial hash) over the agents of one state, for example every human.
+ * The world is divided into square cells and each agent is filed under the cell its position falls
+ * in. Questions like "which human is nearest to this zombie" or "is any human touching this zombie"
+ * can then be answered by only looking at the cells around the zombie, instead of checking every
+ * human in the world.
+ *
+ * The grid is rebuilt once per tick with a counting sort: one pass counts the agents in each cell,
+ * a running total turns the counts into the start of each cell's run in the items array, and a
+ * second pass drops every agent into its cell. Agents inside a cell stay in Population order, so
+ * ties are always broken the same way.
+ *
+ * Agents can keep moving after the grid was built (within the same tick), so every query widens
+ * its search by a "slack" distance, which is the furthest an agent can move in one tick.
+ *
+ * The grid also keeps a copy of every agent's location in items order, so the agents of a row of
+ * cells are one run of locations next to each other in memory. A query hands whole rows (or the two
+ * end cells of a ring's row) to a DistanceKernel, which works out the distances to several agents
+ * at once when the Vector API is available. Queries see the agents where they were when the grid
+ * was rebuilt.
+ */
+public class SpatialGrid {
+    // The grid always has room for at least this many cells, even when it holds very few agents
+    private static final int MIN_CELL_LIMIT = 256;
+
+    private final Population population;
+    private final byte state;
+    private final double minCellSize;
+    private double slack;
+    private double cellSize;
+    private int cols = 1, rows = 1;
+    private int[] cellStart = new int[2];
+    private int[] items = new int[16];
+    private int[] itemCell = new int[16];
+    // Location of the agent in each slot of items, so a run of items is also a run of locations
+    private double[] itemX = new double[16], itemY = new double[16];
+    private int itemCount = 0;
+    private DistanceKernel kernel = DistanceKernel.preferred();
+
+    /**
+     * Creates an empty grid
+     * @param population Population that holds the agents
+     * @param state only agents with this state are put in the grid (HUMAN or ZOMBIE)
+     * @param minCellSize smallest width of a cell, cells get bigger when the world is very large
+     * @param slack how far an agent can move between rebuilds
+     */
+    public SpatialGrid(Population population, byte state, double minCellSize, double slack) {
+        this.population = population;
+        this.state = state;
+        this.minCellSize = minCellSize;
+        this.cellSize = minCellSize;
+        this.slack = slack;
+    }
+
+    /**
+     * Rebuilds the grid from the current positions of every agent with the grid's state
+     * @param worldWidth width of the world
+     * @param worldHeight height of the world
+     */
+    public void rebuild(int worldWidth, int worldHeight) {
+        int n = population.size();
+        // Keep the number of cells in proportion with the number of agents in the grid, so huge
+        // worlds do not create huge arrays and a few zombies are not spread over millions of empty cells
+        int cellLimit = Math.max(MIN_CELL_LIMIT, 2 * population.getCount(state));
+        double area = Math.max(1.0, (double) worldWidth * worldHeight);
+        cellSize = Math.max(minCellSize, Math.sqrt(area / cellLimit));
+        cols = Math.max(1, (int) Math.ceil(worldWidth / cellSize));
+        rows = Math.max(1, (int) Math.ceil(worldHeight / cellSize));
+        int cells = cols * rows;
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + 1];
+        }
+        if (itemCell.length < n) {
+            itemCell = new int[Math.max(n, itemCell.length + (itemCell.length >> 1))];
+            items = new int[itemCell.length];
+            itemX = new double[itemCell.length];
+            itemY = new double[itemCell.length];
+        }
+
+        // Pass 1: count the agents in each cell (cellStart[c + 1] holds the count for cell c)
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        for (int i = 0; i < n; i++) {
+            if (population.getState(i) == state) {
+                int cell = cellOf(population.getX(i), population.getY(i));
+                itemCell[i] = cell;
+                cellStart[cell + 1]++;
+            }
+        }
+        // Running total: cellStart[c] is now where cell c's agents begin in items
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        itemCount = cellStart[cells];
+        // Pass 2: place agents, cellStart[c] is used as a cursor and ends up at the start of cell c + 1
+        for (int i = 0; i < n; i++) {
+            if (population.getState(i) == state) {
+                items[cellStart[itemCell[i]]++] = i;
+            }
+        }
+        // Shift the cursors back so cellStart[c] is the start of cell c again
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+        // Copy the locations in items order, writing both arrays front to back
+        for (int k = 0; k < itemCount; k++) {
+            int i = items[k];
+            itemX[k] = population.getX(i);
+            itemY[k] = population.getY(i);
+        }
+    }
+
+    /**
+     * Finds the agent nearest to location xy, searching rings of cells outwards from the cell that
+     * xy is in. The search stops as soon as the closest possible agent in the next ring would be
+     * further away than the best agent found so far, or further away than maxRadius.
+     * @param x X location to search from
+     * @param y Y location to search from
+     * @param maxRadius agents further away than this are ignored
+     * @return index of the nearest agent in the Population, or -1 if there is none within maxRadius
+     */
+    public int nearest(double x, double y, double maxRadius) {
+        return (int) search(x, y, maxRadius, 0);
+    }
+
+    /**
+     * Finds the agent nearest to location xy, exactly like nearest(), and in the same search the
+     * runner-up: the nearest of all the other agents. The search carries on through the rings until
+     * no agent in the next ring could be nearer than the runner-up, or nearer than runnerUpRadius.
+     * @param x X location to search from
+     * @param y Y location to search from
+     * @param maxRadius agents further away than this are ignored
+     * @param runnerUpRadius the runner-up is only looked for this far away
+     * @return the two Population indexes in one long, the nearest agent in the low 32 bits and the
+     *         runner-up in the high 32 bits, each -1 if there is none
+     */
+    public long nearestTwo(double x, double y, double maxRadius, double runnerUpRadius) {
+        return search(x, y, maxRadius, runnerUpRadius);
+    }
+
+    /**
+     * The ring search behind nearest() and nearestTwo(). With a runnerUpRadius of 0 it only finds the
+     * nearest agent.
+     */
+    private long search(double x, double y, double maxRadius, double runnerUpRadius) {
+        if (itemCount == 0) {
+            return -1L;
+        }
+        int cx = column(x), cy = row(y);
+        int best = -1, second = -1;
+        double bestDist2 = maxRadius * maxRadius, secondDist2 = runnerUpRadius * runnerUpRadius;
+        int maxRing = Math.max(cols, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // The query point can be anywhere in its own cell, so ring r is at least r - 1 cells away
+            double ringDist = Math.max(0, (ring - 1) * cellSize - slack);
+            if (ringDist * ringDist > bestDist2 && ringDist * ringDist > secondDist2) {
+                break;
+            }
+            int top = cy - ring, bottom = cy + ring, left = cx - ring, right = cx + ring;
+            for (int row = Math.max(top, 0); row <= Math.min(bottom, rows - 1); row++) {
+                // Only the outline of the ring: the whole top and bottom rows are one run of agents,
+                // the other rows have two runs, the cells at each end
+                boolean edgeRow = (row == top || row == bottom);
+                for (int end = 0; end < (edgeRow ? 1 : 2); end++) {
+                    int first, last;
+                    if (edgeRow) {
+                        first = Math.max(left, 0);
+                        last = Math.min(right, cols - 1);
+                    } else {
+                        first = last = (end == 0 ? left : right);
+                        if (first < 0 || first >= cols) {
+                            continue;
+                        }
+                    }
+                    int from = cellStart[row * cols + first], to = cellStart[row * cols + last + 1];
+                    // Most runs far from any agent are empty, which is cheaper to see here than in the kernel
+                    if (from == to) {
+                        continue;
+                    }
+                    int k = kernel.nearest(itemX, itemY, items, from, to, x, y);
+                    int j = items[k];
+                    double ddx = itemX[k] - x, ddy = itemY[k] - y;
+                    double dist2 = ddx * ddx + ddy * ddy;
+                    if (dist2 < bestDist2 || (dist2 == bestDist2 && j < best)) {
+                        if (runnerUpRadius > 0) {
+                            // Both the agent it beats and the next nearest agent of this run could be the runner-up
+                            if (best >= 0 && bestDist2 < secondDist2) {
+                                second = best;
+                                secondDist2 = bestDist2;
+                            }
+                            int k2 = nearestAround(from, to, k, x, y);
+                            if (k2 >= 0) {
+                                double ddx2 = itemX[k2] - x, ddy2 = itemY[k2] - y;
+                                double runDist2 = ddx2 * ddx2 + ddy2 * ddy2;
+                                if (runDist2 < secondDist2) {
+                                    second = items[k2];
+                                    secondDist2 = runDist2;
+                                }
+                            }
+                        }
+                        best = j;
+                        bestDist2 = dist2;
+                    } else if (dist2 < secondDist2) {
+                        second = j;
+                        secondDist2 = dist2;
+                    }
+                }
+            }
+        }
+        return ((long) second << 32) | (best & 0xffffffffL);
+    }
+
+    /**
+     * Finds the candidate in [from, to) nearest to location xy, other than the one at skip, by
+     * searching the runs on either side of it
+     * @return position of the candidate in items, or -1 if skip was the only one
+     */
+    private int nearestAround(int from, int to, int skip, double x, double y) {
+        int before = kernel.nearest(itemX, itemY, items, from, skip, x, y);
+        int after = kernel.nearest(itemX, itemY, items, skip + 1, to, x, y);
+        if (before < 0 || after < 0) {
+            return Math.max(before, after);
+        }
+        double bx = itemX[before] - x, by = itemY[before] - y;
+        double ax = itemX[after] - x, ay = itemY[after] - y;
+        double before2 = bx * bx + by * by, after2 = ax * ax + ay * ay;
+        return before2 < after2 || (before2 == after2 && items[before] < items[after]) ? before : after;
+    }
+
+    /**
+     * Finds the agent with the lowest Population index that is within radius of location xy.
+     * Only the cells that overlap the circle are visited.
+     * @param x X location to search from
+     * @param y Y location to search from
+     * @param radius how close an agent must be
+     * @return index of the agent in the Population, or -1 if no agent is within radius
+     */
+    public int firstWithin(double x, double y, double radius) {
+        double reach = radius + slack;
+        int left = column(x - reach), right = column(x + reach);
+        int top = row(y - reach), bottom = row(y + reach);
+        double radius2 = radius * radius;
+        int first = -1;
+        for (int row = top; row <= bottom; row++) {
+            // The cells of a row are one run of agents
+            int from = cellStart[row * cols + left], to = cellStart[row * cols + right + 1];
+            if (from == to) {
+                continue;
+            }
+            int k = kernel.firstWithin(itemX, itemY, items, from, to, x, y, radius2);
+            if (k >= 0 && (first < 0 || items[k] < first)) {
+                first = items[k];
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Returns the cell that location xy falls in. Locations outside the world are put in the
+     * nearest edge cell.
+     */
+    private int cellOf(double x, double y) {
+        return row(y) * cols + column(x);
+    }
+
+    private int column(double x) {
+        int col = (int) (x / cellSize);
+        return col < 0 ? 0 : (col >= cols ? cols - 1 : col);
+    }
+
+    private int row(double y) {
+        int row = (int) (y / cellSize);
+        return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+    }
+
+    /**
+     * Changes how far agents may move between rebuilds
+     * @param slack furthest distance an agent can move in one tick
+     */
+    public void setSlack(double slack) {
+        this.slack = slack;
+    }
+
+    /**
+     * Changes the kernel that works out the distances to the agents in a run of cells
+     * @param kernel the kernel to use
+     */
+    public void setKernel(DistanceKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    /**
+     * Returns the number of agents in the grid when it was last rebuilt
+     * @return number of agents in the grid
+     */
+    public int size() {
+        return this.itemCount;
+    }
+
+    /**
+     * Returns the current width (and height) of a cell
+     * @return cell size
+     */
+    public double getCellSize() {
+        return this.cellSize;
+    }
+}
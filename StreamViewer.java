@@ -0,0 +1,289 @@
+package ZombieSimulator;
+
+import java.awt.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import javax.swing.*;
+
+/**
+ *
+ * This class watches a simulation streamed by a FrameServer, possibly on another machine, in the
+ * same DrawPanel that shows the live simulation. Nothing is simulated: a reader thread decodes each
+ * frame as it arrives into a FrameDecoder and publishes it to the panel's SnapshotBuffer, and a Swing
+ * Timer repaints the latest one. The label shows the tick, the counts and how many frames and bytes
+ * arrive each second.
+ *
+ * The server always starts a viewer off with a keyframe, so the first frame can be drawn straight
+ * away, and leaves frames out rather than sending them late, so the view keeps up with the
+ * simulation.
+ */
+public class StreamViewer extends JPanel {
+    // Largest starting size of the view, bigger worlds are zoomed out to fit
+    private static final int MAX_WINDOW = 800;
+
+    private final Connection connection;
+    private final MainGUI.DrawPanel drawPanel;
+    private final JLabel tickLabel;
+    private final Timer timer;
+    // Written by the reader thread, read by the timer
+    private volatile long tick;
+    private volatile int humans, zombies;
+    private volatile boolean ended = false;
+    private long lastReportTime, lastReportFrames, lastReportBytes;
+    private double framesPerSecond, kilobytesPerSecond;
+
+    /**
+     * Creates a viewer for a stream whose first frame has been decoded, and starts reading the rest
+     * @param connection the Connection to the FrameServer
+     * @param decoder the FrameDecoder holding the first frame, which is then only used by the reader
+     * @param framesPerSecond how many times to repaint each second
+     * @param raster true to draw with the RasterRenderer, false to draw each agent with Java2D
+     */
+    public StreamViewer(Connection connection, FrameDecoder decoder, int framesPerSecond, boolean raster) {
+        super(new BorderLayout());
+        this.connection = connection;
+        // The World is never ticked, it only gives the panel the streamed agents' size to draw
+        World world = new World(decoder.getWidth(), decoder.getHeight(), connection.getSeed(), connection.getParameters());
+        drawPanel = new MainGUI.DrawPanel(world);
+        drawPanel.setRasterRendering(raster);
+        drawPanel.setPreferredSize(new Dimension(Math.min(MAX_WINDOW, decoder.getWidth()),
+                Math.min(MAX_WINDOW, decoder.getHeight())));
+        add(drawPanel, BorderLayout.CENTER);
+        JPanel southPanel = new JPanel();
+        tickLabel = new JLabel();
+        southPanel.add(tickLabel);
+        add(southPanel, BorderLayout.SOUTH);
+        show(decoder);
+
+        Thread reader = new Thread(() -> read(decoder), "stream-viewer");
+        reader.setDaemon(true);
+        reader.start();
+        timer = new Timer(Math.max(1, 1000 / Math.max(1, framesPerSecond)), e -> repaintLatest());
+        lastReportTime = System.nanoTime();
+        timer.start();
+    }
+
+    /**
+     * Decodes frames until the stream ends, handing each one to the panel
+     */
+    private void read(FrameDecoder decoder) {
+        try {
+            while (connection.next(decoder)) {
+                show(decoder);
+            }
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getMessage() + ": " + e.getCause());
+        } finally {
+            ended = true;
+            connection.close();
+        }
+    }
+
+    private void show(FrameDecoder decoder) {
+        drawPanel.getSnapshots().publish(decoder);
+        tick = decoder.getTick();
+        humans = decoder.getHumanCount();
+        zombies = decoder.getZombieCount();
+    }
+
+    /**
+     * Repaints the latest frame and, once a second, works out how fast frames are arriving
+     */
+    private void repaintLatest() {
+        long now = System.nanoTime();
+        if (now - lastReportTime >= 1_000_000_000L) {
+            double seconds = (now - lastReportTime) / 1e9;
+            long frames = connection.getFrameCount(), bytes = connection.getBytes();
+            framesPerSecond = (frames - lastReportFrames) / seconds;
+            kilobytesPerSecond = (bytes - lastReportBytes) / seconds / 1e3;
+            lastReportTime = now;
+            lastReportFrames = frames;
+            lastReportBytes = bytes;
+        }
+        tickLabel.setText(String.format("tick %d  humans %d  zombies %d  %.0f frames/s  %.0f kB/s%s", tick,
+                humans, zombies, framesPerSecond, kilobytesPerSecond, ended ? "  (stream ended)" : ""));
+        drawPanel.repaint();
+    }
+
+    /**
+     * Reads a stream without drawing it, until it ends or enough frames have arrived, and prints
+     * how fast frames arrived and how big they were
+     * @param address host:port of the FrameServer
+     * @param frames most frames to read, or 0 to read until the stream ends
+     */
+    public static void watchHeadless(String address, long frames) {
+        try (Connection connection = new Connection(address)) {
+            FrameDecoder decoder = new FrameDecoder();
+            long agentFrames = 0, firstTick = -1;
+            long start = System.nanoTime();
+            while ((frames == 0 || connection.getFrameCount() < frames) && connection.next(decoder)) {
+                agentFrames += decoder.size();
+                if (firstTick < 0) {
+                    firstTick = decoder.getTick();
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long received = connection.getFrameCount();
+            System.out.printf("Received %d frames (%d keyframes, ticks %d to %d) in %.3f s: %.0f frames/s, %.1f kB/s, %.2f bytes per agent per frame (humans=%d zombies=%d)%n",
+                    received, connection.getKeyframeCount(), firstTick, decoder.getTick(), seconds, received / seconds,
+                    connection.getBytes() / seconds / 1e3, (double) connection.getBytes() / Math.max(1, agentFrames),
+                    decoder.getHumanCount(), decoder.getZombieCount());
+        }
+    }
+
+    /**
+     * Opens a window that shows a stream
+     * @param address host:port of the FrameServer
+     * @param framesPerSecond how many times to repaint each second
+     * @param raster true to draw with the RasterRenderer, false to draw each agent with Java2D
+     */
+    public static void open(String address, int framesPerSecond, boolean raster) {
+        Connection connection = new Connection(address);
+        FrameDecoder decoder = new FrameDecoder();
+        if (!connection.next(decoder)) {
+            connection.close();
+            throw new IllegalStateException("The stream from " + address + " ended before its first frame");
+        }
+        SwingUtilities.invokeLater(() -> {
+            JFrame frame = new JFrame("Zombie Simulator stream: " + address);
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            frame.getContentPane().add(new StreamViewer(connection, decoder, framesPerSecond, raster));
+            frame.pack();
+            frame.setVisible(true);
+        });
+    }
+
+    /**
+     * A connection to a FrameServer, which reads the stream's hello and then one frame at a time
+     */
+    public static final class Connection implements Closeable {
+        // A keyframe of 100 million agents is 900 MB
+        static final int MAX_FRAME_BYTES = 1 << 30;
+        private final SocketChannel channel;
+        private final String address;
+        private final long seed;
+        private final AgentParameters parameters;
+        private ByteBuffer frame = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        // Only written by the thread reading the stream
+        private volatile long frames = 0, keyframes = 0, bytes = 0;
+
+        /**
+         * Connects to a FrameServer and reads the hello
+         * @param address host:port of the FrameServer
+         */
+        public Connection(String address) {
+            this.address = address;
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("A stream address must be host:port: " + address);
+            }
+            try {
+                channel = SocketChannel.open(new InetSocketAddress(address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1))));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not connect to " + address, e);
+            }
+            ByteBuffer hello = ByteBuffer.allocate(FrameServer.HELLO_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(hello) || hello.getInt(0) != FrameServer.MAGIC) {
+                close();
+                throw new IllegalStateException(address + " is not a Zombie Simulator frame server");
+            }
+            if (hello.getInt(4) != FrameServer.VERSION || hello.getInt(8) != FrameEncoder.SUBPIXELS) {
+                close();
+                throw new IllegalStateException("Unsupported stream version " + hello.getInt(4) + " from " + address);
+            }
+            seed = hello.getLong(16);
+            parameters = new AgentParameters(hello.getDouble(24), hello.getDouble(32), hello.getInt(40), hello.getDouble(44));
+        }
+
+        /**
+         * Reads the next frame and applies it to a decoder
+         * @param decoder the FrameDecoder to apply the frame to
+         * @return false if the stream has ended
+         */
+        public boolean next(FrameDecoder decoder) {
+            frame.clear().limit(4);
+            if (!readFully(frame)) {
+                return false;
+            }
+            int length = frame.getInt(0);
+            if (length < FrameEncoder.HEADER_BYTES || length > MAX_FRAME_BYTES) {
+                throw new IllegalStateException("Corrupt frame of " + length + " bytes from " + address);
+            }
+            frame.position(4);
+            // Grow the buffer as the bytes arrive rather than trusting the length up front
+            while (frame.capacity() < length) {
+                frame.limit(frame.capacity());
+                if (!readFully(frame)) {
+                    return false;
+                }
+                frame = ByteBuffer.allocate((int) Math.min(length, frame.capacity() * 2L)).order(ByteOrder.LITTLE_ENDIAN)
+                        .put(frame.flip());
+            }
+            frame.limit(length);
+            if (!readFully(frame)) {
+                return false;
+            }
+            if (FrameDecoder.isKeyframe(frame, 0)) {
+                keyframes++;
+            }
+            decoder.decode(frame, 0);
+            frames++;
+            bytes += length;
+            return true;
+        }
+
+        /**
+         * Fills the rest of a buffer from the socket
+         * @return false if the stream ended first
+         */
+        private boolean readFully(ByteBuffer buffer) {
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the stream from " + address, e);
+            }
+        }
+
+        // Getters
+
+        public long getSeed() {
+            return this.seed;
+        }
+
+        public AgentParameters getParameters() {
+            return this.parameters;
+        }
+
+        public long getFrameCount() {
+            return this.frames;
+        }
+
+        public long getKeyframeCount() {
+            return this.keyframes;
+        }
+
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not close the stream from " + address, e);
+            }
+        }
+    }
+}
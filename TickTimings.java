@@ -0,0 +1,62 @@
+package ZombieSimulator;
+
+/**
+ *
+ * This class holds how long each part of the last tick took, in nanoseconds, and how many infected
+ * humans were converted. The parts are named after what the agents do in them:
+ * - grid: adding queued spawns and rebuilding the human and zombie grids
+ * - pursuit: the plan phase, where every agent picks its direction (zombies chase the nearest
+ *   human, humans run from the nearest zombie) and zombies publish the humans they touch
+ * - infection: checkKill(), which converts the published victims
+ * - movement: the commit phase, where pushes are applied and every agent moves
+ *
+ * The World (or AgentThreads) writes these at the end of every tick on the ticking thread, and
+ * listeners such as SimulationMetrics read them straight after on the same thread.
+ */
+public class TickTimings {
+    private long gridNanos, pursuitNanos, infectionNanos, movementNanos;
+    private int conversions;
+
+    /**
+     * Stores the timings of the tick that has just finished
+     */
+    void record(long gridNanos, long pursuitNanos, long infectionNanos, long movementNanos, int conversions) {
+        this.gridNanos = gridNanos;
+        this.pursuitNanos = pursuitNanos;
+        this.infectionNanos = infectionNanos;
+        this.movementNanos = movementNanos;
+        this.conversions = conversions;
+    }
+
+    public long getGridNanos() {
+        return this.gridNanos;
+    }
+
+    public long getPursuitNanos() {
+        return this.pursuitNanos;
+    }
+
+    public long getInfectionNanos() {
+        return this.infectionNanos;
+    }
+
+    public long getMovementNanos() {
+        return this.movementNanos;
+    }
+
+    /**
+     * Returns the whole tick, the sum of its parts
+     * @return tick duration in nanoseconds
+     */
+    public long getTickNanos() {
+        return gridNanos + pursuitNanos + infectionNanos + movementNanos;
+    }
+
+    /**
+     * Returns the number of infection events that were waiting to be converted by checkKill()
+     * @return pending conversions drained in the last tick
+     */
+    public int getConversions() {
+        return this.conversions;
+    }
+}
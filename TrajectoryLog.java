@@ -0,0 +1,162 @@
+package ZombieSimulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * This class records a run into an append-only binary log, one frame per tick, so that it can be
+ * watched again later with a TrajectoryReader and the ReplayViewer without running the simulation.
+ * Each frame is written by a FrameEncoder: a keyframe every keyframeEvery ticks (so a replay can jump
+ * to any tick quickly) and small deltas in between that hold how far every agent moved, which humans
+ * were infected and which agents were spawned.
+ *
+ * The file starts with a one page header (the world seed, the agent size and the end of the last
+ * complete frame) and frames are appended after it through a memory mapping, so writing a frame is
+ * a copy into memory and the operating system writes it to disk in the background. The end in the
+ * header is only moved past a frame once the whole frame has been written, so a reader (even one
+ * reading while the run is still being recorded) never sees half a frame.
+ *
+ * Runs are already deterministic: every agent's random choices come from the world seed and the
+ * agent's index, and a tick gives the same result on any number of threads. A log also records the
+ * things that come from outside the simulation, like agents added with the GUI's buttons and
+ * window size changes, so a replay always shows exactly what happened.
+ */
+public class TrajectoryLog implements SimulationEngine.TickListener, Closeable {
+    // "ZTRJ"
+    static final int MAGIC = 0x5A54524A;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4096;
+    // Where each value is kept in the header
+    static final int MAGIC_AT = 0, VERSION_AT = 4, SUBPIXELS_AT = 8, KEYFRAME_EVERY_AT = 12, SEED_AT = 16,
+            END_AT = 24, FRAMES_AT = 32, HUMAN_SPEED_AT = 40, SPEED_RATIO_AT = 48, SIGHT_DISTANCE_AT = 56,
+            SIZE_AT = 64;
+    // Frames are appended through mappings of at least this many bytes
+    private static final int MAPPING_SIZE = 1 << 26;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int keyframeEvery;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final WorldSnapshot snapshot = new WorldSnapshot();
+    private MappedByteBuffer mapping;
+    private long mappingStart, end = HEADER_SIZE;
+    private long frames = 0;
+
+    /**
+     * Creates a new log, replacing any file at the path, and records the world as it is now as the
+     * first frame
+     * @param path the file to write
+     * @param world the World that is going to be recorded
+     * @param keyframeEvery write a keyframe every this many frames
+     */
+    public TrajectoryLog(Path path, World world, int keyframeEvery) {
+        if (keyframeEvery < 1) {
+            throw new IllegalArgumentException("keyframeEvery must be >= 1: " + keyframeEvery);
+        }
+        this.path = path;
+        this.keyframeEvery = keyframeEvery;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create trajectory log " + path, e);
+        }
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        AgentParameters parameters = world.getParameters();
+        header.putInt(MAGIC_AT, MAGIC);
+        header.putInt(VERSION_AT, VERSION);
+        header.putInt(SUBPIXELS_AT, FrameEncoder.SUBPIXELS);
+        header.putInt(KEYFRAME_EVERY_AT, keyframeEvery);
+        header.putLong(SEED_AT, world.getPopulation().getSeed());
+        header.putDouble(HUMAN_SPEED_AT, parameters.getHumanSpeed());
+        header.putDouble(SPEED_RATIO_AT, parameters.getSpeedRatio());
+        header.putInt(SIGHT_DISTANCE_AT, parameters.getSightDistance());
+        header.putDouble(SIZE_AT, parameters.getSize());
+        header.putLong(END_AT, end);
+        header.putLong(FRAMES_AT, frames);
+        record(world);
+    }
+
+    /**
+     * Records the world as one frame. The world is copied while holding its lock, and encoded and
+     * appended after the lock has been let go.
+     * @param world the World to record
+     */
+    public synchronized void record(World world) {
+        synchronized (world) {
+            snapshot.copyFrom(world, frames);
+        }
+        ByteBuffer frame = encoder.encode(snapshot, frames % keyframeEvery == 0);
+        int length = frame.remaining();
+        if (mapping == null || end + length > mappingStart + mapping.capacity()) {
+            map(end, Math.max(MAPPING_SIZE, length));
+        }
+        mapping.put((int) (end - mappingStart), frame, 0, length);
+        end += length;
+        frames++;
+        header.putLong(END_AT, end);
+        header.putLong(FRAMES_AT, frames);
+    }
+
+    @Override
+    public void tickCompleted(World world, long tick) {
+        record(world);
+    }
+
+    /**
+     * Maps the next part of the file to append frames to. Mapping past the end of the file makes
+     * the file longer, and the end in the header says where the frames stop.
+     */
+    private void map(long start, long size) {
+        try {
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+            mappingStart = start;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map trajectory log " + path, e);
+        }
+    }
+
+    /**
+     * Returns the number of frames recorded so far
+     * @return number of frames
+     */
+    public synchronized long getFrameCount() {
+        return this.frames;
+    }
+
+    /**
+     * Returns the number of bytes of frames recorded so far, including the header
+     * @return size of the log in bytes
+     */
+    public synchronized long getSize() {
+        return this.end;
+    }
+
+    /**
+     * Writes everything to disk, cuts off the mapped space after the last frame and closes the file
+     */
+    @Override
+    public synchronized void close() {
+        if (mapping != null) {
+            mapping.force();
+        }
+        header.force();
+        mapping = null;
+        try {
+            channel.truncate(end);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close trajectory log " + path, e);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ZombieSimulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ *
+ * This class reads back a run recorded by a TrajectoryLog. When it is opened, it walks the frame
+ * headers once to find where every frame starts and which frames are keyframes. After that any
+ * frame can be shown: seek() decodes from the nearest keyframe at or before the frame (or carries on
+ * from the frame it is already at, when playing forwards), so jumping anywhere in a long run only
+ * decodes up to keyframeEvery frames, and playing forwards decodes one frame per step.
+ *
+ * The file is read through read-only memory mappings of at least MAPPING_SIZE bytes, so playing a
+ * run only maps a new part of the file every so often and never copies frames onto the Java heap.
+ */
+public class TrajectoryReader implements Closeable {
+    // The file is read through mappings of at least this many bytes
+    private static final int MAPPING_SIZE = 1 << 26;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final AgentParameters parameters;
+    private final long seed;
+    private final int keyframeEvery;
+    private long[] offsets;
+    private boolean[] keyframes;
+    private long[] ticks;
+    private int frameCount;
+    private MappedByteBuffer mapping;
+    private long mappingStart, mappingEnd;
+    // Frame the decoder is at, or -1 if it has not decoded anything yet
+    private int current = -1;
+
+    /**
+     * Opens a log and finds every frame in it
+     * @param path the file written by a TrajectoryLog
+     */
+    public TrajectoryReader(Path path) {
+        this.path = path;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            fileSize = channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open trajectory log " + path, e);
+        }
+        if (fileSize < TrajectoryLog.HEADER_SIZE) {
+            throw new IllegalStateException(path + " is not a trajectory log");
+        }
+        MappedByteBuffer header = map(0, TrajectoryLog.HEADER_SIZE);
+        if (header.getInt(TrajectoryLog.MAGIC_AT) != TrajectoryLog.MAGIC
+                || header.getInt(TrajectoryLog.VERSION_AT) != TrajectoryLog.VERSION
+                || header.getInt(TrajectoryLog.SUBPIXELS_AT) != FrameEncoder.SUBPIXELS) {
+            throw new IllegalStateException(path + " is not a trajectory log");
+        }
+        keyframeEvery = header.getInt(TrajectoryLog.KEYFRAME_EVERY_AT);
+        seed = header.getLong(TrajectoryLog.SEED_AT);
+        parameters = new AgentParameters(header.getDouble(TrajectoryLog.HUMAN_SPEED_AT),
+                header.getDouble(TrajectoryLog.SPEED_RATIO_AT), header.getInt(TrajectoryLog.SIGHT_DISTANCE_AT),
+                header.getDouble(TrajectoryLog.SIZE_AT));
+        long end = header.getLong(TrajectoryLog.END_AT);
+        int frames = (int) header.getLong(TrajectoryLog.FRAMES_AT);
+        offsets = new long[frames];
+        keyframes = new boolean[frames];
+        ticks = new long[frames];
+        long at = TrajectoryLog.HEADER_SIZE;
+        while (at < end && frameCount < frames) {
+            window(at, FrameEncoder.HEADER_BYTES);
+            int p = (int) (at - mappingStart);
+            offsets[frameCount] = at;
+            keyframes[frameCount] = FrameDecoder.isKeyframe(mapping, p);
+            ticks[frameCount] = mapping.getLong(p + 5);
+            frameCount++;
+            at += mapping.getInt(p);
+        }
+    }
+
+    /**
+     * Decodes the given frame into the decoder. The decoder must only be used with this reader.
+     * @param frame number of the frame, from 0 to getFrameCount() - 1
+     * @param decoder the FrameDecoder to decode into
+     */
+    public void seek(int frame, FrameDecoder decoder) {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("frame " + frame + " of " + frameCount);
+        }
+        int key = frame;
+        while (!keyframes[key]) {
+            key--;
+        }
+        int from = (current >= key && current <= frame) ? current + 1 : key;
+        for (int f = from; f <= frame; f++) {
+            long at = offsets[f];
+            int length = (int) ((f + 1 < frameCount ? offsets[f + 1] : endOf(f)) - at);
+            window(at, length);
+            decoder.decode(mapping, (int) (at - mappingStart));
+        }
+        current = frame;
+    }
+
+    /**
+     * Returns where the last frame ends, by reading its length
+     */
+    private long endOf(int frame) {
+        window(offsets[frame], 4);
+        return offsets[frame] + mapping.getInt((int) (offsets[frame] - mappingStart));
+    }
+
+    /**
+     * Makes sure the bytes from at to at + length are mapped
+     */
+    private void window(long at, int length) {
+        if (mapping == null || at < mappingStart || at + length > mappingEnd) {
+            long size = Math.min(Math.max(MAPPING_SIZE, length), fileSize - at);
+            mapping = map(at, size);
+            mappingStart = at;
+            mappingEnd = at + size;
+        }
+    }
+
+    private MappedByteBuffer map(long at, long size) {
+        try {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, at, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return mapped;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map trajectory log " + path, e);
+        }
+    }
+
+    /**
+     * Returns the number of the last frame at or before the given tick
+     * @param tick a tick of the recorded run
+     * @return frame number, or 0 if the tick is before the first frame
+     */
+    public int frameAt(long tick) {
+        int found = Arrays.binarySearch(ticks, 0, frameCount, tick);
+        return found >= 0 ? found : Math.max(0, -found - 2);
+    }
+
+    /**
+     * Returns the tick a frame was recorded at
+     * @param frame number of the frame
+     * @return tick count of the frame
+     */
+    public long getTick(int frame) {
+        return this.ticks[frame];
+    }
+
+    /**
+     * Returns the number of complete frames in the log
+     * @return number of frames
+     */
+    public int getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * Returns the parameters the recorded agents had, which decide how big they are drawn
+     * @return the recorded AgentParameters
+     */
+    public AgentParameters getParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * Returns the seed of the recorded world
+     * @return the world seed
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Returns how often a keyframe was written
+     * @return frames between keyframes
+     */
+    public int getKeyframeEvery() {
+        return this.keyframeEvery;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close trajectory log " + path, e);
+        }
+    }
+}
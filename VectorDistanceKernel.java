@@ -0,0 +1,124 @@
+package ZombieSimulator;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ *
+ * This class is the DistanceKernel built on the Vector API (jdk.incubator.vector), which works out
+ * the squared distance to as many candidates at once as the CPU's widest registers hold (8 doubles
+ * with AVX-512, 4 with AVX2). Whole blocks are loaded straight from the candidates' locations and
+ * the few candidates left at the end of a run are done one at a time.
+ *
+ * nearest() first finds the smallest squared distance in the whole blocks and then, in a second
+ * pass, the lowest Population index with that distance. The distances are worked out with the same
+ * subtractions, multiplications and addition as ScalarDistanceKernel, never fused, so both kernels
+ * always pick the same candidate.
+ *
+ * The class can only be loaded when the jdk.incubator.vector module is in the JVM, so it should
+ * only be created through DistanceKernel.preferred() or DistanceKernel.named().
+ */
+public class VectorDistanceKernel implements DistanceKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public int nearest(double[] xs, double[] ys, int[] ids, int from, int to, double x, double y) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int best = bound > from ? nearestInBlocks(xs, ys, ids, from, bound, x, y) : -1;
+        double bestDist2 = Double.POSITIVE_INFINITY;
+        if (best >= 0) {
+            double ddx = xs[best] - x, ddy = ys[best] - y;
+            bestDist2 = ddx * ddx + ddy * ddy;
+        }
+        for (int k = bound; k < to; k++) {
+            double ddx = xs[k] - x, ddy = ys[k] - y;
+            double dist2 = ddx * ddx + ddy * ddy;
+            if (best < 0 || dist2 < bestDist2 || (dist2 == bestDist2 && ids[k] < ids[best])) {
+                best = k;
+                bestDist2 = dist2;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public int firstWithin(double[] xs, double[] ys, int[] ids, int from, int to, double x, double y, double radius2) {
+        int bound = from + SPECIES.loopBound(to - from);
+        int first = bound > from ? firstWithinBlocks(xs, ys, ids, from, bound, x, y, radius2) : -1;
+        for (int k = bound; k < to; k++) {
+            double ddx = xs[k] - x, ddy = ys[k] - y;
+            if (ddx * ddx + ddy * ddy <= radius2 && (first < 0 || ids[k] < ids[first])) {
+                first = k;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * nearest() over whole blocks only, from to bound. Kept out of nearest() so that nearest() stays
+     * small enough for the JIT to inline into the grid's search, where most runs are too short to
+     * fill a block.
+     */
+    private static int nearestInBlocks(double[] xs, double[] ys, int[] ids, int from, int bound, double x, double y) {
+        int lanes = SPECIES.length();
+        DoubleVector vx = DoubleVector.broadcast(SPECIES, x), vy = DoubleVector.broadcast(SPECIES, y);
+        DoubleVector min = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        for (int k = from; k < bound; k += lanes) {
+            min = min.min(distance2(xs, ys, k, vx, vy));
+        }
+        double nearest = min.reduceLanes(VectorOperators.MIN);
+        // Second pass: the candidate with the lowest Population index at that distance
+        int best = -1;
+        for (int k = from; k < bound; k += lanes) {
+            VectorMask<Double> hits = distance2(xs, ys, k, vx, vy).compare(VectorOperators.EQ, nearest);
+            best = lowestId(hits.toLong(), ids, k, best);
+        }
+        return best;
+    }
+
+    /**
+     * firstWithin() over whole blocks only, from to bound, like nearestInBlocks()
+     */
+    private static int firstWithinBlocks(double[] xs, double[] ys, int[] ids, int from, int bound, double x, double y,
+                                         double radius2) {
+        int lanes = SPECIES.length();
+        DoubleVector vx = DoubleVector.broadcast(SPECIES, x), vy = DoubleVector.broadcast(SPECIES, y);
+        int first = -1;
+        for (int k = from; k < bound; k += lanes) {
+            VectorMask<Double> hits = distance2(xs, ys, k, vx, vy).compare(VectorOperators.LE, radius2);
+            first = lowestId(hits.toLong(), ids, k, first);
+        }
+        return first;
+    }
+
+    /**
+     * Squared distances from vx/vy to the whole block of candidates that starts at k
+     */
+    private static DoubleVector distance2(double[] xs, double[] ys, int k, DoubleVector vx, DoubleVector vy) {
+        DoubleVector ddx = DoubleVector.fromArray(SPECIES, xs, k).sub(vx);
+        DoubleVector ddy = DoubleVector.fromArray(SPECIES, ys, k).sub(vy);
+        return ddx.mul(ddx).add(ddy.mul(ddy));
+    }
+
+    /**
+     * Goes through the lanes set in hits (lane l is candidate k + l) and returns the candidate with
+     * the lowest Population index, counting best (a candidate from an earlier block, or -1) as well
+     */
+    private static int lowestId(long hits, int[] ids, int k, int best) {
+        while (hits != 0) {
+            int candidate = k + Long.numberOfTrailingZeros(hits);
+            if (best < 0 || ids[candidate] < ids[best]) {
+                best = candidate;
+            }
+            hits &= hits - 1;
+        }
+        return best;
+    }
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+}
@@ -0,0 +1,931 @@
+package ZombieSimulator;
+
+import java.nio.IntBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * This class owns everything that lives in the Zombie Simulator: the Population of humans and
+ * zombies and the dimensions of the world they move around in. The World does not run by itself,
+ * a SimulationEngine calls tick() to advance every human and zombie by exactly one step. Keeping
+ * the agents in one place (instead of one thread per agent) means the same simulation can be
+ * drawn by the GUI or run headless without a window.
+ *
+ * Agents are stored in a Population (parallel arrays of positions, directions, step counters and
+ * states). The World holds one Human and one Zombie object which hold the behaviour for every
+ * agent, and tick() runs linear scans over the Population that call the right behaviour for each
+ * agent's state.
+ *
+ * Each tick is split into phases so that agents can be updated in parallel without locks:
+ * 1) plan: every agent decides its new direction, only reading other agents' positions and states
+ *    from the last tick. A zombie that touches a human claims it in an atomic array (the lowest
+ *    zombie index wins) and the first claim on each human publishes an infection event to the
+ *    InfectionQueue. A zombie also claims the human it pushes into running away.
+ * 2) checkKill: the infection events are drained as one batch and every victim is flipped to
+ *    ZOMBIE in place
+ * 3) commit: every pushed human takes its zombie's direction and every agent moves
+ * An agent only ever writes its own slots in the plan and commit phases, and the lowest zombie
+ * index always wins a claim, so a tick gives exactly the same result on one thread or on a
+ * ForkJoinPool of any size. With setParallelism() the plan and commit phases are split into chunks
+ * of the Population and run on the pool.
+ *
+ * Agents added from other threads (like the GUI's buttons) should use spawnHuman()/spawnZombie(),
+ * which put the new agent on a lock-free queue that the World empties at the start of the next
+ * tick, so the caller never waits for a tick to finish and never changes the Population while a
+ * tick is reading it. requestSize() does the same for the world bounds. Observers read the World
+ * through WorldSnapshots published by a SnapshotBuffer instead of the live Population. Methods
+ * that read or change the Population directly are synchronized on the World.
+ */
+public class World {
+    // Value of an unclaimed slot in the claim arrays, larger than any zombie index
+    private static final int UNCLAIMED = Integer.MAX_VALUE;
+    // Value of pendingSize when no new size has been asked for
+    private static final long NO_PENDING_SIZE = -1;
+    // Fewest agents handed to one fork/join task, smaller chunks cost more to schedule than to run
+    private static final int MIN_CHUNK = 1024;
+    // Fingerprint of an open world's walls
+    static final long NO_WALLS = 0;
+    static final int PLAN = 0, COMMIT = 1;
+
+    private final Population population;
+    private final AgentParameters parameters;
+    private final Human human;
+    private final Zombie zombie;
+    // Grids over humans and over zombies, rebuilt at the start of every tick
+    private final SpatialGrid humanGrid;
+    private final SpatialGrid zombieGrid;
+    // Works out the distances inside the grids' searches
+    private DistanceKernel distanceKernel = DistanceKernel.preferred();
+    // Distance fields to the nearest human and zombie, or null when agents search the grids instead
+    private FlowField pursuitField, threatField;
+    private int flowFieldEvery = 0;
+    private long fieldsBuiltAt = -1;
+    // Fingerprint of the walls the fields were built around, NO_WALLS for an open world
+    private long fieldsWalls = NO_WALLS;
+    // Walls agents bounce off and the flow fields route around, or null for an open world
+    private ObstacleMap obstacles;
+    private int width, height;
+    private long tickCount = 0;
+    // Pool used to run each phase in parallel, or null to run phases on the calling thread
+    private ForkJoinPool pool;
+    private int parallelism = 1;
+    private PhaseTask rootTask;
+    private PhaseDone phaseDone;
+    private final List<Thread> workerThreads = new CopyOnWriteArrayList<>();
+    // Claimed in the plan phase: for each human, the lowest zombie infecting or pushing it
+    private AtomicIntegerArray infectedBy = new AtomicIntegerArray(0);
+    private AtomicIntegerArray pushedBy = new AtomicIntegerArray(0);
+    private int claimCapacity = 0;
+    // Humans infected during the plan phase, drained by checkKill()
+    private final InfectionQueue infectionQueue = new InfectionQueue();
+    // Agents waiting to be added at the start of the next tick
+    private final ConcurrentLinkedQueue<Spawn> pendingSpawns = new ConcurrentLinkedQueue<>();
+    private final TickTimings timings = new TickTimings();
+    private final ListenerArray<InfectionListener> infectionListeners = new ListenerArray<>(new InfectionListener[0]);
+    // Size asked for by requestSize(), width in the high half and height in the low half
+    private final AtomicLong pendingSize = new AtomicLong(NO_PENDING_SIZE);
+
+    /**
+     * Observers implement this interface to be told about every human that is turned into a zombie.
+     * Listeners are called on the engine thread, once per victim, during checkKill().
+     */
+    public interface InfectionListener {
+        void humanInfected(int victim, int zombie, long tick);
+    }
+
+    /**
+     * Creates an empty world with the given dimensions and a random seed
+     * @param width width of the world
+     * @param height height of the world
+     */
+    public World(int width, int height) {
+        this(width, height, System.nanoTime());
+    }
+
+    /**
+     * Creates an empty world with the given dimensions. Two worlds created with the same seed and
+     * given the same agents make the same random choices.
+     * @param width width of the world
+     * @param height height of the world
+     * @param seed seed for every agent's random number stream
+     */
+    public World(int width, int height, long seed) {
+        this(width, height, seed, AgentParameters.DEFAULT);
+    }
+
+    /**
+     * Creates an empty world whose humans and zombies behave according to the given parameters
+     * @param width width of the world
+     * @param height height of the world
+     * @param seed seed for every agent's random number stream
+     * @param parameters speeds, sight distance and size of the agents
+     */
+    public World(int width, int height, long seed, AgentParameters parameters) {
+        this(width, height, parameters, new Population(1024, seed), 0);
+    }
+
+    /**
+     * Creates a world around a Population that already holds agents, for example one restored from
+     * a WorldFile
+     * @param width width of the world
+     * @param height height of the world
+     * @param parameters speeds, sight distance and size of the agents
+     * @param population the agents
+     * @param tickCount number of ticks the agents have already been through
+     */
+    World(int width, int height, AgentParameters parameters, Population population, long tickCount) {
+        this.width = width;
+        this.height = height;
+        this.parameters = parameters;
+        this.population = population;
+        this.tickCount = tickCount;
+        this.human = new Human(this);
+        this.zombie = new Zombie(this);
+        // A cell is two agents wide, and no agent moves further than a diagonal step of the fastest agent in one tick
+        double cellSize = 2 * human.getSize();
+        double fastest = Math.max(human.getMaxSpeed(), zombie.getMaxSpeed());
+        double slack = Math.hypot(fastest, fastest);
+        this.humanGrid = new SpatialGrid(population, Population.HUMAN, cellSize, slack);
+        this.zombieGrid = new SpatialGrid(population, Population.ZOMBIE, cellSize, slack);
+        setDistanceKernel(distanceKernel);
+    }
+
+    /**
+     * Changes the world bounds. Humans and zombies bounce off these bounds in
+     * checkWorldEdgeIntersect()
+     * @param width width of the world
+     * @param height height of the world
+     */
+    public synchronized void setSize(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        human.setWorldSize(width, height);
+        zombie.setWorldSize(width, height);
+        // The flow fields' cells depend on the size of the world
+        this.fieldsBuiltAt = -1;
+        if (obstacles != null) {
+            setObstacles(obstacles);
+        }
+    }
+
+    /**
+     * Asks for the world bounds to be changed at the start of the next tick. Safe to call from any
+     * thread, and never waits for the tick that is running. If it is called more than once before
+     * the next tick, the last size wins.
+     * @param width width of the world
+     * @param height height of the world
+     */
+    public void requestSize(int width, int height) {
+        pendingSize.set(((long) width << 32) | (height & 0xffffffffL));
+    }
+
+    /**
+     * Adds a new human to the world at location xy
+     * @param x X location of the human
+     * @param y Y location of the human
+     * @return index of the new human in the Population
+     */
+    public synchronized int addHuman(double x, double y) {
+        int i = population.add(x, y, Population.HUMAN);
+        human.initialise(i);
+        return i;
+    }
+
+    /**
+     * Adds a new zombie to the world at location xy
+     * @param x X location of the zombie
+     * @param y Y location of the zombie
+     * @return index of the new zombie in the Population
+     */
+    public synchronized int addZombie(double x, double y) {
+        int i = population.add(x, y, Population.ZOMBIE);
+        zombie.initialise(i);
+        return i;
+    }
+
+    /**
+     * Adds many new humans or zombies at once, straight into the Population with one bulk copy per
+     * column, which is much faster than calling addHuman() or addZombie() for each of them when
+     * seeding a large world. The agents end up exactly as if they had been added one at a time in
+     * the same order.
+     * @param state Population.HUMAN or Population.ZOMBIE
+     * @param xs X location of each agent
+     * @param ys Y location of each agent
+     * @param count number of agents to add, from the start of xs and ys
+     * @return index of the first new agent in the Population, the others follow it
+     */
+    public synchronized int addAgents(byte state, double[] xs, double[] ys, int count) {
+        int first = population.addAll(xs, ys, count, state);
+        Human behaviour = state == Population.HUMAN ? human : zombie;
+        for (int i = first, end = first + count; i < end; i++) {
+            behaviour.initialise(i);
+        }
+        return first;
+    }
+
+    /**
+     * Queues a new human to be added at location xy at the start of the next tick. Safe to call
+     * from any thread, and never waits for the tick that is running.
+     * @param x X location of the human
+     * @param y Y location of the human
+     */
+    public void spawnHuman(double x, double y) {
+        pendingSpawns.add(new Spawn(x, y, Population.HUMAN));
+    }
+
+    /**
+     * Queues a new zombie to be added at location xy at the start of the next tick. Safe to call
+     * from any thread, and never waits for the tick that is running.
+     * @param x X location of the zombie
+     * @param y Y location of the zombie
+     */
+    public void spawnZombie(double x, double y) {
+        pendingSpawns.add(new Spawn(x, y, Population.ZOMBIE));
+    }
+
+    /**
+     * Advances the world by one step. Queued spawns are added and the human and zombie grids are
+     * rebuilt from the current positions, then the plan phase, checkKill() and the commit phase are
+     * run over every agent, either on the calling thread or split across the ForkJoinPool. How
+     * long each part took is kept in the World's TickTimings.
+     */
+    public synchronized void tick() {
+        long start = System.nanoTime();
+        int n = beginTick();
+        long planStart = System.nanoTime();
+        runPhase(PLAN, n);
+        long killStart = System.nanoTime();
+        int conversions = checkKill();
+        long commitStart = System.nanoTime();
+        runPhase(COMMIT, n);
+        long end = System.nanoTime();
+        endTick();
+        timings.record(planStart - start, killStart - planStart, commitStart - killStart, end - commitStart, conversions);
+    }
+
+    /**
+     * Gets the world ready for a new tick: applies a requested size, adds queued spawns, makes room in the claim arrays and
+     * the infection queue, rebuilds the grids and lets the zombies check their target locks.
+     * @return number of agents taking part in this tick
+     */
+    protected int beginTick() {
+        long size = pendingSize.getAndSet(NO_PENDING_SIZE);
+        if (size != NO_PENDING_SIZE) {
+            setSize((int) (size >>> 32), (int) size);
+        }
+        Spawn spawn;
+        while ((spawn = pendingSpawns.poll()) != null) {
+            if (spawn.state == Population.HUMAN) {
+                addHuman(spawn.x, spawn.y);
+            } else {
+                addZombie(spawn.x, spawn.y);
+            }
+        }
+        int n = population.size();
+        ensureTickCapacity(n);
+        infectionQueue.ensureCapacity(n);
+        humanGrid.rebuild(width, height);
+        zombieGrid.rebuild(width, height);
+        zombie.beginTick(n, tickCount);
+        if (pursuitField != null && (fieldsBuiltAt < 0 || tickCount - fieldsBuiltAt >= flowFieldEvery)) {
+            pursuitField.rebuild(width, height);
+            threatField.rebuild(width, height);
+            fieldsBuiltAt = tickCount;
+            fieldsWalls = wallsFingerprint();
+        }
+        return n;
+    }
+
+    /**
+     * Finishes a tick once every agent has been committed
+     */
+    protected void endTick() {
+        tickCount++;
+    }
+
+    /**
+     * Drains every infection event published during the plan phase as one batch and turns each
+     * victim into a zombie in place: its state is flipped, it gets a new zombie speed direction and
+     * the zombie that claimed it (the lowest index that touched it) is reported to the infection
+     * listeners. Nothing is allocated and no thread is started per infection.
+     * 
+     * The events are sorted first so victims are always converted in the same order, whichever
+     * threads published them. Kills are not printed here: a KillLog listener records them and
+     * prints them on its own thread.
+     * @return number of infection events that were drained
+     */
+    protected int checkKill() {
+        int pending = infectionQueue.size();
+        if (pending == 0) {
+            return 0;
+        }
+        infectionQueue.sort();
+        int infected = 0;
+        InfectionListener[] listeners = infectionListeners.get();
+        for (int k = 0; k < pending; k++) {
+            int victim = infectionQueue.get(k);
+            int infector = infectedBy.get(victim);
+            infectedBy.set(victim, UNCLAIMED);
+            // An infected human does not run away, it turns around and walks as a zombie
+            pushedBy.set(victim, UNCLAIMED);
+            if (population.infect(victim)) {
+                zombie.initialise(victim);
+                if (obstacles != null) {
+                    zombie.checkWallIntersect(victim, obstacles);
+                }
+                infected++;
+                for (int l = 0; l < listeners.length; l++) {
+                    listeners[l].humanInfected(victim, infector, tickCount);
+                }
+            }
+        }
+        infectionQueue.clear();
+        population.countInfections(infected);
+        return pending;
+    }
+
+    /**
+     * Turns a human into a zombie between checkKill() and the commit phase, for an infection that
+     * was seen by another process, like a ShardWorker whose neighbour's zombie touched one of its
+     * humans near the border. The human is converted like a victim drained by checkKill(), except
+     * that the infection listeners are not told (the zombie is not in this World).
+     * @param victim index of the human
+     * @return true if the agent was a human and is now a zombie
+     */
+    boolean infectNow(int victim) {
+        if (!population.infect(victim)) {
+            return false;
+        }
+        pushedBy.set(victim, UNCLAIMED);
+        zombie.initialise(victim);
+        population.countInfections(1);
+        return true;
+    }
+
+    /**
+     * Runs one phase over agents 0 to n, in chunks on the pool if there is one
+     */
+    void runPhase(int phase, int n) {
+        if (pool == null) {
+            runRange(phase, 0, n);
+        } else {
+            int chunk = Math.max(MIN_CHUNK, n / (parallelism * 8));
+            if (rootTask == null) {
+                phaseDone = new PhaseDone();
+                rootTask = new PhaseTask(phaseDone);
+            }
+            phaseDone.reset(Thread.currentThread());
+            rootTask.reset(phase, 0, n, chunk);
+            pool.execute(rootTask);
+            // Parking instead of joining, since a blocked join creates a wait node every time
+            while (!phaseDone.finished) {
+                LockSupport.park(phaseDone);
+            }
+            Throwable failure = phaseDone.failure;
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
+
+    private void runRange(int phase, int from, int to) {
+        if (phase == PLAN) {
+            planRange(from, to);
+        } else {
+            commitRange(from, to);
+        }
+    }
+
+    /**
+     * Plan phase for agents from (inclusive) to (exclusive). Each agent decides its new direction,
+     * and zombies claim the human they are touching and the human they push. In a world with walls,
+     * a direction that leads into a wall is bounced off it here, before any zombie's direction is
+     * handed to a human it pushes.
+     * @param from first agent index
+     * @param to one past the last agent index
+     */
+    protected void planRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            Human behaviour = behaviourOf(i);
+            behaviour.planMove(i);
+            if (obstacles != null) {
+                behaviour.checkWallIntersect(i, obstacles);
+            }
+        }
+    }
+
+    /**
+     * Commit phase for agents from (inclusive) to (exclusive). A human that was pushed by a zombie
+     * takes the zombie's direction (and bounces off a wall it is pushed towards) and every agent
+     * moves by its direction. Each agent's push claim is cleared as it is used, ready for the next
+     * tick.
+     * @param from first agent index
+     * @param to one past the last agent index
+     */
+    protected void commitRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            int pusher = pushedBy.get(i);
+            if (pusher != UNCLAIMED) {
+                pushedBy.set(i, UNCLAIMED);
+                population.setDX(i, population.getDX(pusher));
+                population.setDY(i, population.getDY(pusher));
+                if (obstacles != null) {
+                    human.checkWallIntersect(i, obstacles);
+                }
+            }
+            population.advance(i);
+        }
+    }
+
+    /**
+     * Lowers the claim in slot to claimant if claimant is lower than the current claim. Retries
+     * with compare-and-set instead of locking, and the lowest claimant always ends up in the slot
+     * no matter what order the claims arrive in.
+     * @return true if the slot was unclaimed before, so this was the first claim this tick
+     */
+    private static boolean claimLowest(AtomicIntegerArray claims, int slot, int claimant) {
+        int current = claims.get(slot);
+        while (claimant < current) {
+            if (claims.compareAndSet(slot, current, claimant)) {
+                return current == UNCLAIMED;
+            }
+            current = claims.get(slot);
+        }
+        return false;
+    }
+
+    /**
+     * Called by a zombie during the plan phase when checkInfect() finds a human it is touching.
+     * The zombie claims the human, and if nobody had claimed it yet this tick, an infection event
+     * is published to the InfectionQueue for checkKill() to handle.
+     * @param zombie index of the zombie
+     * @param human index of the human
+     */
+    public void publishInfection(int zombie, int human) {
+        if (claimLowest(infectedBy, human, zombie)) {
+            infectionQueue.offer(human);
+        }
+    }
+
+    /**
+     * Called by a zombie during the plan phase when the human it is heading for has seen it. The
+     * human takes the direction of the lowest zombie that pushed it in the commit phase.
+     * @param zombie index of the zombie
+     * @param human index of the human
+     */
+    public void claimPush(int zombie, int human) {
+        claimLowest(pushedBy, human, zombie);
+    }
+
+    /**
+     * Registers an observer that is told about every infection
+     * @param listener the listener to add
+     */
+    public void addInfectionListener(InfectionListener listener) {
+        infectionListeners.add(listener);
+    }
+
+    /**
+     * Removes an observer that was added with addInfectionListener()
+     * @param listener the listener to remove
+     */
+    public void removeInfectionListener(InfectionListener listener) {
+        infectionListeners.remove(listener);
+    }
+
+    /**
+     * Returns how long each part of the last tick took
+     * @return the World's TickTimings
+     */
+    public TickTimings getTickTimings() {
+        return this.timings;
+    }
+
+    /**
+     * Returns the number of infection events waiting to be converted by checkKill()
+     * @return number of pending conversions
+     */
+    public int getPendingInfections() {
+        return infectionQueue.size();
+    }
+
+    /**
+     * Makes sure the claim arrays have a slot for every agent. New claim slots start unclaimed.
+     */
+    private void ensureTickCapacity(int n) {
+        if (claimCapacity >= n) {
+            return;
+        }
+        int capacity = Math.max(n, claimCapacity + (claimCapacity >> 1));
+        infectedBy = new AtomicIntegerArray(capacity);
+        pushedBy = new AtomicIntegerArray(capacity);
+        // Claims are always cleared by the end of a tick, so there is nothing to copy across
+        for (int i = 0; i < capacity; i++) {
+            infectedBy.set(i, UNCLAIMED);
+            pushedBy.set(i, UNCLAIMED);
+        }
+        claimCapacity = capacity;
+    }
+
+    /**
+     * Sets how many threads are used to run each tick. With 1 (the default) ticks run on the
+     * calling thread, with more a ForkJoinPool of that size runs each phase in chunks.
+     * The result of a tick is the same whatever the number of threads.
+     * @param threads number of threads, at least 1
+     */
+    public synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1: " + threads);
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+            rootTask = null;
+            phaseDone = null;
+            workerThreads.clear();
+        }
+        this.parallelism = threads;
+        if (threads > 1) {
+            // Worker threads are remembered so their allocations can be counted
+            pool = new ForkJoinPool(threads, p -> {
+                ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                workerThreads.add(worker);
+                return worker;
+            }, null, false);
+        }
+    }
+
+    /**
+     * Returns how many threads are used to run each tick
+     * @return number of threads
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Returns the ForkJoinPool threads that have been started to run ticks (empty when ticks run
+     * on the calling thread). Threads that have since finished are still in the list.
+     * @return the pool's worker threads
+     */
+    public List<Thread> getWorkerThreads() {
+        return this.workerThreads;
+    }
+
+    /**
+     * Fork/join task that runs one phase over a range of agents, splitting the range in half
+     * until it is small enough to run directly.
+     * 
+     * The tree of tasks is kept and reused for every phase of every tick: each task keeps its two
+     * halves and reset() reinitialises a finished task for its next range, so running a phase does
+     * not create any tasks once the tree is deep enough for the population. Tasks never wait for
+     * each other: as a CountedCompleter, each half tells its parent when it is done and the last
+     * half to finish completes the parent, up to the root and then the PhaseDone above it, which
+     * wakes the waiting thread.
+     */
+    private class PhaseTask extends CountedCompleter<Void> {
+        private int phase, from, to, chunk;
+        private PhaseTask left, right;
+
+        PhaseTask(CountedCompleter<?> parent) {
+            super(parent);
+        }
+
+        void reset(int phase, int from, int to, int chunk) {
+            reinitialize();
+            setPendingCount(0);
+            this.phase = phase;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void compute() {
+            if (to - from <= chunk) {
+                runRange(phase, from, to);
+                tryComplete();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            if (left == null) {
+                left = new PhaseTask(this);
+                right = new PhaseTask(this);
+            }
+            left.reset(phase, from, mid, chunk);
+            right.reset(phase, mid, to, chunk);
+            // This task completes when the second of its halves does
+            setPendingCount(1);
+            right.fork();
+            left.compute();
+        }
+    }
+
+    /**
+     * Completer above the root PhaseTask that wakes the thread waiting for a phase. It is never run
+     * itself, it is only completed by the root. The last task to finish marks the top of the chain
+     * as done a moment after waking the waiter, which could already be starting the next phase, so
+     * the top is this task rather than the reused root.
+     */
+    private static final class PhaseDone extends CountedCompleter<Void> {
+        private Thread waiter;
+        private volatile boolean finished;
+        private volatile Throwable failure;
+
+        void reset(Thread waiter) {
+            reinitialize();
+            setPendingCount(0);
+            this.waiter = waiter;
+            this.failure = null;
+            this.finished = false;
+        }
+
+        @Override
+        public void compute() {
+        }
+
+        @Override
+        public void onCompletion(CountedCompleter<?> caller) {
+            finished = true;
+            LockSupport.unpark(waiter);
+        }
+
+        @Override
+        public boolean onExceptionalCompletion(Throwable ex, CountedCompleter<?> caller) {
+            failure = ex;
+            finished = true;
+            LockSupport.unpark(waiter);
+            return false;
+        }
+    }
+
+    /**
+     * An agent waiting to be added at the start of the next tick
+     */
+    private static final class Spawn {
+        final double x, y;
+        final byte state;
+
+        Spawn(double x, double y, byte state) {
+            this.x = x;
+            this.y = y;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Returns the behaviour (Human or Zombie) for the agent's current state
+     * @param i index of the agent in the Population
+     * @return the Zombie behaviour if the agent is a zombie, otherwise the Human behaviour
+     */
+    public Human behaviourOf(int i) {
+        return population.isZombie(i) ? zombie : human;
+    }
+
+    /**
+     * Returns the parameters the World's humans and zombies were created with
+     * @return the agent parameters
+     */
+    public AgentParameters getParameters() {
+        return this.parameters;
+    }
+
+    /**
+     * Returns the Population holding every agent. Callers must hold the World's lock
+     * (synchronized (world)) while reading it, because the engine thread changes it during tick()
+     * @return the Population
+     */
+    public Population getPopulation() {
+        return this.population;
+    }
+
+    /**
+     * Makes zombies chase humans by walking down a shared FlowField of the distance to the nearest
+     * human, and humans run from zombies by walking up a FlowField of the distance to the nearest
+     * zombie, instead of every agent searching the grids for its nearest enemy. The fields are
+     * rebuilt at the start of a tick every given number of ticks (and at the first tick after this
+     * changes it), so with more than 1 agents follow fields that are a few ticks old. Agents close to
+     * an enemy still aim at it directly. The result of a tick is still the same whatever the number
+     * of threads.
+     * @param ticks rebuild the fields every this many ticks, or 0 to search the grids (the default)
+     */
+    public synchronized void setFlowFieldEvery(int ticks) {
+        if (ticks < 0) {
+            throw new IllegalArgumentException("ticks must be >= 0: " + ticks);
+        }
+        if (ticks == this.flowFieldEvery) {
+            // Keep the fields and their schedule, for example those of a restored world
+            return;
+        }
+        this.flowFieldEvery = ticks;
+        this.fieldsBuiltAt = -1;
+        if (ticks == 0) {
+            pursuitField = null;
+            threatField = null;
+        } else if (pursuitField == null) {
+            // Cells are two agents wide, like the grids' smallest cells
+            pursuitField = new FlowField(population, Population.HUMAN, 2 * human.getSize());
+            threatField = new FlowField(population, Population.ZOMBIE, 2 * human.getSize());
+            pursuitField.setObstacles(obstacles);
+            threatField.setObstacles(obstacles);
+        }
+    }
+
+    /**
+     * Puts walls in the world. Agents bounce off them like they bounce off the world's edge and
+     * the flow fields lead around them. The map is stretched over the whole world.
+     * @param obstacles the ObstacleMap, or null to take the walls away
+     */
+    public synchronized void setObstacles(ObstacleMap obstacles) {
+        this.obstacles = obstacles != null ? obstacles.stretchedTo(width, height) : null;
+        if (wallsFingerprint() != fieldsWalls) {
+            // The fields lead around other walls, so they are rebuilt at the next tick
+            this.fieldsBuiltAt = -1;
+        }
+        if (pursuitField != null) {
+            pursuitField.setObstacles(this.obstacles);
+            threatField.setObstacles(this.obstacles);
+        }
+    }
+
+    private long wallsFingerprint() {
+        return obstacles != null ? obstacles.getFingerprint() : NO_WALLS;
+    }
+
+    /**
+     * Gives the flow fields the distances they had in a checkpointed world, so a restored world
+     * rebuilds them on the same ticks as the world that was checkpointed. Only called by a
+     * WorldFile, after setFlowFieldEvery().
+     * @param builtAt tick the fields were built at
+     * @param walls fingerprint of the walls the fields were built around
+     * @param pursuit distances of the pursuit field
+     * @param threat distances of the threat field
+     */
+    synchronized void restoreFields(long builtAt, long walls, IntBuffer pursuit, IntBuffer threat) {
+        pursuitField.readDistances(pursuit, width, height);
+        threatField.readDistances(threat, width, height);
+        this.fieldsBuiltAt = builtAt;
+        this.fieldsWalls = walls;
+    }
+
+    /**
+     * Returns the tick the flow fields were last built at
+     * @return tick count, or -1 if they have to be built at the next tick
+     */
+    long getFieldsBuiltAt() {
+        return this.fieldsBuiltAt;
+    }
+
+    /**
+     * Returns the fingerprint of the walls the flow fields were built around
+     * @return the ObstacleMap's fingerprint, or NO_WALLS
+     */
+    long getFieldsWalls() {
+        return this.fieldsWalls;
+    }
+
+    /**
+     * Returns the walls in the world
+     * @return the ObstacleMap, or null if the world is open
+     */
+    public ObstacleMap getObstacles() {
+        return this.obstacles;
+    }
+
+    /**
+     * Returns how often the flow fields are rebuilt
+     * @return ticks between rebuilds, or 0 if agents search the grids instead
+     */
+    public int getFlowFieldEvery() {
+        return this.flowFieldEvery;
+    }
+
+    /**
+     * Returns the field of the distance to the nearest human, which zombies walk down
+     * @return the pursuit field, or null if flow fields are off
+     */
+    public FlowField getPursuitField() {
+        return this.pursuitField;
+    }
+
+    /**
+     * Returns the field of the distance to the nearest zombie, which humans walk up
+     * @return the threat field, or null if flow fields are off
+     */
+    public FlowField getThreatField() {
+        return this.threatField;
+    }
+
+    /**
+     * Changes the kernel the grids use to work out distances. Every kernel gives the same results,
+     * only the speed changes.
+     * @param kernel the kernel, for example DistanceKernel.named("scalar")
+     */
+    public synchronized void setDistanceKernel(DistanceKernel kernel) {
+        this.distanceKernel = kernel;
+        humanGrid.setKernel(kernel);
+        zombieGrid.setKernel(kernel);
+    }
+
+    /**
+     * Returns the kernel the grids use to work out distances
+     * @return the distance kernel
+     */
+    public DistanceKernel getDistanceKernel() {
+        return this.distanceKernel;
+    }
+
+    /**
+     * Returns the grid over every human, used for nearest human and infection queries
+     * @return the human grid
+     */
+    public SpatialGrid getHumanGrid() {
+        return this.humanGrid;
+    }
+
+    /**
+     * Returns the grid over every zombie, used by humans to look for zombies in sight
+     * @return the zombie grid
+     */
+    public SpatialGrid getZombieGrid() {
+        return this.zombieGrid;
+    }
+
+    /**
+     * Returns the behaviour shared by every human
+     * @return the Human behaviour
+     */
+    public Human getHuman() {
+        return this.human;
+    }
+
+    /**
+     * Returns the behaviour shared by every zombie
+     * @return the Zombie behaviour
+     */
+    public Zombie getZombie() {
+        return this.zombie;
+    }
+
+    /**
+     * Returns the number of agents (humans and zombies) currently in the world
+     * @return number of humans plus number of zombies
+     */
+    public synchronized int getAgentCount() {
+        return population.size();
+    }
+
+    /**
+     * Returns the number of humans currently in the world
+     * @return number of humans
+     */
+    public synchronized int getHumanCount() {
+        return population.getHumanCount();
+    }
+
+    /**
+     * Returns the number of zombies currently in the world
+     * @return number of zombies
+     */
+    public synchronized int getZombieCount() {
+        return population.getZombieCount();
+    }
+
+    /**
+     * Returns how many ticks this world has been advanced by
+     * @return number of completed ticks
+     */
+    public synchronized long getTickCount() {
+        return this.tickCount;
+    }
+
+    /**
+     * Returns the width of the world
+     * @return width of the world
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * Returns the height of the world
+     * @return height of the world
+     */
+    public int getHeight() {
+        return this.height;
+    }
+}
@@ -0,0 +1,313 @@
+package ZombieSimulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *
+ * This class keeps a checkpoint of a World in a file that is mapped into memory, so a simulation
+ * can be stopped (or the GUI closed) and picked up again later from the same tick. A checkpoint is a
+ * small header (the world's size, seed, tick count and AgentParameters) and every column of the
+ * Population and, when the world steers by flow fields, the distances of both fields and the tick
+ * they were built at, so a restored world rebuilds them on the same ticks. Each column is mapped on
+ * its own, so a column of tens of millions of agents never has to fit in one 2 GB mapping.
+ *
+ * Taking a checkpoint copies each column of the Population into its mapping with one bulk copy,
+ * which takes a lot less time than a tick, and then asks the operating system to write the changed
+ * pages to disk after the World's lock has been let go, so ticks can carry on while the disk catches
+ * up. Restoring copies the columns straight back out of the mapping. Nothing is parsed or converted
+ * and no object is created per agent either way.
+ *
+ * The file has room for two checkpoints, each in a slot with its own header and its own columns,
+ * and a checkpoint is always written over the older one. A slot is marked as being written before
+ * its columns are copied and only marked complete once they have been forced to disk, and restore()
+ * loads the newest complete slot, so a process that dies halfway through a checkpoint still leaves
+ * the checkpoint before it to carry on from. As a TickListener, a WorldFile takes a checkpoint every
+ * checkpointEvery ticks.
+ */
+public class WorldFile implements SimulationEngine.TickListener, Closeable {
+    // "ZSIM"
+    private static final int MAGIC = 0x5A53494D;
+    // 1 had a single checkpoint
+    private static final int VERSION = 2;
+    // The header takes a whole page so every column starts on a page boundary
+    private static final int HEADER_SIZE = 4096;
+    static final int EMPTY = 0, WRITING = 1, COMPLETE = 2;
+    // Column capacity is a multiple of this many agents, which keeps every column 8 byte aligned
+    private static final int CAPACITY_STEP = 4096;
+    private static final int MAGIC_AT = 0, VERSION_AT = 4;
+    // Where the header of each slot starts
+    static final int[] SLOT_AT = {64, 256};
+    // Where each value is kept in a slot's header. DATA_AT is where its columns and then its fields
+    // are in the file, with room for CAPACITY_AT agents and FIELD_CAPACITY_AT cells
+    static final int STATUS_AT = 0, COUNT_AT = 4, CAPACITY_AT = 8, WIDTH_AT = 12, HEIGHT_AT = 16, SEED_AT = 24,
+            TICK_AT = 32, HUMAN_SPEED_AT = 40, SPEED_RATIO_AT = 48, SIGHT_DISTANCE_AT = 56, SIZE_AT = 64,
+            FLOW_FIELD_EVERY_AT = 72, FIELD_CELLS_AT = 76, FIELDS_BUILT_AT = 80, FIELDS_WALLS_AT = 88,
+            SEQUENCE_AT = 96, DATA_AT = 104, FIELD_CAPACITY_AT = 112;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    // Each slot's columns and fields, and where they were mapped from
+    private final MappedByteBuffer[][] columns = new MappedByteBuffer[2][];
+    private final MappedByteBuffer[] fields = new MappedByteBuffer[2];
+    private final long[] mappedAt = {-1, -1};
+    private final int checkpointEvery;
+
+    /**
+     * Opens a world file, creating an empty one if it does not exist yet
+     * @param path the file
+     * @param checkpointEvery take a checkpoint every this many ticks when used as a TickListener,
+     *                        or 0 to only take them when checkpoint() is called
+     */
+    public WorldFile(Path path, int checkpointEvery) {
+        this.path = path;
+        this.checkpointEvery = checkpointEvery;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = channel.size() == 0;
+            if (!created && channel.size() < HEADER_SIZE) {
+                throw new IllegalStateException(path + " is not a world file");
+            }
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (created) {
+                header.putInt(MAGIC_AT, MAGIC);
+                header.putInt(VERSION_AT, VERSION);
+                for (int slot: SLOT_AT) {
+                    header.putInt(slot + STATUS_AT, EMPTY);
+                }
+                header.force();
+            } else if (header.getInt(MAGIC_AT) != MAGIC) {
+                throw new IllegalStateException(path + " is not a world file");
+            } else if (header.getInt(VERSION_AT) != VERSION) {
+                throw new IllegalStateException(path + " is a world file of unsupported version "
+                        + header.getInt(VERSION_AT));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open world file " + path, e);
+        }
+    }
+
+    /**
+     * Returns the slot holding the newest complete checkpoint
+     * @return 0 or 1, or -1 if neither slot holds a complete checkpoint
+     */
+    private int newestSlot() {
+        int newest = -1;
+        for (int k = 0; k < SLOT_AT.length; k++) {
+            if (header.getInt(SLOT_AT[k] + STATUS_AT) == COMPLETE && (newest < 0
+                    || header.getLong(SLOT_AT[k] + SEQUENCE_AT) > header.getLong(SLOT_AT[newest] + SEQUENCE_AT))) {
+                newest = k;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Returns true if the file holds a complete checkpoint that restore() can load
+     * @return true if there is a world to restore
+     */
+    public boolean hasCheckpoint() {
+        return newestSlot() >= 0;
+    }
+
+    /**
+     * Creates a World from the newest complete checkpoint, at the same tick, with the same size,
+     * AgentParameters and agents (including where each agent's random number stream had got to),
+     * so it carries on exactly as the checkpointed world would have.
+     * @return the restored World
+     */
+    public synchronized World restore() {
+        int k = newestSlot();
+        if (k < 0) {
+            throw new IllegalStateException(path + " does not hold a complete checkpoint");
+        }
+        int slot = SLOT_AT[k];
+        mapSlot(k);
+        AgentParameters parameters = new AgentParameters(header.getDouble(slot + HUMAN_SPEED_AT),
+                header.getDouble(slot + SPEED_RATIO_AT), header.getInt(slot + SIGHT_DISTANCE_AT),
+                header.getDouble(slot + SIZE_AT));
+        Population population = new Population(columns[k], header.getInt(slot + COUNT_AT),
+                header.getLong(slot + SEED_AT));
+        World world = new World(header.getInt(slot + WIDTH_AT), header.getInt(slot + HEIGHT_AT), parameters, population,
+                header.getLong(slot + TICK_AT));
+        int flowFieldEvery = header.getInt(slot + FLOW_FIELD_EVERY_AT), cells = header.getInt(slot + FIELD_CELLS_AT);
+        if (flowFieldEvery > 0) {
+            world.setFlowFieldEvery(flowFieldEvery);
+            if (cells > 0) {
+                world.restoreFields(header.getLong(slot + FIELDS_BUILT_AT), header.getLong(slot + FIELDS_WALLS_AT),
+                        fieldDistances(k, 0, cells), fieldDistances(k, cells, cells));
+            }
+        }
+        return world;
+    }
+
+    /**
+     * Writes the world's current state to the file, over the older of its two checkpoints. The
+     * agents are copied while holding the World's lock, so the checkpoint is always taken between two
+     * ticks, and the copy is forced to disk after the lock has been let go.
+     * @param world the World to checkpoint
+     */
+    public synchronized void checkpoint(World world) {
+        int newest = newestSlot();
+        int k = newest == 0 ? 1 : 0;
+        int slot = SLOT_AT[k];
+        header.putInt(slot + STATUS_AT, WRITING);
+        header.force();
+        int cells;
+        synchronized (world) {
+            Population population = world.getPopulation();
+            int count = population.size();
+            FlowField pursuit = world.getPursuitField();
+            cells = pursuit != null && world.getFieldsBuiltAt() >= 0 ? pursuit.getCellCount() : 0;
+            int capacity = header.getInt(slot + CAPACITY_AT), fieldCapacity = header.getInt(slot + FIELD_CAPACITY_AT);
+            if (header.getLong(slot + DATA_AT) == 0 || count > capacity || cells > fieldCapacity) {
+                if (count > capacity) {
+                    int grown = Math.max(Math.max(count, CAPACITY_STEP), capacity + (capacity >> 1));
+                    capacity = (grown + CAPACITY_STEP - 1) / CAPACITY_STEP * CAPACITY_STEP;
+                }
+                placeSlot(k, capacity, Math.max(cells, fieldCapacity));
+            }
+            mapSlot(k);
+            population.writeColumns(columns[k]);
+            AgentParameters parameters = world.getParameters();
+            header.putInt(slot + COUNT_AT, count);
+            header.putInt(slot + WIDTH_AT, world.getWidth());
+            header.putInt(slot + HEIGHT_AT, world.getHeight());
+            header.putLong(slot + SEED_AT, population.getSeed());
+            header.putLong(slot + TICK_AT, world.getTickCount());
+            header.putDouble(slot + HUMAN_SPEED_AT, parameters.getHumanSpeed());
+            header.putDouble(slot + SPEED_RATIO_AT, parameters.getSpeedRatio());
+            header.putInt(slot + SIGHT_DISTANCE_AT, parameters.getSightDistance());
+            header.putDouble(slot + SIZE_AT, parameters.getSize());
+            if (cells > 0) {
+                pursuit.writeDistances(fieldDistances(k, 0, cells));
+                world.getThreatField().writeDistances(fieldDistances(k, cells, cells));
+                header.putLong(slot + FIELDS_BUILT_AT, world.getFieldsBuiltAt());
+                header.putLong(slot + FIELDS_WALLS_AT, world.getFieldsWalls());
+            }
+            header.putInt(slot + FLOW_FIELD_EVERY_AT, world.getFlowFieldEvery());
+            header.putInt(slot + FIELD_CELLS_AT, cells);
+            header.putLong(slot + SEQUENCE_AT, newest < 0 ? 1 : header.getLong(SLOT_AT[newest] + SEQUENCE_AT) + 1);
+        }
+        for (MappedByteBuffer column: columns[k]) {
+            column.force();
+        }
+        if (cells > 0) {
+            fields[k].force();
+        }
+        header.putInt(slot + STATUS_AT, COMPLETE);
+        header.force();
+    }
+
+    /**
+     * Takes a checkpoint every checkpointEvery ticks
+     */
+    @Override
+    public void tickCompleted(World world, long tick) {
+        if (checkpointEvery > 0 && tick % checkpointEvery == 0) {
+            checkpoint(world);
+        }
+    }
+
+    /**
+     * Returns the bytes a slot takes up in the file, rounded up to whole pages
+     */
+    private static long slotBytes(int capacity, int fieldCapacity) {
+        long bytes = 2L * fieldCapacity * Integer.BYTES;
+        for (int columnBytes: Population.COLUMN_BYTES) {
+            bytes += (long) capacity * columnBytes;
+        }
+        return (bytes + HEADER_SIZE - 1) / HEADER_SIZE * HEADER_SIZE;
+    }
+
+    /**
+     * Finds room in the file for a slot's columns and fields: straight after the header if that
+     * does not run into the other slot, otherwise after the other slot
+     */
+    private void placeSlot(int k, int capacity, int fieldCapacity) {
+        int slot = SLOT_AT[k], other = SLOT_AT[1 - k];
+        long otherAt = header.getLong(other + DATA_AT);
+        long otherEnd = otherAt
+                + slotBytes(header.getInt(other + CAPACITY_AT), header.getInt(other + FIELD_CAPACITY_AT));
+        long at = HEADER_SIZE;
+        if (otherAt > 0 && at < otherEnd && otherAt < at + slotBytes(capacity, fieldCapacity)) {
+            at = otherEnd;
+        }
+        header.putLong(slot + DATA_AT, at);
+        header.putInt(slot + CAPACITY_AT, capacity);
+        header.putInt(slot + FIELD_CAPACITY_AT, fieldCapacity);
+    }
+
+    /**
+     * Maps every column of a slot, one after another, and then room for the distances of two flow
+     * fields, unless they are already mapped where the slot's header says they are
+     */
+    private void mapSlot(int k) {
+        int slot = SLOT_AT[k];
+        long offset = header.getLong(slot + DATA_AT);
+        int capacity = header.getInt(slot + CAPACITY_AT), fieldCapacity = header.getInt(slot + FIELD_CAPACITY_AT);
+        if (mappedAt[k] == offset && columns[k][0].capacity() == (long) capacity * Population.COLUMN_BYTES[0]
+                && fields[k].capacity() == 2L * fieldCapacity * Integer.BYTES) {
+            return;
+        }
+        try {
+            MappedByteBuffer[] mapped = new MappedByteBuffer[Population.COLUMN_BYTES.length];
+            long at = offset;
+            for (int c = 0; c < mapped.length; c++) {
+                long length = (long) capacity * Population.COLUMN_BYTES[c];
+                mapped[c] = channel.map(FileChannel.MapMode.READ_WRITE, at, length);
+                at += length;
+            }
+            fields[k] = channel.map(FileChannel.MapMode.READ_WRITE, at, 2L * fieldCapacity * Integer.BYTES);
+            columns[k] = mapped;
+            mappedAt[k] = offset;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map world file " + path, e);
+        }
+    }
+
+    /**
+     * Returns the distances of one flow field in a slot's fields, starting at the given cell
+     */
+    private IntBuffer fieldDistances(int k, int from, int cells) {
+        return fields[k].duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().slice(from, cells);
+    }
+
+    /**
+     * Returns the path of the file
+     * @return the file's path
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Returns the tick the newest complete checkpoint was taken at
+     * @return tick count of the checkpoint, or -1 if there is none
+     */
+    public long getCheckpointTick() {
+        int k = newestSlot();
+        return k >= 0 ? header.getLong(SLOT_AT[k] + TICK_AT) : -1;
+    }
+
+    /**
+     * Closes the file. The mappings are let go of by the garbage collector.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close world file " + path, e);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package ZombieSimulator;
+
+import java.util.Arrays;
+
+/**
+ *
+ * This class is a compact, read-only copy of the World taken at the end of a tick: the location
+ * and state of every agent plus the world's size, counts and tick number. Observers like the
+ * DrawPanel read a snapshot instead of the live Population, so they always see a consistent frame
+ * (never half of a tick) and never have to hold the World's lock while the simulation is running.
+ *
+ * Locations are stored as floats, which is plenty for drawing and halves the size of the copy.
+ * A snapshot can also be filled from a FrameDecoder, to draw a recorded run instead of a live one,
+ * or from the frames of every region of a sharded run (see ShardCoordinator).
+ * Snapshots are handed out by a SnapshotBuffer, which reuses the same few snapshot objects for
+ * every tick, so taking a snapshot does not allocate once the arrays are big enough.
+ *
+ * An observer that only shows part of a large world can find the agents in view with select().
+ * For a small part of the world the snapshot files its agents by grid cell first, with the same
+ * counting sort the SpatialGrid uses, so only the cells in view are visited instead of every agent.
+ * The index is built by the observer the first time it is needed, so snapshots that are skipped or
+ * never looked at up close cost the simulation nothing.
+ */
+public class WorldSnapshot {
+    private float[] x = new float[0];
+    private float[] y = new float[0];
+    private byte[] state = new byte[0];
+    private int size, width, height, humanCount, zombieCount;
+    private long tick;
+    // Increases with every snapshot taken by the same SnapshotBuffer
+    volatile long sequence = -1;
+    // Agents filed by the cell they are in, for the snapshot with sequence indexedSequence
+    private float perCell = 1;
+    private int columns = 1, rows = 1;
+    private int[] cellStart = new int[2];
+    private int[] cellAgents = new int[0], agentCell = new int[0];
+    private long indexedSequence = -1;
+    // Agents found by the last call to select()
+    private int[] selected = new int[0];
+
+    /**
+     * Copies the world into this snapshot. Only called by a SnapshotBuffer, while holding the
+     * World's lock, into a snapshot that no observer is reading.
+     * @param world the World to copy
+     * @param sequence number of this snapshot in its SnapshotBuffer
+     */
+    void copyFrom(World world, long sequence) {
+        Population population = world.getPopulation();
+        int n = population.size();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            x[i] = (float) population.getX(i);
+            y[i] = (float) population.getY(i);
+            state[i] = population.getState(i);
+        }
+        this.size = n;
+        this.width = world.getWidth();
+        this.height = world.getHeight();
+        this.humanCount = population.getHumanCount();
+        this.zombieCount = population.getZombieCount();
+        this.tick = world.getTickCount();
+        this.sequence = sequence;
+    }
+
+    /**
+     * Copies a decoded frame into this snapshot. Only called by a SnapshotBuffer, into a snapshot
+     * that no observer is reading.
+     * @param frame the FrameDecoder holding the frame
+     * @param sequence number of this snapshot in its SnapshotBuffer
+     */
+    void copyFrom(FrameDecoder frame, long sequence) {
+        int n = frame.size();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            x[i] = frame.getX(i);
+            y[i] = frame.getY(i);
+            state[i] = frame.getState(i);
+        }
+        this.size = n;
+        this.width = frame.getWidth();
+        this.height = frame.getHeight();
+        this.humanCount = frame.getHumanCount();
+        this.zombieCount = frame.getZombieCount();
+        this.tick = frame.getTick();
+        this.sequence = sequence;
+    }
+
+    /**
+     * Copies the decoded frames of every region of a sharded simulation into this snapshot, one
+     * region after the other, so the whole world is drawn as one frame. Only called by a
+     * SnapshotBuffer, into a snapshot that no observer is reading.
+     * @param regions one FrameDecoder per region, all holding a frame of the same tick
+     * @param sequence number of this snapshot in its SnapshotBuffer
+     */
+    void copyFrom(FrameDecoder[] regions, long sequence) {
+        int n = 0;
+        for (FrameDecoder region: regions) {
+            n += region.size();
+        }
+        ensureCapacity(n);
+        int i = 0, humans = 0, zombies = 0;
+        for (FrameDecoder region: regions) {
+            for (int k = 0, size = region.size(); k < size; k++, i++) {
+                x[i] = region.getX(k);
+                y[i] = region.getY(k);
+                state[i] = region.getState(k);
+            }
+            humans += region.getHumanCount();
+            zombies += region.getZombieCount();
+        }
+        this.size = n;
+        this.width = regions[0].getWidth();
+        this.height = regions[0].getHeight();
+        this.humanCount = humans;
+        this.zombieCount = zombies;
+        this.tick = regions[0].getTick();
+        this.sequence = sequence;
+    }
+
+    /**
+     * Finds every agent whose location is inside a rectangle of the world, for example the part of
+     * the world that is in view. When the rectangle is less than a quarter of the world, only the
+     * agents in the cells of the index that overlap it are looked at (the index is built the first
+     * time it is needed for this snapshot). A bigger rectangle holds most of the agents anyway, so
+     * every agent is checked in Population order, which is faster than jumping around the arrays
+     * cell by cell. Either way the same agents are found. Only called by the observer that holds the
+     * snapshot, and the agents found are valid until its next call.
+     * @param left smallest X location
+     * @param top smallest Y location
+     * @param right largest X location
+     * @param bottom largest Y location
+     * @return the number of agents found, which are getSelected(0) to getSelected(count - 1)
+     */
+    public int select(double left, double top, double right, double bottom) {
+        if (selected.length < x.length) {
+            selected = new int[x.length];
+        }
+        double overlap = Math.max(0, Math.min(right, width) - Math.max(left, 0))
+                * Math.max(0, Math.min(bottom, height) - Math.max(top, 0));
+        int count = 0;
+        if (overlap * 4 >= (double) width * height) {
+            for (int i = 0; i < size; i++) {
+                if (x[i] >= left && x[i] <= right && y[i] >= top && y[i] <= bottom) {
+                    selected[count++] = i;
+                }
+            }
+            return count;
+        }
+        index();
+        for (int row = row(top), lastRow = row(bottom); row <= lastRow; row++) {
+            for (int cell = row * columns + column(left), last = row * columns + column(right); cell <= last; cell++) {
+                for (int k = cellStart[cell], end = cellStart[cell + 1]; k < end; k++) {
+                    int i = cellAgents[k];
+                    if (x[i] >= left && x[i] <= right && y[i] >= top && y[i] <= bottom) {
+                        selected[count++] = i;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns an agent found by the last call to select()
+     * @param k from 0 to the count returned by select() - 1
+     * @return index of the agent
+     */
+    public int getSelected(int k) {
+        return selected[k];
+    }
+
+    /**
+     * Files every agent under the grid cell its location falls in, unless that has already been done
+     * for this snapshot. Cells are made big enough to hold a few agents each on average.
+     */
+    private void index() {
+        long current = sequence;
+        if (indexedSequence == current) {
+            return;
+        }
+        int n = size;
+        double area = Math.max(1.0, (double) width * height);
+        double cellSize = Math.max(1.0, Math.sqrt(area / Math.max(256, n / 8)));
+        perCell = (float) (1 / cellSize);
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        int cells = columns * rows;
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + 1];
+        }
+        if (cellAgents.length < n) {
+            cellAgents = new int[x.length];
+            agentCell = new int[x.length];
+        }
+        // Count the agents in each cell, turn the counts into starts, then place each agent
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        for (int i = 0; i < n; i++) {
+            int cell = row(y[i]) * columns + column(x[i]);
+            agentCell[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        for (int i = 0; i < n; i++) {
+            cellAgents[cellStart[agentCell[i]]++] = i;
+        }
+        for (int c = cells; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+        indexedSequence = current;
+    }
+
+    /**
+     * Returns the column or row of the index a location falls in. Locations outside the world are
+     * put in the nearest edge column or row.
+     */
+    private int column(double x) {
+        int column = (int) (x * perCell);
+        return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+    }
+
+    private int row(double y) {
+        int row = (int) (y * perCell);
+        return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+    }
+
+    private void ensureCapacity(int n) {
+        if (x.length < n) {
+            int capacity = Math.max(n, x.length + (x.length >> 1));
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            state = Arrays.copyOf(state, capacity);
+        }
+    }
+
+    /**
+     * Returns the number of agents in the snapshot
+     * @return number of agents
+     */
+    public int size() {
+        return this.size;
+    }
+
+    // Per agent values, for indices 0 to size() - 1
+
+    public float getX(int i) {
+        return x[i];
+    }
+
+    public float getY(int i) {
+        return y[i];
+    }
+
+    public byte getState(int i) {
+        return state[i];
+    }
+
+    public boolean isHuman(int i) {
+        return state[i] == Population.HUMAN;
+    }
+
+    public boolean isZombie(int i) {
+        return state[i] == Population.ZOMBIE;
+    }
+
+    // World values at the time of the snapshot
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    public int getHumanCount() {
+        return this.humanCount;
+    }
+
+    public int getZombieCount() {
+        return this.zombieCount;
+    }
+
+    public long getTick() {
+        return this.tick;
+    }
+}
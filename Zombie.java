@@ -2,140 +2,276 @@ package ZombieSimulator;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * 
- * This class maintains Zombie objects for the Zombie Simulator. In the Zombie Simulator, Zombies
- * are represented by red squares and humans as blue circles. The GUI allows to add 
- * zombies and humans with button presses. When a zombie touches a human, the human turns into a 
+ *
+ * This class maintains Zombie behaviour for the Zombie Simulator. In the Zombie Simulator, Zombies
+ * are represented by red squares and humans as blue circles. The GUI allows to add
+ * zombies and humans with button presses. When a zombie touches a human, the human turns into a
  * zombie. Zombies have half the speed of humans and always move towards the human it is closest
- * to. Humans are twice the speed of zombies and can only see 1/4 of the world around them. If a 
+ * to. Humans are twice the speed of zombies and can only see 1/4 of the world around them. If a
  * zombie in sight they will change direction and travel away from the nearest zombie. If there
  * are no enemies in sight then humans/zombies have random movements. (This occurs if there are no
  * zombies in sight of humans, or if there are only zombies in the world and no humans present).
- * 
+ *
+ * Like Human, a single Zombie object holds the behaviour for every agent index whose state is ZOMBIE.
+ *
+ * Agents only move a few pixels a tick, so a zombie chasing a human keeps chasing the same one for a
+ * while. When a zombie searches for its nearest human it locks on to it, and remembers how far away
+ * the runner-up was. After that, every other human can only have come one step of the fastest agent
+ * closer each tick, plus however far the zombie itself has moved, so as long as the locked human is
+ * still nearer than the runner-up could have come, it must still be the nearest human and the search
+ * is skipped.
+ * The lock is dropped when the human is infected, when the runner-up could have caught up, after
+ * MAX_LOCK_TICKS, or when agents are added to or taken out of the Population. A zombie always ends
+ * up chasing exactly the human the search would have found.
+ *
  * @author MYWT August 2020
  */
 public class Zombie extends Human {
-    
-    public Zombie(List<Human> others, double x, double y) {
-        super(others, x, y);
-        this.maxSpeed = super.maxSpeed/2; // Zombies travel at half the speed of humans
-        super.setRandomDirection(this.maxSpeed); //sets random dx and dy limited by maxSpeed
-        super.generateNewTotalSteps();
-        this.nStepsTaken = 0;
-        this.sightDistance = worldWidth * worldHeight;
+    // Ticks a zombie chases the same human before searching again anyway
+    static final int MAX_LOCK_TICKS = 100;
+    private static final int NO_TARGET = -1;
+    // Distances are worked out in a different order by the grid, this covers the rounding
+    private static final double LOCK_MARGIN = 1e-6;
+
+    // The human each zombie is locked on to, how far the runner-up was, and when and where the
+    // zombie was when it locked on
+    private int[] lockTarget = new int[0];
+    private double[] lockBound = new double[0];
+    private double[] lockX = new double[0], lockY = new double[0];
+    private long[] lockTick = new long[0];
+    private long tick;
+    private long lockedVersion = -1;
+    // Furthest any agent moves in one tick (the same as the grids' slack)
+    private final double maxStep;
+
+    public Zombie(World world) {
+        super(world);
+        this.maxSpeed = world.getParameters().getZombieSpeed(); // By default zombies travel at half the speed of humans
+        double fastest = Math.max(world.getParameters().getHumanSpeed(), this.maxSpeed);
+        this.maxStep = Math.hypot(fastest, fastest);
+    }
+
+    /**
+     * Called by the World at the start of every tick, before any zombie plans its move. Makes room
+     * for a lock per agent and drops every lock if agents have been added, moved or taken out since
+     * the last tick, because the locks remember humans by their index.
+     * @param n number of agents taking part in this tick
+     * @param tick the tick that is starting
+     */
+    void beginTick(int n, long tick) {
+        this.tick = tick;
+        long version = population.getVersion();
+        if (version == lockedVersion) {
+            return;
+        }
+        if (lockTarget.length < n) {
+            int capacity = Math.max(n, lockTarget.length + (lockTarget.length >> 1));
+            lockTarget = new int[capacity];
+            lockBound = new double[capacity];
+            lockX = new double[capacity];
+            lockY = new double[capacity];
+            lockTick = new long[capacity];
+        }
+        Arrays.fill(lockTarget, NO_TARGET);
+        lockedVersion = version;
     }
-    
+
     /**
-     * Zombie thread calculates distance between itself and all other humans.
+     * Zombies can see the whole world, so they always know where the nearest human is. The sight
+     * distance is a little over the world's diagonal, which is as far apart as two agents can be.
+     */
+    @Override
+    protected void setWorldSize(int worldWidth, int worldHeight) {
+        this.sightDistance = (int) Math.min(Integer.MAX_VALUE, Math.ceil(Math.hypot(worldWidth, worldHeight)) + 1);
+    }
+
+    /**
+     * Zombie finds the human nearest to itself using the World's human grid, which
+     * only visits the grid cells around the zombie instead of every human. A zombie that is
+     * locked on to a human that must still be the nearest one skips the search.
      * It is used to determine the movement (dx and dy) for both humans and
-     * zombies. This method identifies the human that a zombie is closest to 
+     * zombies. This method identifies the human that a zombie is closest to
      * and then calculates the new direction (dx and dy) that the zombie needs
      * to change to. If the distance between a zombie and human is close enough
      * so that the human sight the zombie, then this method also alters the
      * human's direction (dx and dy) so that runs away in the opposite direction
      * that the zombie is moving.
+     * 
+     * The human's direction is not changed here, because the human may be planning its own move on
+     * another thread. Instead the human is returned and the World hands it the zombie's direction
+     * in the commit phase.
+     * @param i index of the zombie in the Population
+     * @return index of the human that has seen the zombie and should run, or -1
      */
-    protected void setDirectionToNearestHuman() {
-        Human nearestHuman = others.get(0);
-        Double nearestDist = calculateDistance(nearestHuman);
-        for (Human human: others) {
-            Double humanDist = calculateDistance(human);
-            if (humanDist < nearestDist) {
-                nearestHuman = human;
-                nearestDist = humanDist;
-            }
+    protected int setDirectionToNearestHuman(int i) {
+        int nearestHuman = lockedHuman(i);
+        if (nearestHuman == NO_TARGET) {
+            nearestHuman = lockOnToNearestHuman(i);
         }
-        double newDX = ((nearestHuman.getX() - this.x)/nearestDist) * this.maxSpeed;
-        double newDY = ((nearestHuman.getY() - this.y)/nearestDist) * this.maxSpeed;
-        dx = newDX;
-        dy = newDY;
-        
-        if (nearestDist < super.sightDistance) {
-            nearestHuman.setDX(dx);
-            nearestHuman.setDY(dy);
+        // No humans in sight
+        if (nearestHuman < 0) {
+            return -1;
+        }
+        double nearestDist = calculateDistance(i, nearestHuman);
+        // Standing right on top of a human (it will be infected on the next move)
+        if (nearestDist == 0) {
+            return -1;
+        }
+        double dx = ((population.getX(nearestHuman) - population.getX(i))/nearestDist) * this.maxSpeed;
+        double dy = ((population.getY(nearestHuman) - population.getY(i))/nearestDist) * this.maxSpeed;
+        population.setDX(i, dx);
+        population.setDY(i, dy);
+
+        if (nearestDist < world.getHuman().getSightDistance()) {
+            return nearestHuman;
         }
-        
+        return -1;
     }
-    
+
     /**
-     * When a zombie thread moves, it needs to first check if it has infected a
-     * human (i.e. has it intersected a human), then it checks if it has hit a 
+     * Returns the human the zombie is locked on to, if it must still be the nearest human in sight:
+     * it has not been infected and it is nearer than any other human could have come since the lock
+     * was taken. Other humans can have come one step closer each tick, and as much closer as the
+     * zombie itself has moved.
+     * @param i index of the zombie in the Population
+     * @return index of the human, or NO_TARGET if the zombie has to search again
+     */
+    private int lockedHuman(int i) {
+        int target = lockTarget[i];
+        if (target == NO_TARGET || population.getState(target) != Population.HUMAN || tick - lockTick[i] > MAX_LOCK_TICKS) {
+            return NO_TARGET;
+        }
+        double distance = calculateDistance(i, target);
+        double moved = Math.hypot(population.getX(i) - lockX[i], population.getY(i) - lockY[i]);
+        double runnerUp = lockBound[i] - (tick - lockTick[i]) * maxStep - moved;
+        if (distance + LOCK_MARGIN < runnerUp && distance < this.sightDistance) {
+            return target;
+        }
+        return NO_TARGET;
+    }
+
+    /**
+     * Searches the human grid for the nearest human in sight and, in the same search, the runner-up,
+     * and locks on to the nearest one
+     * @param i index of the zombie in the Population
+     * @return index of the nearest human, or -1 if there are no humans in sight
+     */
+    private int lockOnToNearestHuman(int i) {
+        double x = population.getX(i), y = population.getY(i);
+        long found = world.getHumanGrid().nearestTwo(x, y, this.sightDistance, this.sightDistance);
+        int nearest = (int) found, runnerUp = (int) (found >> 32);
+        lockTarget[i] = nearest < 0 ? NO_TARGET : nearest;
+        if (nearest >= 0) {
+            // Every other human is at least as far away as the runner-up, or out of sight if there is none
+            lockBound[i] = runnerUp < 0 ? this.sightDistance : calculateDistance(i, runnerUp);
+            lockX[i] = x;
+            lockY[i] = y;
+            lockTick[i] = tick;
+        }
+        return nearest;
+    }
+
+    /**
+     * Like setDirectionToNearestHuman(), but reads the World's pursuit field instead of searching
+     * for the nearest human: the zombie heads down the slope of the field, towards the nearest
+     * human, at full speed. Only a zombie close enough to a human that the field is too coarse to
+     * aim with looks for the nearest human itself, and only then can it push a human that has seen it.
+     * @param i index of the zombie in the Population
+     * @return index of the human that has seen the zombie and should run, or -1
+     */
+    protected int setDirectionDownPursuitField(int i) {
+        FlowField field = world.getPursuitField();
+        int cell = field.cellAt(population.getX(i), population.getY(i));
+        if (field.getSteps(cell) <= FlowField.NEAR_CELLS * FlowField.STRAIGHT) {
+            return setDirectionToNearestHuman(i);
+        }
+        int gx = field.gradientX(cell), gy = field.gradientY(cell);
+        double length = Math.hypot(gx, gy);
+        if (length == 0) {
+            return setDirectionToNearestHuman(i);
+        }
+        population.setDX(i, (-gx / length) * this.maxSpeed);
+        population.setDY(i, (-gy / length) * this.maxSpeed);
+        return -1;
+    }
+
+    /**
+     * When a zombie moves, it needs to first check if it has infected a
+     * human (i.e. has it intersected a human), then it checks if it has hit a
      * world boundary (and needs to turn around). After these two checks, the
      * direction of travel is generated (values of dx and dy) and also a random
      * number of steps. The zombie will walk in one direction for a random amount
      * of steps (or time) before it changes direction. A zombie will always travel
      * in the direction of the nearest human, and if there are no humans then it
      * will travel in a random direction.
-     * The thread also needs to sleep after each movement (of dx and dy) to delay
-     * the movement and create visible animation in the GUI.
+     * Like Human.planMove(), this is called once per tick by the World during its plan phase. The
+     * World infects the zombie's victim in checkKill() and moves the zombie in the commit phase.
+     * @param i index of the zombie in the Population
      */
     @Override
-    public void move() {
-        // Checks if a Zombie has touched a Human and if so, infects them
-        checkInfect();
-        
+    public void planMove(int i) {
+        // Checks if a Zombie has touched a Human and if so, publishes an infection event for the World
+        int victim = checkInfect(i);
+        if (victim >= 0) {
+            world.publishInfection(i, victim);
+        }
+
         // Checks if Zombie has hit a world boundary, if so, it will change dx or dy to turn around
-        checkWorldEdgeIntersect();
-        
+        checkWorldEdgeIntersect(i);
+
+        boolean changeDirection = population.getStepsTaken(i) >= population.getTotalSteps(i);
+
         // If humans exists in the world, and no. of steps walked in 1 direction has exceeded,
         // the Zombie needs to find the nearest human and change dx dy to travel towards the nearest Human
-        if (super.others.size() > 0 && this.nStepsTaken >= this.totalSteps) {
-            setDirectionToNearestHuman();
-            generateNewTotalSteps();
+        if (population.getHumanCount() > 0 && changeDirection) {
+            int pushTarget = world.getPursuitField() != null ? setDirectionDownPursuitField(i) : setDirectionToNearestHuman(i);
+            if (pushTarget >= 0) {
+                world.claimPush(i, pushTarget);
+            }
+            generateNewTotalSteps(i);
         }
-        
+
         // If no humans and time to change directions, generate random direction
-        else if (super.others.isEmpty() && this.nStepsTaken >= this.totalSteps) {
-            setRandomDirection(this.maxSpeed); //sets random dx and dy limited by maxSpeed
-            generateNewTotalSteps();
-        }
-        
-        // Keep travelling in the same direction if the total steps have been completed, regardless of whether humans exist or not
-        x += dx;
-        y += dy;
-        
-        // Threads need to sleep to delay movement for animation. Otherwise, objects would move too fast to be noticable
-        try {
-            Thread.sleep((int)20);
-        } catch (InterruptedException e) {
-            // ignore
+        else if (population.getHumanCount() == 0 && changeDirection) {
+            setRandomDirection(i, this.maxSpeed); //sets random dx and dy limited by maxSpeed
+            generateNewTotalSteps(i);
         }
-        
-        this.nStepsTaken++;
     }
-    
+
     /**
-     * Draws Zombies in the GUI as red-filled squares with black outlines 
+     * Draws Zombies in the GUI as red-filled squares with black outlines, with the top left corner
+     * at xy. Human.draw() calls this for every zombie.
      * @param g Graphics object to draw
+     * @param x X location of the sprite
+     * @param y Y location of the sprite
      */
     @Override
-    public void draw(Graphics g) {
+    public void drawAt(Graphics g, int x, int y) {
         g.setColor(Color.RED);
-        g.fillRect((int) x, (int) y, (int) size, (int) size);
+        g.fillRect(x, y, (int) size, (int) size);
         g.setColor(Color.BLACK);
-        g.drawRect((int) x, (int) y, (int) size, (int) size);
+        g.drawRect(x, y, (int) size, (int) size);
     }
 
     /**
-     * occurring when more than 1 zombie thread tries to infect the same human at the same time.
-     * It checks to see if a Zombie has intersected/touched a Human.
-     * If a Zombie intersects a Human, then these actions will follow:
-     * 1) The isAlive boolean flag is set to false to trigger the thread to stop running
-     * 2) The infected Human is removed from the list of other humans and creates a new Zombie object
-     * 3) This new Zombie is added to the zombieList in the MainGUI so that it is drawn in the GUI
+     * It checks to see if a Zombie has intersected/touched a Human. The human grid is used so
+     * only humans in the cells around the zombie are checked. Only one human can be infected by
+     * a zombie in each tick.
+     * 
+     * The human is not infected here. planMove() publishes the victim to the World's infection
+     * queue, and checkKill() flips each victim's state to ZOMBIE in place once every zombie has been
+     * planned. When two zombies reach the same human in the same tick, the zombie with the lowest
+     * index is credited, so the outcome never depends on which thread got there first.
+     * @param i index of the zombie in the Population
+     * @return index of the human that the zombie is touching, or -1
      */
-    protected void checkInfect(){
-        double dist;
-        for (Human human: super.getOthers()) {
-            dist = calculateDistance(human);
-            if (dist <= size) {
-                human.kill();
-                System.out.println(human.toString()+" kileld by " + this.toString());
-                break;
-            }
+    protected int checkInfect(int i){
+        if (population.getHumanCount() == 0) {
+            return -1;
         }
+        return world.getHumanGrid().firstWithin(population.getX(i), population.getY(i), size);
     }
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+package ZombieSimulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Benchmarks for the per-agent calls made during a tick's plan phase: a zombie looking for the
+ * nearest human, a zombie checking whether it touches a human, and picking a random speed. Each
+ * call is made for the next zombie in turn, against grids built once from the starting positions,
+ * so the time is for one call on one agent.
+ *
+ * Nothing moves between calls, so a zombie would stay locked on to the human it found on its first
+ * turn. setDirectionToNearestHuman lets every lock go stale once all the zombies have had a turn, so
+ * it measures the search; setDirectionToLockedHuman keeps the locks and measures a zombie that is
+ * still chasing the human it found before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentBenchmark {
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int agents;
+
+    private World world;
+    private Zombie zombie;
+    private int firstZombie, zombieCount, cursor;
+    private long tick;
+
+    @Setup
+    public void setUp() {
+        world = BenchmarkWorlds.create(agents);
+        world.beginTick();
+        tick = world.getTickCount();
+        zombie = world.getZombie();
+        zombieCount = world.getZombieCount();
+        firstZombie = world.getAgentCount() - zombieCount;
+    }
+
+    private int nextZombie() {
+        int i = firstZombie + cursor;
+        cursor = cursor + 1 == zombieCount ? 0 : cursor + 1;
+        return i;
+    }
+
+    @Benchmark
+    public int setDirectionToNearestHuman() {
+        if (cursor == 0) {
+            // A lock is only kept for MAX_LOCK_TICKS
+            tick += Zombie.MAX_LOCK_TICKS + 1;
+            zombie.beginTick(world.getAgentCount(), tick);
+        }
+        return zombie.setDirectionToNearestHuman(nextZombie());
+    }
+
+    @Benchmark
+    public int setDirectionToLockedHuman() {
+        return zombie.setDirectionToNearestHuman(nextZombie());
+    }
+
+    @Benchmark
+    public int checkInfect() {
+        return zombie.checkInfect(nextZombie());
+    }
+
+    @Benchmark
+    public int generateRandRange() {
+        return zombie.generateRandRange(nextZombie(), (int) zombie.getMaxSpeed());
+    }
+}
@@ -0,0 +1,39 @@
+package ZombieSimulator;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * Entry point of benchmarks.jar. It takes the usual JMH command line options, but unless -rf or
+ * -rff are given the results are always written as JSON to jmh-result.json, so every run leaves a
+ * machine-readable file that can be compared with runs of other versions.
+ *
+ * Examples:
+ *   java -jar benchmarks.jar                              # every benchmark, every population size
+ *   java -jar benchmarks.jar TickBenchmark -p agents=10000 -p threads=1,4
+ *   java -jar benchmarks.jar -rff results/v2.json
+ */
+public class BenchmarkRunner {
+    static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result(DEFAULT_RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,40 @@
+package ZombieSimulator;
+
+/**
+ *
+ * This class builds the Worlds that the benchmarks run on. A benchmark world holds one zombie for
+ * every ten agents, placed at random with SimulationEngine.populate(), in a square world that grows
+ * with the number of agents so that every population size has roughly the same density as the
+ * default 10000 humans in a 500 x 500 world.
+ */
+final class BenchmarkWorlds {
+    // Agents per square unit of the default headless world
+    private static final double DENSITY = 10000 / (500.0 * 500.0);
+    private static final int MIN_SIDE = 200;
+    static final long SEED = 1;
+
+    private BenchmarkWorlds() {
+    }
+
+    /**
+     * Returns the width (and height) of the world used for the given number of agents
+     * @param agents number of agents in the world
+     * @return side length of the square world
+     */
+    static int sideFor(int agents) {
+        return Math.max(MIN_SIDE, (int) Math.ceil(Math.sqrt(agents / DENSITY)));
+    }
+
+    /**
+     * Creates a world with the given number of agents, nine humans for every zombie
+     * @param agents total number of agents
+     * @return the populated World
+     */
+    static World create(int agents) {
+        int side = sideFor(agents);
+        World world = new World(side, side, SEED);
+        int zombies = Math.max(1, agents / 10);
+        SimulationEngine.populate(world, agents - zombies, zombies, SEED);
+        return world;
+    }
+}
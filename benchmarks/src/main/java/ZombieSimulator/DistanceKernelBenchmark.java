@@ -0,0 +1,93 @@
+package ZombieSimulator;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Benchmark for the DistanceKernels on their own. There are QUERIES runs of candidates laid out
+ * one after the other like the rows of a SpatialGrid (random locations, sorted Population indexes),
+ * and each operation measures one query location against one run. The candidates parameter is the
+ * length of a run: runs from a SpatialGrid are short in evenly spread worlds and long where agents
+ * crowd together. Compare the kernels with -p kernel=scalar,vector (the JVM is
+ * started with the jdk.incubator.vector module so both can run).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DistanceKernelBenchmark {
+    private static final int QUERIES = 1024;
+    private static final int SIDE = 10_000;
+
+    @Param({"4", "16", "64", "256"})
+    public int candidates;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private DistanceKernel distanceKernel;
+    private double[] xs, ys;
+    private int[] ids;
+    private double[] queryX, queryY;
+    private double radius2;
+
+    @Setup
+    public void setUp() {
+        distanceKernel = DistanceKernel.named(kernel);
+        Random random = new Random(BenchmarkWorlds.SEED);
+        int length = QUERIES * candidates;
+        xs = new double[length];
+        ys = new double[length];
+        ids = new int[length];
+        queryX = new double[QUERIES];
+        queryY = new double[QUERIES];
+        for (int k = 0; k < length; k++) {
+            xs[k] = random.nextDouble() * SIDE;
+            ys[k] = random.nextDouble() * SIDE;
+            ids[k] = random.nextInt(length * 10);
+        }
+        for (int q = 0; q < QUERIES; q++) {
+            Arrays.sort(ids, q * candidates, (q + 1) * candidates);
+            queryX[q] = random.nextDouble() * SIDE;
+            queryY[q] = random.nextDouble() * SIDE;
+        }
+        // About one candidate in a hundred is within the radius
+        radius2 = SIDE * (double) SIDE / (100 * Math.PI);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int nearest() {
+        int sum = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            sum += distanceKernel.nearest(xs, ys, ids, q * candidates, (q + 1) * candidates, queryX[q], queryY[q]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int firstWithin() {
+        int sum = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            sum += distanceKernel.firstWithin(xs, ys, ids, q * candidates, (q + 1) * candidates, queryX[q], queryY[q], radius2);
+        }
+        return sum;
+    }
+}
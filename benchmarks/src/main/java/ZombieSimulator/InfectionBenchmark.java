@@ -0,0 +1,61 @@
+package ZombieSimulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Benchmark for World.checkKill(), the drain that turns every infected human into a zombie. Before
+ * each measurement half of the agents are humans and every one of them has a zombie standing on
+ * top of it that has already published the infection, so one call converts agents / 2 victims.
+ * A drain can only be run once per set of infections, so each measurement is a single call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InfectionBenchmark {
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int agents;
+
+    private World world;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        int side = BenchmarkWorlds.sideFor(agents);
+        int victims = agents / 2;
+        world = new World(side, side, BenchmarkWorlds.SEED);
+        Random random = new Random(BenchmarkWorlds.SEED);
+        for (int i = 0; i < victims; i++) {
+            world.addHuman(20 + random.nextDouble() * (side - 40), 20 + random.nextDouble() * (side - 40));
+        }
+        Population population = world.getPopulation();
+        for (int i = 0; i < victims; i++) {
+            world.addZombie(population.getX(i), population.getY(i));
+        }
+        world.beginTick();
+        for (int i = 0; i < victims; i++) {
+            world.publishInfection(victims + i, i);
+        }
+    }
+
+    @Benchmark
+    public int checkKill() {
+        world.checkKill();
+        return world.getZombieCount();
+    }
+}
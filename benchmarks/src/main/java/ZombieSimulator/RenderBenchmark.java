@@ -0,0 +1,67 @@
+package ZombieSimulator;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Benchmark for painting the GUI's DrawPanel without a window. The panel is sized to the world and
+ * painted into an off-screen image of the same size, which is what the Timer's repaint costs on the
+ * event dispatch thread (apart from copying the image to the screen).
+ *
+ * The renderer parameter compares drawing each agent with Java2D ("shapes") against stamping
+ * sprites into a RasterRenderer's image ("raster"). The raster frame is redrawn on every call, as
+ * if the world had ticked between every pair of frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int agents;
+
+    @Param({"shapes", "raster"})
+    public String renderer;
+
+    private MainGUI.DrawPanel panel;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setUp() {
+        World world = BenchmarkWorlds.create(agents);
+        panel = new MainGUI.DrawPanel(world);
+        panel.setSize(world.getWidth(), world.getHeight());
+        panel.setRasterRendering(renderer.equals("raster"));
+        image = new BufferedImage(world.getWidth(), world.getHeight(), BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        panel.invalidateFrame();
+        panel.paintComponent(graphics);
+        return image;
+    }
+}
@@ -0,0 +1,66 @@
+package ZombieSimulator;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Benchmark for a whole World.tick(): grid rebuilds, planning every agent, converting victims and
+ * moving every agent. A fresh world is built for each iteration so every iteration starts from the
+ * same mix of humans and zombies. Run with -p threads=4 (for example) to measure the ForkJoinPool,
+ * with -p flowField=1 (or more) to measure pursuit through FlowFields rebuilt every that many
+ * ticks instead of nearest-agent searches, and with -p kernel=scalar,vector to compare the
+ * DistanceKernels inside those searches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class TickBenchmark {
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int agents;
+
+    @Param({"1"})
+    public int threads;
+
+    @Param({"0"})
+    public int flowField;
+
+    @Param({"auto"})
+    public String kernel;
+
+    private World world;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        world = BenchmarkWorlds.create(agents);
+        world.setParallelism(threads);
+        world.setFlowFieldEvery(flowField);
+        world.setDistanceKernel(DistanceKernel.named(kernel));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        world.setParallelism(1);
+    }
+
+    @Benchmark
+    public long tick() {
+        world.tick();
+        return world.getTickCount();
+    }
+}
@@ -0,0 +1,84 @@
+package ZombieSimulator;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * Benchmark for painting a window-sized view of a world far larger than the window. The world is
+ * WORLD_SIDE x WORLD_SIDE with the agents spread over all of it, and the DrawPanel is the size of a
+ * typical window. The view parameter either shows the whole world ("whole", which is drawn as a
+ * heat map) or a window-sized part of the middle of it at a scale of one pixel per unit ("close",
+ * which draws the agents in view). A frame must take well under 16 ms for 60 frames a second.
+ *
+ * Every call draws the frame again and builds the snapshot's cell index again, as if the world had
+ * ticked between every pair of frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ViewportBenchmark {
+    private static final int WORLD_SIDE = 100_000;
+    private static final int PANEL_WIDTH = 1280, PANEL_HEIGHT = 800;
+
+    @Param({"100000", "1000000"})
+    public int agents;
+
+    @Param({"whole", "close"})
+    public String view;
+
+    @Param({"shapes", "raster"})
+    public String renderer;
+
+    private MainGUI.DrawPanel panel;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setUp() {
+        World world = new World(WORLD_SIDE, WORLD_SIDE, BenchmarkWorlds.SEED);
+        int zombies = Math.max(1, agents / 10);
+        SimulationEngine.populate(world, agents - zombies, zombies, BenchmarkWorlds.SEED);
+        panel = new MainGUI.DrawPanel(world);
+        panel.setSize(PANEL_WIDTH, PANEL_HEIGHT);
+        panel.setRasterRendering(renderer.equals("raster"));
+        image = new BufferedImage(PANEL_WIDTH, PANEL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        // The first paint fits the whole world in the panel
+        panel.paintComponent(graphics);
+        if (view.equals("close")) {
+            Camera camera = panel.getCamera();
+            camera.zoom(PANEL_WIDTH / 2, PANEL_HEIGHT / 2, 1 / camera.getScale());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        panel.invalidateFrame();
+        // Make the snapshot look new, so its cell index is built again
+        panel.getSnapshots().acquire().sequence++;
+        panel.paintComponent(graphics);
+        return image;
+    }
+}
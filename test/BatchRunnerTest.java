@@ -0,0 +1,88 @@
+package ZombieSimulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * Checks that a batch writes the same rows whatever the number of threads, and that the zombie
+ * speeds it sweeps are the speeds the zombies really wander at.
+ */
+class BatchRunnerTest {
+
+    private static List<String> runBatch(Path output, int threads) throws IOException {
+        Properties config = new Properties();
+        config.setProperty("runs", "4");
+        config.setProperty("humans", "150");
+        config.setProperty("zombies", "2");
+        config.setProperty("width", "200");
+        config.setProperty("height", "200");
+        config.setProperty("maxTicks", "400");
+        config.setProperty("sampleEvery", "100");
+        config.setProperty("speedRatio", "0.1,0.25,0.75");
+        config.setProperty("sightDistance", "50,quarter");
+        config.setProperty("threads", String.valueOf(threads));
+        config.setProperty("output", output.toString());
+        new BatchRunner(config).run();
+        return Files.readAllLines(output);
+    }
+
+    @Test
+    void rowsAreTheSameForAnyNumberOfThreads(@TempDir Path dir) throws IOException {
+        List<String> one = runBatch(dir.resolve("one.csv"), 1);
+        List<String> three = runBatch(dir.resolve("three.csv"), 3);
+        assertEquals(1 + 3 * 2 * 4, one.size());
+        assertEquals(one, three);
+    }
+
+    /**
+     * Picks many random directions for a new zombie and returns every dx and dy picked
+     */
+    private static Set<Double> randomSpeeds(double speedRatio) {
+        World world = new World(500, 500, 3, new AgentParameters(6, speedRatio, AgentParameters.QUARTER_OF_WORLD, 10));
+        int i = world.addZombie(250, 250);
+        Set<Double> picked = new HashSet<>();
+        for (int k = 0; k < 2000; k++) {
+            world.getZombie().setRandomDirection(i, world.getZombie().getMaxSpeed());
+            picked.add(world.getPopulation().getDX(i));
+            picked.add(world.getPopulation().getDY(i));
+        }
+        return picked;
+    }
+
+    @Test
+    void fractionalZombieSpeedsAreNotCutDown() {
+        // 0.25 x 6 = 1.5, which used to wander at 1
+        assertEquals(Set.of(-1.5, -0.75, 0.75, 1.5), randomSpeeds(0.25));
+        // 0.75 x 6 = 4.5
+        Set<Double> fast = randomSpeeds(0.75);
+        assertTrue(fast.contains(4.5) && fast.contains(-4.5), fast.toString());
+        assertTrue(fast.stream().allMatch(v -> v != 0 && Math.abs(v) <= 4.5), fast.toString());
+    }
+
+    @Test
+    void zombiesSlowerThanOneStillWanderBothWays() {
+        // 0.1 x 6 = 0.6, which used to always walk (-1, -1)
+        Set<Double> slow = randomSpeeds(0.1);
+        assertEquals(2, slow.size(), slow.toString());
+        assertTrue(slow.stream().allMatch(v -> Math.abs(Math.abs(v) - 0.6) < 1e-12), slow.toString());
+        assertNotEquals(slow.stream().mapToDouble(Double::doubleValue).max(), slow.stream().mapToDouble(Double::doubleValue).min());
+    }
+
+    @Test
+    void wholeNumberSpeedsStillPickWholeNumbers() {
+        Set<Double> whole = randomSpeeds(1);
+        assertEquals(Set.of(-6.0, -5.0, -4.0, -3.0, -2.0, -1.0, 1.0, 2.0, 3.0, 4.0, 5.0, 6.0), whole);
+    }
+}
@@ -0,0 +1,159 @@
+package ZombieSimulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * Checks the distances a FlowField spreads around walls against repeating forward and backward
+ * passes until nothing changes.
+ */
+class FlowFieldTest {
+    // One map cell for every field cell
+    private static final int CELL = 10;
+
+    /**
+     * A maze of walls across the map, each with a gap at alternate ends, so the way from one end to
+     * the other winds back and forth across the whole map
+     */
+    private static List<String> serpentine(int cols, int rows) {
+        List<String> lines = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            char[] line = new char[cols];
+            Arrays.fill(line, '.');
+            if (row % 3 == 1) {
+                Arrays.fill(line, '#');
+                line[(row / 3) % 2 == 0 ? cols - 1 : 0] = '.';
+            }
+            lines.add(new String(line));
+        }
+        return lines;
+    }
+
+    /**
+     * Walls and open cells at random, with a few agents standing inside walls
+     */
+    private static List<String> scattered(int cols, int rows, long seed) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            char[] line = new char[cols];
+            for (int col = 0; col < cols; col++) {
+                line[col] = random.nextInt(10) < 4 ? '#' : '.';
+            }
+            lines.add(new String(line));
+        }
+        return lines;
+    }
+
+    /**
+     * Works out every cell's distance by passing distances on from the left and above, then from the
+     * right and below, until no cell changes, with the same rules as the field: walls only pass on a
+     * distance of 0 and diagonals only go past open corners
+     */
+    private static int[] sweep(boolean[] wall, boolean[] agent, int cols, int rows) {
+        int[] d = new int[cols * rows];
+        for (int c = 0; c < d.length; c++) {
+            d[c] = agent[c] ? 0 : FlowField.UNREACHED;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int pass = 0; pass < 2; pass++) {
+                int side = pass == 0 ? -1 : 1;
+                for (int k = 0; k < d.length; k++) {
+                    int c = side < 0 ? k : d.length - 1 - k, col = c % cols, row = c / cols;
+                    int best = d[c];
+                    if (col + side >= 0 && col + side < cols) {
+                        best = Math.min(best, from(d, wall, c + side) + FlowField.STRAIGHT);
+                    }
+                    if (row + side >= 0 && row + side < rows) {
+                        int a = c + side * cols;
+                        best = Math.min(best, from(d, wall, a) + FlowField.STRAIGHT);
+                        for (int step = -1; step <= 1; step += 2) {
+                            if (col + step >= 0 && col + step < cols && !wall[a] && !wall[c + step]) {
+                                best = Math.min(best, from(d, wall, a + step) + FlowField.DIAGONAL);
+                            }
+                        }
+                    }
+                    if (best < d[c]) {
+                        d[c] = best;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return d;
+    }
+
+    private static int from(int[] d, boolean[] wall, int c) {
+        return wall[c] && d[c] != 0 ? FlowField.UNREACHED : d[c];
+    }
+
+    /**
+     * Builds a field over a map with humans in the given cells and checks every cell against sweep()
+     * @return the field's distances
+     */
+    private static int[] checkMatchesSweep(List<String> lines, int[] humanCells) {
+        int cols = lines.get(0).length(), rows = lines.size();
+        ObstacleMap obstacles = ObstacleMap.fromLines(lines, cols * CELL, rows * CELL);
+        Population population = new Population(humanCells.length, 1);
+        boolean[] agent = new boolean[cols * rows], wall = new boolean[cols * rows];
+        for (int cell: humanCells) {
+            population.add((cell % cols + 0.5) * CELL, (cell / cols + 0.5) * CELL, Population.HUMAN);
+            agent[cell] = true;
+        }
+        for (int c = 0; c < wall.length; c++) {
+            wall[c] = obstacles.isCellBlocked(c % cols, c / cols);
+        }
+        FlowField field = new FlowField(population, Population.HUMAN, CELL);
+        field.setObstacles(obstacles);
+        // Twice, to check that a rebuild starts afresh
+        for (int build = 0; build < 2; build++) {
+            field.rebuild(cols * CELL, rows * CELL);
+        }
+        assertEquals(cols * rows, field.getCellCount());
+        int[] expected = sweep(wall, agent, cols, rows);
+        int[] steps = new int[expected.length];
+        for (int c = 0; c < expected.length; c++) {
+            steps[c] = field.getSteps(c);
+            assertEquals(expected[c], steps[c], "cell " + c % cols + ", " + c / cols);
+        }
+        return steps;
+    }
+
+    @Test
+    void distancesWindThroughAMazeLikeRepeatedSweeps() {
+        int cols = 60, rows = 45;
+        int[] steps = checkMatchesSweep(serpentine(cols, rows), new int[] {0});
+        // The bottom left corner is 15 walls down, and every wall has to be walked along
+        int corner = (rows - 1) * cols;
+        assertTrue(steps[corner] > 14 * (cols - 1) * FlowField.STRAIGHT, String.valueOf(steps[corner]));
+    }
+
+    @Test
+    void distancesMatchRepeatedSweepsAroundScatteredWalls() {
+        int cols = 50, rows = 40;
+        Random random = new Random(7);
+        for (int map = 0; map < 5; map++) {
+            int[] humans = new int[1 + map * 3];
+            for (int h = 0; h < humans.length; h++) {
+                humans[h] = random.nextInt(cols * rows);
+            }
+            checkMatchesSweep(scattered(cols, rows, map), humans);
+        }
+    }
+
+    @Test
+    void noAgentsLeavesEveryCellUnreached() {
+        int cols = 20, rows = 12;
+        int[] steps = checkMatchesSweep(serpentine(cols, rows), new int[0]);
+        assertTrue(Arrays.stream(steps).allMatch(d -> d == FlowField.UNREACHED));
+    }
+}
@@ -0,0 +1,185 @@
+package ZombieSimulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * Checks that frames written by a FrameEncoder, straight or through a TrajectoryLog, decode back to
+ * the snapshots they were made from.
+ */
+class FrameCodecTest {
+
+    /**
+     * Checks that a decoder holds a snapshot, with every location rounded the way the encoder does
+     */
+    static void assertDecodes(WorldSnapshot expected, FrameDecoder decoder) {
+        assertEquals(expected.getTick(), decoder.getTick());
+        assertEquals(expected.size(), decoder.size());
+        assertEquals(expected.getWidth(), decoder.getWidth());
+        assertEquals(expected.getHeight(), decoder.getHeight());
+        assertEquals(expected.getHumanCount(), decoder.getHumanCount());
+        assertEquals(expected.getZombieCount(), decoder.getZombieCount());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals((float) FrameEncoder.quantize(expected.getX(i)) / FrameEncoder.SUBPIXELS, decoder.getX(i), "x of " + i);
+            assertEquals((float) FrameEncoder.quantize(expected.getY(i)) / FrameEncoder.SUBPIXELS, decoder.getY(i), "y of " + i);
+            assertEquals(expected.getState(i), decoder.getState(i), "state of " + i);
+        }
+    }
+
+    private static World world() {
+        return SimulationEngine.createWorld(500, 500, 1500, 15, 11, null);
+    }
+
+    @Test
+    void keyframesAndDeltasDecodeToTheEncodedSnapshots() {
+        World world = world();
+        SimulationEngine engine = new SimulationEngine(world, SimulationEngine.AS_FAST_AS_POSSIBLE);
+        FrameEncoder encoder = new FrameEncoder();
+        FrameDecoder decoder = new FrameDecoder();
+        WorldSnapshot snapshot = new WorldSnapshot();
+        int keyframes = 0;
+        for (int frame = 0; frame < 120; frame++) {
+            if (frame == 30 || frame == 31) {
+                // Spawns, which a delta carries as new agents
+                world.addHuman(250, 250);
+                world.addZombie(10, 10);
+            }
+            if (frame == 50) {
+                // Teleport, which is too far for a delta byte
+                world.getPopulation().setX(0, 499);
+                world.getPopulation().setY(0, 1);
+            }
+            snapshot.copyFrom(world, frame);
+            ByteBuffer encoded = encoder.encode(snapshot, frame % 25 == 0);
+            if (FrameDecoder.isKeyframe(encoded, 0)) {
+                keyframes++;
+            }
+            assertEquals(encoded.limit(), decoder.decode(encoded, 0));
+            assertDecodes(snapshot, decoder);
+            engine.step();
+        }
+        assertEquals(5, keyframes);
+        assertTrue(world.getZombieCount() > 16, "some humans were infected along the way");
+    }
+
+    @Test
+    void deltasAreAboutTwoBytesPerAgent() {
+        World world = world();
+        FrameEncoder encoder = new FrameEncoder();
+        WorldSnapshot snapshot = new WorldSnapshot();
+        snapshot.copyFrom(world, 0);
+        encoder.encode(snapshot, true);
+        world.tick();
+        snapshot.copyFrom(world, 1);
+        ByteBuffer delta = encoder.encode(snapshot, false);
+        assertFalse(FrameDecoder.isKeyframe(delta, 0));
+        assertTrue(delta.limit() < FrameEncoder.HEADER_BYTES + 8 + 2.5 * snapshot.size(), delta.limit() + " bytes");
+    }
+
+    private static ByteBuffer copy(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.limit()).order(ByteOrder.LITTLE_ENDIAN);
+        return copy.put(0, frame, 0, frame.limit());
+    }
+
+    @Test
+    void corruptFramesAreTurnedDown() {
+        World world = world();
+        FrameEncoder encoder = new FrameEncoder();
+        WorldSnapshot snapshot = new WorldSnapshot();
+        snapshot.copyFrom(world, 0);
+        ByteBuffer keyframe = copy(encoder.encode(snapshot, true));
+        world.tick();
+        world.getPopulation().setX(3, 1);
+        snapshot.copyFrom(world, 1);
+        ByteBuffer delta = copy(encoder.encode(snapshot, false));
+        int changesAt = FrameEncoder.HEADER_BYTES + 4;
+
+        FrameDecoder decoder = new FrameDecoder();
+        assertThrows(IllegalStateException.class, () -> decoder.decode(delta, 0), "a delta before any keyframe");
+        decoder.decode(keyframe, 0);
+
+        ByteBuffer hugeCount = copy(keyframe).putInt(21, Integer.MAX_VALUE);
+        assertThrows(IllegalStateException.class, () -> decoder.decode(hugeCount, 0));
+        decoder.decode(keyframe, 0);
+        ByteBuffer tooLong = copy(keyframe).putInt(0, keyframe.limit() + 1);
+        assertThrows(IllegalStateException.class, () -> decoder.decode(tooLong, 0));
+        decoder.decode(keyframe, 0);
+        ByteBuffer truncated = copy(delta).limit(delta.limit() - 3);
+        truncated.putInt(0, truncated.limit());
+        assertThrows(IllegalStateException.class, () -> decoder.decode(truncated, 0));
+        decoder.decode(keyframe, 0);
+        ByteBuffer wrongPrevious = copy(delta).putInt(FrameEncoder.HEADER_BYTES, snapshot.size() - 1);
+        assertThrows(IllegalStateException.class, () -> decoder.decode(wrongPrevious, 0));
+        decoder.decode(keyframe, 0);
+        ByteBuffer tooManyChanges = copy(delta).putInt(changesAt, Integer.MAX_VALUE);
+        assertThrows(IllegalStateException.class, () -> decoder.decode(tooManyChanges, 0));
+        decoder.decode(keyframe, 0);
+        ByteBuffer badType = copy(delta).put(4, (byte) 9);
+        assertThrows(IllegalStateException.class, () -> decoder.decode(badType, 0));
+
+        // A change to an agent that is not there
+        int human = 0;
+        while (!world.getPopulation().isHuman(human)) {
+            human++;
+        }
+        snapshot.copyFrom(world, 2);
+        ByteBuffer before = copy(encoder.encode(snapshot, true));
+        world.getPopulation().infect(human);
+        snapshot.copyFrom(world, 3);
+        ByteBuffer infected = copy(encoder.encode(snapshot, false));
+        assertEquals(1, infected.getInt(changesAt));
+        decoder.decode(before, 0);
+        ByteBuffer badIndex = copy(infected).putInt(changesAt + 4, snapshot.size());
+        assertThrows(IllegalStateException.class, () -> decoder.decode(badIndex, 0));
+        // The decoder needs a keyframe again after a corrupt frame
+        assertThrows(IllegalStateException.class, () -> decoder.decode(infected, 0));
+        decoder.decode(before, 0);
+        decoder.decode(infected, 0);
+        assertDecodes(snapshot, decoder);
+    }
+
+    @Test
+    void trajectoryLogReadsBackEveryFrameInAnyOrder(@TempDir Path dir) {
+        Path file = dir.resolve("run.ztrj");
+        World world = world();
+        SimulationEngine engine = new SimulationEngine(world, SimulationEngine.AS_FAST_AS_POSSIBLE);
+        List<WorldSnapshot> expected = new ArrayList<>();
+        try (TrajectoryLog log = new TrajectoryLog(file, world, 8)) {
+            engine.addTickListener(log);
+            WorldSnapshot first = new WorldSnapshot();
+            first.copyFrom(world, 0);
+            expected.add(first);
+            for (int tick = 1; tick <= 60; tick++) {
+                engine.step();
+                WorldSnapshot snapshot = new WorldSnapshot();
+                snapshot.copyFrom(world, tick);
+                expected.add(snapshot);
+            }
+            assertEquals(expected.size(), log.getFrameCount());
+        }
+
+        try (TrajectoryReader reader = new TrajectoryReader(file)) {
+            assertEquals(expected.size(), reader.getFrameCount());
+            assertEquals(world.getPopulation().getSeed(), reader.getSeed());
+            assertEquals(8, reader.getKeyframeEvery());
+            FrameDecoder decoder = new FrameDecoder();
+            int[] order = {0, 1, 2, 17, 9, 60, 59, 8, 33, 34, 35, 3, 48, 47};
+            for (int frame: order) {
+                reader.seek(frame, decoder);
+                assertDecodes(expected.get(frame), decoder);
+                assertEquals(frame, reader.frameAt(expected.get(frame).getTick()));
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ZombieSimulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * Checks how the coordinator starts its workers and lets them in.
+ */
+class ShardCoordinatorTest {
+    private static final long TOKEN = 0x5eed_cafe_f00dL;
+
+    @Test
+    void clashingJvmOptionsAreNotPassedToWorkers() {
+        List<String> options = List.of("-Xmx4g", "--add-modules=jdk.incubator.vector",
+                "-agentlib:jdwp=transport=dt_socket,server=y,address=5005", "-XX:StartFlightRecording=filename=run.jfr",
+                "-javaagent:profiler.jar", "-Dcom.sun.management.jmxremote.port=9010", "-Xlog:gc:file=gc.log",
+                "-XX:+UseZGC");
+        assertEquals(List.of("-Xmx4g", "--add-modules=jdk.incubator.vector", "-XX:+UseZGC"),
+                ShardCoordinator.workerOptions(options));
+    }
+
+    private static SocketChannel connect(ServerSocketChannel server, int length, byte type, long token) throws IOException {
+        SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+        ByteBuffer hello = ByteBuffer.allocate(ShardLink.HELLO_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        hello.putInt(length).put(type).putLong(token).flip();
+        channel.write(hello);
+        return channel;
+    }
+
+    @Test
+    void onlyAWorkerWithTheTokenIsAccepted() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.socket().setSoTimeout(5000);
+            SocketChannel wrongToken = connect(server, ShardLink.HELLO_BYTES, ShardLink.HELLO, TOKEN + 1);
+            SocketChannel wrongType = connect(server, ShardLink.HELLO_BYTES, ShardLink.SETUP, TOKEN);
+            SocketChannel shortHello = SocketChannel.open(server.getLocalAddress());
+            shortHello.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+            shortHello.shutdownOutput();
+            SocketChannel worker = connect(server, ShardLink.HELLO_BYTES, ShardLink.HELLO, TOKEN);
+
+            SocketChannel accepted = ShardCoordinator.acceptWorker(server, TOKEN);
+            assertEquals(worker.getLocalAddress(), accepted.getRemoteAddress());
+            // The others were hung up on
+            assertEquals(-1, wrongToken.read(ByteBuffer.allocate(1)));
+            assertEquals(-1, wrongType.read(ByteBuffer.allocate(1)));
+            accepted.close();
+            worker.close();
+            wrongToken.close();
+            wrongType.close();
+            shortHello.close();
+        }
+    }
+
+    @Test
+    void noWorkerMeansATimeout() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            server.socket().setSoTimeout(200);
+            connect(server, ShardLink.HELLO_BYTES, ShardLink.HELLO, TOKEN + 1).close();
+            assertThrows(SocketTimeoutException.class, () -> ShardCoordinator.acceptWorker(server, TOKEN));
+        }
+    }
+}
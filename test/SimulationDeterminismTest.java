@@ -0,0 +1,90 @@
+package ZombieSimulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * Checks that the same seed always gives the same run, however many threads tick the world and
+ * whichever DistanceKernel answers its searches.
+ */
+class SimulationDeterminismTest {
+    private static final int WIDTH = 800, HEIGHT = 800, HUMANS = 3000, ZOMBIES = 20, TICKS = 300;
+    private static final long SEED = 42;
+
+    /**
+     * Runs a fresh world and returns its checksum at the end
+     */
+    static long run(int threads, DistanceKernel kernel, int flowFieldEvery) {
+        World world = SimulationEngine.createWorld(WIDTH, HEIGHT, HUMANS, ZOMBIES, SEED, null);
+        world.setParallelism(threads);
+        world.setFlowFieldEvery(flowFieldEvery);
+        if (kernel != null) {
+            world.setDistanceKernel(kernel);
+        }
+        try {
+            new SimulationEngine(world, SimulationEngine.AS_FAST_AS_POSSIBLE).runTicks(TICKS);
+        } finally {
+            world.setParallelism(1);
+        }
+        return world.getPopulation().checksum();
+    }
+
+    @Test
+    void oneAndFourThreadsGiveTheSameRun() {
+        assertEquals(run(1, null, 0), run(4, null, 0));
+    }
+
+    @Test
+    void oneAndFourThreadsGiveTheSameRunWithFlowFields() {
+        assertEquals(run(1, null, 5), run(4, null, 5));
+    }
+
+    @Test
+    void agentThreadsGiveTheSameRunAsTicks() {
+        World world = SimulationEngine.createWorld(WIDTH, HEIGHT, HUMANS / 10, ZOMBIES, SEED, null);
+        SimulationEngine engine = new SimulationEngine(world, SimulationEngine.AS_FAST_AS_POSSIBLE);
+        engine.setAgentThreads(new AgentThreads(world, true));
+        try {
+            engine.runTicks(TICKS / 3);
+        } finally {
+            engine.setAgentThreads(null);
+        }
+        World ticked = SimulationEngine.createWorld(WIDTH, HEIGHT, HUMANS / 10, ZOMBIES, SEED, null);
+        new SimulationEngine(ticked, SimulationEngine.AS_FAST_AS_POSSIBLE).runTicks(TICKS / 3);
+        assertEquals(ticked.getPopulation().checksum(), world.getPopulation().checksum());
+    }
+
+    @Test
+    void scalarAndVectorKernelsGiveTheSameRun() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "needs --add-modules jdk.incubator.vector");
+        assertEquals(run(1, new ScalarDistanceKernel(), 0), run(1, new VectorDistanceKernel(), 0));
+    }
+
+    @Test
+    void scalarAndVectorKernelsFindTheSameCandidates() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "needs --add-modules jdk.incubator.vector");
+        DistanceKernel scalar = new ScalarDistanceKernel(), vector = new VectorDistanceKernel();
+        java.util.Random random = new java.util.Random(7);
+        int n = 257;
+        double[] xs = new double[n], ys = new double[n];
+        int[] ids = new int[n];
+        for (int k = 0; k < n; k++) {
+            // Whole numbers on a small grid, so there are plenty of ties
+            xs[k] = random.nextInt(20);
+            ys[k] = random.nextInt(20);
+            ids[k] = random.nextInt(1000);
+        }
+        for (int q = 0; q < 500; q++) {
+            int from = random.nextInt(n), to = from + random.nextInt(n - from + 1);
+            double x = random.nextInt(20), y = random.nextInt(20), radius2 = random.nextInt(50);
+            assertEquals(scalar.nearest(xs, ys, ids, from, to, x, y), vector.nearest(xs, ys, ids, from, to, x, y));
+            assertEquals(scalar.firstWithin(xs, ys, ids, from, to, x, y, radius2),
+                    vector.firstWithin(xs, ys, ids, from, to, x, y, radius2));
+        }
+    }
+}
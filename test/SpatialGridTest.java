@@ -0,0 +1,118 @@
+package ZombieSimulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * Checks the grid's searches against looking at every agent.
+ */
+class SpatialGridTest {
+    private static final int WIDTH = 1000, HEIGHT = 700;
+
+    /**
+     * Fills a population with humans and a few zombies at random locations
+     */
+    private static Population randomPopulation(int humans, long seed) {
+        Random random = new Random(seed);
+        Population population = new Population(humans, seed);
+        for (int i = 0; i < humans; i++) {
+            byte state = i % 10 == 0 ? Population.ZOMBIE : Population.HUMAN;
+            population.add(random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT, state);
+        }
+        return population;
+    }
+
+    /**
+     * Finds the nearest human and the nearest of the other humans by looking at every human, with
+     * ties going to the lowest index
+     */
+    private static long bruteForce(Population population, double x, double y, double maxRadius, double runnerUpRadius) {
+        int best = -1, second = -1;
+        double bestDist2 = maxRadius * maxRadius;
+        for (int i = 0; i < population.size(); i++) {
+            double dist2 = dist2(population, i, x, y);
+            if (population.isHuman(i) && dist2 < bestDist2) {
+                best = i;
+                bestDist2 = dist2;
+            }
+        }
+        double secondDist2 = runnerUpRadius * runnerUpRadius;
+        for (int i = 0; i < population.size(); i++) {
+            double dist2 = dist2(population, i, x, y);
+            if (population.isHuman(i) && i != best && dist2 < secondDist2) {
+                second = i;
+                secondDist2 = dist2;
+            }
+        }
+        return ((long) second << 32) | (best & 0xffffffffL);
+    }
+
+    private static double dist2(Population population, int i, double x, double y) {
+        double dx = population.getX(i) - x, dy = population.getY(i) - y;
+        return dx * dx + dy * dy;
+    }
+
+    private static void checkNearestTwo(int humans, double maxRadius, double runnerUpRadius) {
+        Population population = randomPopulation(humans, humans);
+        SpatialGrid grid = new SpatialGrid(population, Population.HUMAN, 10, 0);
+        grid.rebuild(WIDTH, HEIGHT);
+        Random random = new Random(1);
+        for (int q = 0; q < 2000; q++) {
+            double x = random.nextDouble() * WIDTH, y = random.nextDouble() * HEIGHT;
+            long expected = bruteForce(population, x, y, maxRadius, runnerUpRadius);
+            assertEquals(expected, grid.nearestTwo(x, y, maxRadius, runnerUpRadius),
+                    "nearestTwo from " + x + ", " + y);
+            assertEquals((int) expected, grid.nearest(x, y, maxRadius), "nearest from " + x + ", " + y);
+        }
+    }
+
+    @Test
+    void nearestTwoMatchesBruteForceInACrowd() {
+        checkNearestTwo(20000, 1500, 1500);
+    }
+
+    @Test
+    void nearestTwoMatchesBruteForceWhenSparse() {
+        checkNearestTwo(30, 1500, 1500);
+    }
+
+    @Test
+    void nearestTwoMatchesBruteForceWithinShortRadii() {
+        checkNearestTwo(2000, 40, 40);
+        checkNearestTwo(2000, 40, 90);
+        checkNearestTwo(2000, 90, 40);
+    }
+
+    @Test
+    void nearestTwoFindsNoRunnerUpForALoneHuman() {
+        Population population = new Population(4, 1);
+        population.add(100, 100, Population.HUMAN);
+        population.add(500, 500, Population.ZOMBIE);
+        SpatialGrid grid = new SpatialGrid(population, Population.HUMAN, 10, 0);
+        grid.rebuild(WIDTH, HEIGHT);
+        long found = grid.nearestTwo(0, 0, 1500, 1500);
+        assertEquals(0, (int) found);
+        assertEquals(-1, (int) (found >> 32));
+    }
+
+    @Test
+    void firstWithinMatchesBruteForce() {
+        Population population = randomPopulation(5000, 3);
+        SpatialGrid grid = new SpatialGrid(population, Population.HUMAN, 10, 0);
+        grid.rebuild(WIDTH, HEIGHT);
+        Random random = new Random(2);
+        for (int q = 0; q < 2000; q++) {
+            double x = random.nextDouble() * WIDTH, y = random.nextDouble() * HEIGHT, radius = random.nextDouble() * 30;
+            int expected = -1;
+            for (int i = 0; i < population.size() && expected < 0; i++) {
+                if (population.isHuman(i) && dist2(population, i, x, y) <= radius * radius) {
+                    expected = i;
+                }
+            }
+            assertEquals(expected, grid.firstWithin(x, y, radius));
+        }
+    }
+}
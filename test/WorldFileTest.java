@@ -0,0 +1,165 @@
+package ZombieSimulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * Checks that a world restored from a WorldFile carries on exactly like the world that was
+ * checkpointed.
+ */
+class WorldFileTest {
+    private static final int BEFORE = 100, AFTER = 50;
+
+    // A wall across most of the world, with a gap at the bottom
+    private static final ObstacleMap WALLS = ObstacleMap.fromLines(List.of(
+            "..........", "....#.....", "....#.....", "....#.....", "....#.....", ".........."), 700, 500);
+
+    private static World world(int flowFieldEvery, ObstacleMap obstacles) {
+        World world = SimulationEngine.createWorld(700, 500, 2500, 10, 5, null);
+        world.setFlowFieldEvery(flowFieldEvery);
+        world.setObstacles(obstacles);
+        return world;
+    }
+
+    private static void run(World world, long ticks) {
+        new SimulationEngine(world, SimulationEngine.AS_FAST_AS_POSSIBLE).runTicks(ticks);
+    }
+
+    /**
+     * Runs BEFORE ticks, checkpoints, restores into a new World and runs AFTER more ticks on it, and
+     * checks that it ends the same as an uninterrupted run
+     */
+    private static void checkResumedRunMatches(Path file, int flowFieldEvery, ObstacleMap obstacles) {
+        World uninterrupted = world(flowFieldEvery, obstacles);
+        run(uninterrupted, BEFORE + AFTER);
+
+        World checkpointed = world(flowFieldEvery, obstacles);
+        run(checkpointed, BEFORE);
+        World restored;
+        try (WorldFile worldFile = new WorldFile(file, 0)) {
+            assertFalse(worldFile.hasCheckpoint());
+            worldFile.checkpoint(checkpointed);
+            assertEquals(BEFORE, worldFile.getCheckpointTick());
+        }
+        try (WorldFile worldFile = new WorldFile(file, 0)) {
+            assertTrue(worldFile.hasCheckpoint());
+            restored = worldFile.restore();
+        }
+        assertEquals(checkpointed.getTickCount(), restored.getTickCount());
+        assertEquals(checkpointed.getWidth(), restored.getWidth());
+        assertEquals(checkpointed.getHeight(), restored.getHeight());
+        assertEquals(checkpointed.getHumanCount(), restored.getHumanCount());
+        assertEquals(checkpointed.getZombieCount(), restored.getZombieCount());
+        assertEquals(checkpointed.getPopulation().checksum(), restored.getPopulation().checksum());
+
+        // What a resumed run does with its options
+        restored.setFlowFieldEvery(flowFieldEvery);
+        restored.setObstacles(obstacles);
+        run(restored, AFTER);
+        assertEquals(uninterrupted.getTickCount(), restored.getTickCount());
+        assertEquals(uninterrupted.getPopulation().checksum(), restored.getPopulation().checksum());
+    }
+
+    @Test
+    void restoredRunMatchesUninterruptedRun(@TempDir Path dir) {
+        checkResumedRunMatches(dir.resolve("world.zsim"), 0, null);
+    }
+
+    @Test
+    void restoredRunKeepsTheFlowFieldSchedule(@TempDir Path dir) {
+        // 100 is not a multiple of 7, so the fields were built 2 ticks before the checkpoint
+        checkResumedRunMatches(dir.resolve("world.zsim"), 7, null);
+    }
+
+    @Test
+    void restoredRunKeepsFlowFieldsBuiltAroundWalls(@TempDir Path dir) {
+        checkResumedRunMatches(dir.resolve("world.zsim"), 7, WALLS);
+    }
+
+    @Test
+    void changingTheWallsRebuildsRestoredFlowFields(@TempDir Path dir) {
+        Path file = dir.resolve("world.zsim");
+        World world = world(7, WALLS);
+        run(world, BEFORE);
+        try (WorldFile worldFile = new WorldFile(file, 0)) {
+            worldFile.checkpoint(world);
+            World sameWalls = worldFile.restore();
+            sameWalls.setFlowFieldEvery(7);
+            sameWalls.setObstacles(WALLS);
+            assertEquals(world.getFieldsBuiltAt(), sameWalls.getFieldsBuiltAt());
+            World open = worldFile.restore();
+            open.setFlowFieldEvery(7);
+            open.setObstacles(null);
+            assertEquals(-1, open.getFieldsBuiltAt());
+        }
+    }
+
+    @Test
+    void checkpointCanBeTakenAgainOverAnOlderOne(@TempDir Path dir) {
+        Path file = dir.resolve("world.zsim");
+        World world = world(0, null);
+        try (WorldFile worldFile = new WorldFile(file, 0)) {
+            worldFile.checkpoint(world);
+            // Grow the world past the file's first capacity
+            for (int i = 0; i < 5000; i++) {
+                world.addHuman(1 + i % 600, 1 + i / 600);
+            }
+            run(world, 3);
+            worldFile.checkpoint(world);
+            World restored = worldFile.restore();
+            assertEquals(world.getAgentCount(), restored.getAgentCount());
+            assertEquals(world.getPopulation().checksum(), restored.getPopulation().checksum());
+        }
+    }
+
+    @Test
+    void checkpointCutShortLeavesTheOneBefore(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("world.zsim");
+        World world = world(7, null);
+        run(world, BEFORE);
+        long before = world.getPopulation().checksum();
+        try (WorldFile worldFile = new WorldFile(file, 0)) {
+            worldFile.checkpoint(world);
+            run(world, AFTER);
+            worldFile.checkpoint(world);
+            assertEquals(BEFORE + AFTER, worldFile.getCheckpointTick());
+        }
+
+        // The second checkpoint went into the other slot. Make it look like the process died while
+        // writing it, halfway through its columns
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4096);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            int slot = WorldFile.SLOT_AT[1];
+            assertEquals(WorldFile.COMPLETE, header.getInt(slot + WorldFile.STATUS_AT));
+            header.putInt(slot + WorldFile.STATUS_AT, WorldFile.WRITING);
+            channel.write(ByteBuffer.allocate(4096), header.getLong(slot + WorldFile.DATA_AT));
+        }
+
+        try (WorldFile worldFile = new WorldFile(file, 0)) {
+            assertTrue(worldFile.hasCheckpoint());
+            assertEquals(BEFORE, worldFile.getCheckpointTick());
+            World restored = worldFile.restore();
+            assertEquals(BEFORE, restored.getTickCount());
+            assertEquals(before, restored.getPopulation().checksum());
+            // The next checkpoint goes over the one that was cut short, not the good one
+            run(restored, 1);
+            worldFile.checkpoint(restored);
+            assertEquals(BEFORE + 1, worldFile.getCheckpointTick());
+            assertEquals(restored.getPopulation().checksum(), worldFile.restore().getPopulation().checksum());
+        }
+    }
+}
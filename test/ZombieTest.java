@@ -0,0 +1,34 @@
+package ZombieSimulator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * Checks that zombies see the whole world, however big it is.
+ */
+class ZombieTest {
+
+    @Test
+    void zombiesSeeAcrossAHugeWorld() {
+        // 47000 x 47000 is more than an int can hold
+        World world = new World(47000, 47000, 1);
+        int human = world.addHuman(46900, 46900);
+        int zombie = world.addZombie(100, 100);
+        assertTrue(world.getZombie().getSightDistance() >= Math.hypot(47000, 47000));
+
+        world.beginTick();
+        world.getZombie().setDirectionToNearestHuman(zombie);
+        double speed = world.getZombie().getMaxSpeed();
+        assertEquals(speed / Math.sqrt(2), world.getPopulation().getDX(zombie), 1e-9);
+        assertEquals(speed / Math.sqrt(2), world.getPopulation().getDY(zombie), 1e-9);
+
+        // Still heading for the same human a tick later
+        world.getPopulation().setX(human, 46800);
+        world.beginTick();
+        world.getZombie().setDirectionToNearestHuman(zombie);
+        assertTrue(world.getPopulation().getDX(zombie) > 0 && world.getPopulation().getDY(zombie) > 0);
+    }
+}